@@ -8,6 +8,8 @@ import eis.iilang.Numeral;
 import eis.iilang.Parameter;
 import eis.iilang.Percept;
 import massim.protocol.messages.*;
+import massim.protocol.messages.scenario.StepPercept;
+import massim.protocol.messages.scenario.StepPerceptDelta;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -41,6 +43,7 @@ public abstract class ConnectedEntity extends Entity {
     private int port;
     private boolean useJSON = false;
     private boolean useIILang = false;
+    private boolean deltaPercepts = false;
 
     private boolean connected = false;
     private boolean connecting = false;
@@ -49,6 +52,9 @@ public abstract class ConnectedEntity extends Entity {
     private OutputStream out;
     private volatile boolean terminated = false;
 
+    // the last complete step percept (needed to decode delta percepts)
+    private StepPercept lastStepPercept;
+
     private Set<Percept> simStartPercepts = Collections.synchronizedSet(new HashSet<>());
     private Set<Percept> requestActionPercepts = Collections.synchronizedSet(new HashSet<>());
     private Set<Percept> simEndPercepts = Collections.synchronizedSet(new HashSet<>());
@@ -164,6 +170,13 @@ public abstract class ConnectedEntity extends Entity {
         useIILang = true;
     }
 
+    /**
+     * Requests step percepts as deltas to the previous ones (which are completed before they are mapped to IILang).
+     */
+    void enableDeltaPercepts() {
+        deltaPercepts = true;
+    }
+
     /**
      * Stops this entity and its thread. Closes the socket, if there is one.
      */
@@ -188,8 +201,15 @@ public abstract class ConnectedEntity extends Entity {
 
             // process message
             Message msg = Message.buildFromJson(json);
+            if (msg instanceof StepPerceptDelta) {
+                msg = ((StepPerceptDelta) msg).applyTo(lastStepPercept);
+                if (msg == null) log("delta percept does not match the previous percept, waiting for a complete one");
+            }
             if (msg == null) continue;
 
+            if (msg instanceof StepPercept) lastStepPercept = (StepPercept) msg;
+            else if (msg instanceof SimStartMessage || msg instanceof SimEndMessage) lastStepPercept = null;
+
             if (msg instanceof SimStartMessage) {
                 SimStartMessage startMessage = (SimStartMessage) msg;
                 simStartPercepts.clear();
@@ -345,6 +365,7 @@ public abstract class ConnectedEntity extends Entity {
                 lastUsedActionId = -1;
                 currentActionId = -1;
                 lastUsedActionIdPercept = -1;
+                lastStepPercept = null;
                 connected = true;
                 log("connection successfully authenticated");
 
@@ -370,7 +391,7 @@ public abstract class ConnectedEntity extends Entity {
     private boolean authenticate() {
 
         // create and try to send message
-        Message authReq = new AuthRequestMessage(username, password);
+        Message authReq = new AuthRequestMessage(username, password, deltaPercepts);
         try {
             sendMessage(authReq.toJson());
         } catch (IOException e) {
@@ -193,6 +193,10 @@ public class EnvironmentInterface extends EIDefaultImpl implements Runnable{
                 entity.enableIILang();
                 Log.log("Enable IILang printing for entity " + entity.getName());
             }
+            if(jsonEntity.optBoolean("delta-percepts", false)){
+                entity.enableDeltaPercepts();
+                Log.log("Enable delta percepts for entity " + entity.getName());
+            }
 
             if(entities.put(entity.getName(), entity) != null){
                 // entity by that name already existed
@@ -213,6 +217,7 @@ public class EnvironmentInterface extends EIDefaultImpl implements Runnable{
             var startIndex = multiEntity.getInt("start-index");
             var printIILang = multiEntity.optBoolean("print-iilang", true);
             var printJSON = multiEntity.optBoolean("print-json", true);
+            var deltaPercepts = multiEntity.optBoolean("delta-percepts", false);
 
             if (count == -1) {
                 Log.log("EISMASSim auto config found. Querying server for number of entities.");
@@ -228,6 +233,7 @@ public class EnvironmentInterface extends EIDefaultImpl implements Runnable{
                 ConnectedEntity entity = new ScenarioEntity(namePrefix + index, host, port, usernamePrefix + index, password);
                 if (printIILang) entity.enableIILang();
                 if (printJSON) entity.enableJSON();
+                if (deltaPercepts) entity.enableDeltaPercepts();
                 if(entities.put(entity.getName(), entity) != null){
                     Log.log("Entity by name " + entity.getName() + " configured multiple times. Previous one replaced.");
                 }
@@ -2,6 +2,7 @@ package massim.eismassim.entities;
 
 import eis.iilang.*;
 import massim.eismassim.ConnectedEntity;
+import massim.eismassim.Log;
 import massim.protocol.messages.ActionMessage;
 import massim.protocol.messages.RequestActionMessage;
 import massim.protocol.messages.SimEndMessage;
@@ -23,6 +24,28 @@ public class ScenarioEntity extends ConnectedEntity {
 
     @Override
     protected List<Percept> simStartToIIL(SimStartMessage startPercept) {
+        return simStartPercepts(startPercept);
+    }
+
+    @Override
+    protected Collection<Percept> requestActionToIIL(RequestActionMessage message) {
+        return requestActionPercepts(message);
+    }
+
+    @Override
+    protected Collection<Percept> simEndToIIL(SimEndMessage endPercept) {
+        return simEndPercepts(endPercept);
+    }
+
+    @Override
+    public JSONObject actionToJSON(long actionID, Action action) {
+        return toActionMessage(actionID, action).toJson();
+    }
+
+    /**
+     * Maps the sim-start-message to IILang.
+     */
+    public static List<Percept> simStartPercepts(SimStartMessage startPercept) {
 
         List<Percept> ret = new ArrayList<>();
         if(!(startPercept instanceof InitialPercept)) return ret; // protocol incompatibility
@@ -37,8 +60,10 @@ public class ScenarioEntity extends ConnectedEntity {
         return ret;
     }
 
-    @Override
-    protected Collection<Percept> requestActionToIIL(RequestActionMessage message) {
+    /**
+     * Maps the request-action-message to IILang.
+     */
+    public static Collection<Percept> requestActionPercepts(RequestActionMessage message) {
         var ret = new HashSet<Percept>();
         if(!(message instanceof StepPercept)) return ret; // percept incompatible with entity
         var percept = (StepPercept) message;
@@ -81,8 +106,10 @@ public class ScenarioEntity extends ConnectedEntity {
         return ret;
     }
 
-    @Override
-    protected Collection<Percept> simEndToIIL(SimEndMessage endPercept) {
+    /**
+     * Maps the sim-end-message to IILang.
+     */
+    public static Collection<Percept> simEndPercepts(SimEndMessage endPercept) {
         HashSet<Percept> ret = new HashSet<>();
         if (endPercept != null){
             ret.add(new Percept("ranking", new Numeral(endPercept.getRanking())));
@@ -91,8 +118,10 @@ public class ScenarioEntity extends ConnectedEntity {
         return ret;
     }
 
-    @Override
-    public JSONObject actionToJSON(long actionID, Action action) {
+    /**
+     * Maps an IILang-action to a massim protocol action.
+     */
+    public static ActionMessage toActionMessage(long actionID, Action action) {
 
         // translate parameters to String
         List<String> parameters = new Vector<>();
@@ -104,13 +133,12 @@ public class ScenarioEntity extends ConnectedEntity {
                 parameters.add(((Numeral) param).getValue().toString());
             }
             else{
-                log("Cannot translate parameter " + param);
+                Log.log("Cannot translate parameter " + param);
                 parameters.add(""); // add empty parameter so the order is not invalidated
             }
         });
 
         // create massim protocol action
-        ActionMessage msg = new ActionMessage(action.getName(), actionID, parameters);
-        return msg.toJson();
+        return new ActionMessage(action.getName(), actionID, parameters);
     }
 }
@@ -0,0 +1,82 @@
+package massim.javaagents;
+
+import eis.iilang.Percept;
+import massim.eismassim.entities.ScenarioEntity;
+import massim.javaagents.agents.Agent;
+import massim.javaagents.agents.BasicAgent;
+import massim.protocol.LocalAgent;
+import massim.protocol.messages.ActionMessage;
+import massim.protocol.messages.RequestActionMessage;
+import massim.protocol.messages.SimEndMessage;
+import massim.protocol.messages.SimStartMessage;
+
+import java.util.*;
+
+/**
+ * Runs java agents in the same JVM as the server (e.g. with the server's batch runner).
+ * Agents get the same percepts as they would get through EISMASSim.
+ * Override {@link #createAgent(String, MailService)} to use other agent classes.
+ */
+public class LocalTeam implements LocalAgent.Factory {
+
+    @Override
+    public Map<String, LocalAgent> createTeam(String teamName, List<String> agentNames) {
+        var mailService = new MailService();
+        var agents = new HashMap<String, LocalAgent>();
+        for (String name : agentNames) {
+            var agent = createAgent(name, mailService);
+            if (agent == null) continue;
+            mailService.registerAgent(agent, teamName);
+            agents.put(name, new AgentBinding(agent));
+        }
+        return agents;
+    }
+
+    /**
+     * @param name the agent's name
+     * @param mailService the mail service of the agent's team
+     * @return a new agent or null if the agent should not act
+     */
+    protected Agent createAgent(String name, MailService mailService) {
+        return new BasicAgent(name, mailService);
+    }
+
+    /**
+     * Translates the messages for a single agent.
+     */
+    private static class AgentBinding implements LocalAgent {
+
+        private final Agent agent;
+        private final List<Percept> simStartPercepts = new ArrayList<>();
+
+        private AgentBinding(Agent agent) {
+            this.agent = agent;
+        }
+
+        @Override
+        public void handleSimStart(SimStartMessage message) {
+            simStartPercepts.clear();
+            simStartPercepts.add(new Percept("simStart"));
+            simStartPercepts.addAll(ScenarioEntity.simStartPercepts(message));
+        }
+
+        @Override
+        public ActionMessage handleRequestAction(RequestActionMessage message) {
+            List<Percept> percepts = new ArrayList<>(simStartPercepts);
+            percepts.add(new Percept("requestAction"));
+            percepts.addAll(ScenarioEntity.requestActionPercepts(message));
+            agent.setPercepts(percepts);
+            var action = agent.step();
+            return action != null? ScenarioEntity.toActionMessage(message.getId(), action) : null;
+        }
+
+        @Override
+        public void handleSimEnd(SimEndMessage message) {
+            simStartPercepts.clear();
+            List<Percept> percepts = new ArrayList<>();
+            percepts.add(new Percept("simEnd"));
+            percepts.addAll(ScenarioEntity.simEndPercepts(message));
+            agent.setPercepts(percepts);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 import { Redraw, StaticWorld, DynamicWorld, ConnectionState, Pos } from './interfaces';
 import { MapCtrl, minScale, maxScale } from './map';
-import { compareAgent } from './util';
+import { compareAgent, applyDelta } from './util';
 
 export interface ViewModel {
   state: ConnectionState
@@ -39,6 +39,10 @@ export class Ctrl {
       const data = JSON.parse(msg.data);
       console.log(data);
       if (data.grid) this.setStatic(data);
+      else if (data.delta) {
+        // deltas can only be applied once the complete state is known
+        if (this.vm.dynamic) this.setDynamic(applyDelta(this.vm.dynamic, data));
+      }
       else this.setDynamic(data);
       this.redraw();
     };
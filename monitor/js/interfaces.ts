@@ -21,7 +21,7 @@ export interface Grid {
   height: number
 }
 
-type Terrain = 0 | 1 | 2
+export type Terrain = 0 | 1 | 2
 
 export interface DynamicWorld {
   step: number
@@ -35,6 +35,21 @@ export interface DynamicWorld {
   scores: { [team: string]: number }
 }
 
+// changes since the previous step: created or changed objects, removed object ids and changed terrain cells
+export interface DynamicWorldDelta {
+  step: number
+  delta: true
+  entities: Agent[]
+  blocks: Block[]
+  dispensers: Dispenser[]
+  taskboards: TaskBoard[]
+  removed: number[]
+  tasks: Task[]
+  clear: ClearEvent[]
+  cells: [number, number, Terrain][]
+  scores: { [team: string]: number }
+}
+
 export interface Positionable {
   x: number
   y: number
@@ -58,6 +73,7 @@ export interface Agent extends Positionable, AgentStatus {
 }
 
 export interface Block extends Positionable {
+  id?: number // not in older replays
   type: BlockType
   attached?: Pos[]
 }
@@ -67,7 +83,9 @@ export interface Dispenser extends Positionable {
   type: BlockType
 }
 
-export type TaskBoard = Positionable
+export interface TaskBoard extends Positionable {
+  id?: number // not in older replays
+}
 
 export interface Task {
   reward: number
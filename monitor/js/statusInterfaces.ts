@@ -15,4 +15,21 @@ export interface StatusData {
   step: number
   steps: number
   entities: AgentStatus[]
+  responses?: StepResponses
+}
+
+export interface StepResponses {
+  teams: { [team: string]: ResponseStats }
+  agents: { [agent: string]: number } // -1 if no action was received in time
+}
+
+export interface ResponseStats {
+  responses: number
+  min?: number
+  median?: number
+  p99?: number
+  max?: number
+  timeouts: number
+  late: number
+  invalid: number
 }
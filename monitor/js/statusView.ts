@@ -1,7 +1,7 @@
 import { h } from 'snabbdom';
 import { VNode } from 'snabbdom/vnode';
 
-import { StatusCtrl, StatusData } from './statusInterfaces';
+import { StatusCtrl, StatusData, StepResponses } from './statusInterfaces';
 import { compareAgent } from './util';
 import * as styles from './styles';
 
@@ -15,13 +15,15 @@ function view(data: StatusData): VNode[] {
 
   return [
     h('h2', `Step ${data.step}/${data.steps - 1}`),
+    ...(data.responses ? [responsesView(data.responses, teams)] : []),
     h('table', [
       h('thead', [
         h('tr', [
           h('th', 'Team'),
           h('th', 'Agent'),
           h('th', 'Last action'),
-          h('th', 'Last action result')
+          h('th', 'Last action result'),
+          ...(data.responses ? [h('th', 'Response (ms)')] : [])
         ])
       ]),
       h('tbody', data.entities.map((entity) => {
@@ -30,13 +32,45 @@ function view(data: StatusData): VNode[] {
           h('td', teamColors, entity.team),
           h('td', teamColors, entity.name),
           h('td', { attrs: { class: entity.action } }, entity.action),
-          h('td', { attrs: { class: entity.actionResult } }, entity.actionResult)
+          h('td', { attrs: { class: entity.actionResult } }, entity.actionResult),
+          ...(data.responses ? [responseView(data.responses.agents[entity.name])] : [])
         ]);
       }))
     ])
   ];
 }
 
+function responsesView(responses: StepResponses, teams: string[]): VNode {
+  return h('table', [
+    h('thead', [
+      h('tr', [
+        h('th', 'Team'),
+        h('th', 'Response min/median/p99/max (ms)'),
+        h('th', 'Timeouts'),
+        h('th', 'Late'),
+        h('th', 'Invalid')
+      ])
+    ]),
+    h('tbody', Object.keys(responses.teams).map((team) => {
+      const stats = responses.teams[team];
+      const teamColors = { style: { background: styles.teams[teams.indexOf(team)] } };
+      return h('tr', [
+        h('td', teamColors, team),
+        h('td', stats.responses ? `${stats.min}/${stats.median}/${stats.p99}/${stats.max}` : '-'),
+        h('td', `${stats.timeouts}`),
+        h('td', `${stats.late}`),
+        h('td', `${stats.invalid}`)
+      ]);
+    }))
+  ]);
+}
+
+function responseView(latency: number | undefined): VNode {
+  if (latency === undefined) return h('td', '');
+  if (latency < 0) return h('td.no_action', 'timeout');
+  return h('td', `${latency}`);
+}
+
 export function statusView(ctrl: StatusCtrl): VNode {
   return h('div#status', [
     h('h1', ['Status: ', ctrl.vm.data ? ctrl.vm.data.sim : ctrl.vm.state]),
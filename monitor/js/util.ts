@@ -1,4 +1,4 @@
-import { AgentStatus } from './interfaces';
+import { AgentStatus, DynamicWorld, DynamicWorldDelta } from './interfaces';
 
 export function compareAgent(a: AgentStatus, b: AgentStatus): number {
   if (a.team < b.team) return -1;
@@ -13,3 +13,42 @@ export function compareAgent(a: AgentStatus, b: AgentStatus): number {
   else if (a.name > b.name) return 1;
   else return 0;
 }
+
+export function applyDelta(prev: DynamicWorld, delta: DynamicWorldDelta): DynamicWorld {
+  const removed = new Set(delta.removed);
+  const merge = <T extends { id?: number }>(before: T[] | undefined, changes: T[]): T[] => {
+    const changed = new Map<number | undefined, T>();
+    for (const object of changes) changed.set(object.id, object);
+    const result: T[] = [];
+    for (const object of before || []) {
+      if (object.id !== undefined && removed.has(object.id)) continue;
+      const replacement = changed.get(object.id);
+      changed.delete(object.id);
+      result.push(replacement || object);
+    }
+    for (const object of changes) if (changed.has(object.id)) result.push(object);
+    return result;
+  };
+
+  const cells = prev.cells.slice();
+  const copied = new Set<number>();
+  for (const [x, y, terrain] of delta.cells) {
+    if (!copied.has(y)) {
+      cells[y] = cells[y].slice();
+      copied.add(y);
+    }
+    cells[y][x] = terrain;
+  }
+
+  return {
+    step: delta.step,
+    entities: merge(prev.entities, delta.entities),
+    blocks: merge(prev.blocks, delta.blocks),
+    dispensers: merge(prev.dispensers, delta.dispensers),
+    taskboards: merge(prev.taskboards, delta.taskboards),
+    tasks: delta.tasks,
+    clear: delta.clear,
+    cells,
+    scores: delta.scores,
+  };
+}
@@ -0,0 +1,400 @@
+package massim.monitor;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * A replay of a single simulation in one compressed file.
+ * <p>
+ * The file starts with {@link #MAGIC}, followed by records and an index. Each record is
+ * [type byte][raw length int][compressed length int][deflated UTF-8 JSON]. The static data is a record of its own.
+ * Each step is either a keyframe (the complete snapshot) or a delta against the previous step:
+ * <ul>
+ *     <li>"terrain": the changed cells as [x, y, terrain] triples</li>
+ *     <li>"refs": for each array of objects, the new array, where a number refers to an unchanged element
+ *     (its index in the previous step's array)</li>
+ *     <li>"set": all other values</li>
+ * </ul>
+ * The index lists the offsets of the static record and of each step's record and keyframe. The file ends with the
+ * index offset and {@link #INDEX_MAGIC}, so that a step can be read by decoding one keyframe and at most
+ * keyframe interval - 1 deltas. Files without index (e.g. if the server stopped early) are scanned instead.
+ */
+public final class CompactReplay {
+
+    public static final String FILE_EXTENSION = ".replay";
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 20;
+
+    private static final byte[] MAGIC = "MASSIMR1".getBytes(StandardCharsets.US_ASCII);
+    private static final int INDEX_MAGIC = 0x4D524958;
+    private static final byte STATIC = 0;
+    private static final byte KEYFRAME = 1;
+    private static final byte DELTA = 2;
+
+    private CompactReplay() {}
+
+    /**
+     * Location of a step's record and of the keyframe to start decoding at.
+     */
+    private static class IndexEntry {
+        private final long offset;
+        private final long keyframeOffset;
+
+        private IndexEntry(long offset, long keyframeOffset) {
+            this.offset = offset;
+            this.keyframeOffset = keyframeOffset;
+        }
+    }
+
+    /**
+     * Appends the snapshots of a simulation to a replay file. Not thread-safe.
+     */
+    public static class Writer implements Closeable {
+
+        private final DataOutputStream out;
+        private final int keyframeInterval;
+        private final Deflater deflater = new Deflater();
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        private long offset = 0;
+        private long staticOffset = -1;
+        private final Map<Integer, IndexEntry> index = new LinkedHashMap<>();
+
+        private JSONObject previous;
+        private int previousStep;
+        private long keyframeOffset;
+        private int sinceKeyframe;
+
+        /**
+         * @param keyframeInterval the number of steps after which the complete snapshot is stored again
+         */
+        public Writer(File file, int keyframeInterval) throws IOException {
+            this.keyframeInterval = Math.max(1, keyframeInterval);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.write(MAGIC);
+            offset = MAGIC.length;
+        }
+
+        public void writeStatic(JSONObject staticData) throws IOException {
+            staticOffset = offset;
+            writeRecord(STATIC, staticData);
+        }
+
+        /**
+         * Writes the snapshot of a step. Steps have to be written in order; a step that does not follow the
+         * previous one starts with a keyframe (and replaces the step if it was written before).
+         */
+        public void writeStep(JSONObject snapshot) throws IOException {
+            var step = snapshot.optInt("step");
+            var keyframe = previous == null || step != previousStep + 1 || sinceKeyframe >= keyframeInterval - 1;
+            var recordOffset = offset;
+            if (keyframe) {
+                keyframeOffset = offset;
+                sinceKeyframe = 0;
+                writeRecord(KEYFRAME, snapshot);
+            }
+            else {
+                sinceKeyframe++;
+                writeRecord(DELTA, delta(previous, snapshot));
+            }
+            index.put(step, new IndexEntry(recordOffset, keyframeOffset));
+            previous = snapshot;
+            previousStep = step;
+        }
+
+        /**
+         * Writes the index and closes the file.
+         */
+        @Override
+        public void close() throws IOException {
+            var indexOffset = offset;
+            out.writeLong(staticOffset);
+            out.writeInt(index.size());
+            for (var entry : index.entrySet()) {
+                out.writeInt(entry.getKey());
+                out.writeLong(entry.getValue().offset);
+                out.writeLong(entry.getValue().keyframeOffset);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(INDEX_MAGIC);
+            out.close();
+            deflater.end();
+        }
+
+        private void writeRecord(byte type, JSONObject json) throws IOException {
+            var raw = json.toString().getBytes(StandardCharsets.UTF_8);
+            buffer.reset();
+            deflater.reset();
+            try (var deflated = new DeflaterOutputStream(buffer, deflater)) {
+                deflated.write(raw);
+            }
+            out.writeByte(type);
+            out.writeInt(raw.length);
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+            offset += 9 + buffer.size();
+        }
+    }
+
+    /**
+     * Reads steps of a replay file in any order. Thread-safe.
+     */
+    public static class Reader implements Closeable {
+
+        private final RandomAccessFile file;
+        private long staticOffset = -1;
+        private final Map<Integer, IndexEntry> index = new HashMap<>();
+
+        // the last decoded step, so that reading consecutive steps only decodes one delta each
+        private long lastOffset = -1;
+        private long lastKeyframeOffset = -1;
+        private JSONObject lastSnapshot;
+
+        public Reader(File path) throws IOException {
+            file = new RandomAccessFile(path, "r");
+            var magic = new byte[MAGIC.length];
+            file.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                file.close();
+                throw new IOException("Not a replay file: " + path);
+            }
+            if (!readIndex()) scan();
+        }
+
+        /**
+         * @return the static data or null if the file has none
+         */
+        public synchronized JSONObject readStatic() throws IOException {
+            if (staticOffset < 0) return null;
+            file.seek(staticOffset);
+            return readRecord().json;
+        }
+
+        /**
+         * @return all steps in the replay
+         */
+        public synchronized Set<Integer> getSteps() {
+            return new TreeSet<>(index.keySet());
+        }
+
+        /**
+         * @return the snapshot of the step or null if the replay does not contain the step
+         */
+        public synchronized JSONObject readStep(int step) throws IOException {
+            var entry = index.get(step);
+            if (entry == null) return null;
+            JSONObject snapshot;
+            if (entry.keyframeOffset == lastKeyframeOffset && lastOffset >= 0 && lastOffset <= entry.offset) {
+                if (lastOffset == entry.offset) return lastSnapshot;
+                file.seek(lastOffset);
+                readRecord(); // skip the last decoded step
+                snapshot = lastSnapshot;
+            }
+            else {
+                file.seek(entry.keyframeOffset);
+                snapshot = null;
+            }
+            while (true) {
+                var recordOffset = file.getFilePointer();
+                var record = readRecord();
+                if (record.type == KEYFRAME) snapshot = record.json;
+                else if (record.type == DELTA) snapshot = applyDelta(snapshot, record.json);
+                if (recordOffset == entry.offset) break;
+            }
+            lastOffset = entry.offset;
+            lastKeyframeOffset = entry.keyframeOffset;
+            lastSnapshot = snapshot;
+            return snapshot;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            file.close();
+        }
+
+        private boolean readIndex() throws IOException {
+            var length = file.length();
+            if (length < MAGIC.length + 12) return false;
+            file.seek(length - 12);
+            var indexOffset = file.readLong();
+            if (file.readInt() != INDEX_MAGIC || indexOffset < MAGIC.length || indexOffset > length - 12) return false;
+            file.seek(indexOffset);
+            staticOffset = file.readLong();
+            var size = file.readInt();
+            for (var i = 0; i < size; i++) {
+                var step = file.readInt();
+                index.put(step, new IndexEntry(file.readLong(), file.readLong()));
+            }
+            return true;
+        }
+
+        /**
+         * Builds the index from the records (up to the first incomplete one).
+         */
+        private void scan() throws IOException {
+            var length = file.length();
+            long offset = MAGIC.length;
+            long keyframeOffset = -1;
+            Integer lastStep = null;
+            while (offset + 9 <= length) {
+                file.seek(offset);
+                var type = file.readByte();
+                file.readInt();
+                var compressedLength = file.readInt();
+                if (offset + 9 + compressedLength > length) break;
+                if (type == STATIC) staticOffset = offset;
+                else if (type == KEYFRAME || (type == DELTA && keyframeOffset >= 0)) {
+                    if (type == KEYFRAME) keyframeOffset = offset;
+                    file.seek(offset);
+                    var json = readRecord().json;
+                    if (type == DELTA) json = json.getJSONObject("set");
+                    var step = json.optInt("step", lastStep == null? 0 : lastStep + 1);
+                    index.put(step, new IndexEntry(offset, keyframeOffset));
+                    lastStep = step;
+                }
+                offset += 9 + compressedLength;
+            }
+        }
+
+        private Record readRecord() throws IOException {
+            var type = file.readByte();
+            var rawLength = file.readInt();
+            var compressed = new byte[file.readInt()];
+            file.readFully(compressed);
+            var raw = new byte[rawLength];
+            var inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                var inflated = 0;
+                while (inflated < rawLength && !inflater.needsInput())
+                    inflated += inflater.inflate(raw, inflated, rawLength - inflated);
+                if (inflated < rawLength) throw new IOException("Truncated replay record");
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt replay record", e);
+            } finally {
+                inflater.end();
+            }
+            return new Record(type, new JSONObject(new String(raw, StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static class Record {
+        private final byte type;
+        private final JSONObject json;
+
+        private Record(byte type, JSONObject json) {
+            this.type = type;
+            this.json = json;
+        }
+    }
+
+    /**
+     * @return the changes from one snapshot to the next (see class description)
+     */
+    static JSONObject delta(JSONObject previous, JSONObject current) {
+        var set = new JSONObject();
+        var refs = new JSONObject();
+        var delta = new JSONObject();
+        for (var key : current.keySet()) {
+            var value = current.get(key);
+            var before = previous.opt(key);
+            if (key.equals("cells") && sameDimensions(before, value)) {
+                delta.put("terrain", terrainChanges((JSONArray) before, (JSONArray) value));
+            }
+            else if (value instanceof JSONArray && before instanceof JSONArray && onlyObjects((JSONArray) value)) {
+                refs.put(key, references((JSONArray) before, (JSONArray) value));
+            }
+            else set.put(key, value);
+        }
+        delta.put("set", set);
+        delta.put("refs", refs);
+        return delta;
+    }
+
+    /**
+     * Reverts {@link #delta(JSONObject, JSONObject)}.
+     */
+    static JSONObject applyDelta(JSONObject previous, JSONObject delta) {
+        var snapshot = new JSONObject();
+        var set = delta.getJSONObject("set");
+        for (var key : set.keySet()) snapshot.put(key, set.get(key));
+        var refs = delta.getJSONObject("refs");
+        for (var key : refs.keySet()) {
+            var before = previous.getJSONArray(key);
+            var references = refs.getJSONArray(key);
+            var array = new JSONArray();
+            for (var i = 0; i < references.length(); i++) {
+                var element = references.get(i);
+                array.put(element instanceof Number? before.get(((Number) element).intValue()) : element);
+            }
+            snapshot.put(key, array);
+        }
+        var terrain = delta.optJSONArray("terrain");
+        if (terrain != null) {
+            // unchanged rows are shared with the previous snapshot, changed ones are copied
+            var before = previous.getJSONArray("cells");
+            var cells = new JSONArray();
+            for (var y = 0; y < before.length(); y++) cells.put(before.get(y));
+            var copied = new HashSet<Integer>();
+            for (var i = 0; i < terrain.length(); i++) {
+                var change = terrain.getJSONArray(i);
+                var y = change.getInt(1);
+                if (copied.add(y)) cells.put(y, new JSONArray(before.getJSONArray(y).toList()));
+                cells.getJSONArray(y).put(change.getInt(0), change.get(2));
+            }
+            snapshot.put("cells", cells);
+        }
+        return snapshot;
+    }
+
+    private static boolean sameDimensions(Object before, Object cells) {
+        if (!(before instanceof JSONArray) || !(cells instanceof JSONArray)) return false;
+        var a = (JSONArray) before;
+        var b = (JSONArray) cells;
+        if (a.length() != b.length()) return false;
+        for (var y = 0; y < a.length(); y++) {
+            var rowA = a.optJSONArray(y);
+            var rowB = b.optJSONArray(y);
+            if (rowA == null || rowB == null || rowA.length() != rowB.length()) return false;
+        }
+        return true;
+    }
+
+    private static JSONArray terrainChanges(JSONArray before, JSONArray cells) {
+        var changes = new JSONArray();
+        for (var y = 0; y < cells.length(); y++) {
+            var rowBefore = before.getJSONArray(y);
+            var row = cells.getJSONArray(y);
+            for (var x = 0; x < row.length(); x++) {
+                if (!Objects.equals(rowBefore.get(x), row.get(x))) changes.put(new JSONArray().put(x).put(y).put(row.get(x)));
+            }
+        }
+        return changes;
+    }
+
+    private static boolean onlyObjects(JSONArray array) {
+        for (var i = 0; i < array.length(); i++) {
+            if (!(array.get(i) instanceof JSONObject)) return false;
+        }
+        return true;
+    }
+
+    private static JSONArray references(JSONArray before, JSONArray current) {
+        var previousIndices = new HashMap<String, Integer>();
+        for (var i = 0; i < before.length(); i++) previousIndices.putIfAbsent(before.get(i).toString(), i);
+        var references = new JSONArray();
+        for (var i = 0; i < current.length(); i++) {
+            var element = current.get(i);
+            var index = previousIndices.get(element.toString());
+            references.put(index != null? index : element);
+        }
+        return references;
+    }
+}
@@ -0,0 +1,61 @@
+package massim.monitor;
+
+import org.json.JSONObject;
+import org.webbitserver.HttpControl;
+import org.webbitserver.HttpHandler;
+import org.webbitserver.HttpRequest;
+import org.webbitserver.HttpResponse;
+
+import java.io.IOException;
+
+/**
+ * Serves a {@link CompactReplay} file in the same way as a replay directory: as static.json and one JSON file
+ * per group of 5 steps, decoded on request.
+ */
+class CompactReplayHandler implements HttpHandler {
+
+    private static final int GROUP_SIZE = 5;
+
+    private final CompactReplay.Reader reader;
+
+    CompactReplayHandler(CompactReplay.Reader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public void handleHttpRequest(HttpRequest request, HttpResponse response, HttpControl control) throws IOException {
+        var path = request.uri();
+        if (path.contains("?")) path = path.substring(0, path.indexOf('?'));
+        path = path.substring(path.lastIndexOf('/') + 1);
+        if (!path.endsWith(".json")) {
+            control.nextHandler();
+            return;
+        }
+        var name = path.substring(0, path.length() - ".json".length());
+
+        JSONObject json = null;
+        if (name.equals("static")) json = reader.readStatic();
+        else if (name.matches("\\d+")) json = readGroup(Integer.parseInt(name));
+
+        if (json == null) {
+            control.nextHandler();
+            return;
+        }
+        response.header("Content-Type", "application/json")
+                .content(json.toString())
+                .end();
+    }
+
+    /**
+     * @return the steps of the group in the same form as a group file of a replay directory
+     */
+    private JSONObject readGroup(int firstStep) throws IOException {
+        var group = new JSONObject();
+        // the initial snapshot (step -1) is part of the first group
+        for (var step = firstStep == 0? -1 : firstStep; step < firstStep + GROUP_SIZE; step++) {
+            var snapshot = reader.readStep(step);
+            if (snapshot != null) group.put(String.valueOf(step), snapshot);
+        }
+        return group.isEmpty()? null : group;
+    }
+}
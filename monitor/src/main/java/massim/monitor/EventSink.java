@@ -3,59 +3,155 @@ package massim.monitor;
 import org.webbitserver.BaseWebSocketHandler;
 import org.webbitserver.WebSocketConnection;
 
-import java.util.HashSet;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
 
+/**
+ * Sends messages to all connected clients. Each message is followed by a ping, so that the client's pong tells
+ * which messages it has received. At most {@link #MAX_IN_FLIGHT} messages are sent to a client before it answers.
+ * Until then, the client only keeps the latest static and the latest dynamic message; dynamic messages it could
+ * not take in time are dropped (and counted per client).
+ */
 public class EventSink extends BaseWebSocketHandler {
+
+    /** the maximum number of messages sent to a client that it has not confirmed yet */
+    private static final int MAX_IN_FLIGHT = 2;
+
     private final String name;
     private String latestStatic;
-    private String latestDynamic;
-    private final ReentrantReadWriteLock poolLock = new ReentrantReadWriteLock();
-    private final HashSet<WebSocketConnection> pool = new HashSet<WebSocketConnection>();
+    private Message latestDynamic;
+    private final Map<WebSocketConnection, Client> clients = new HashMap<>();
 
     public EventSink(String name) {
         this.name = name;
     }
 
     @Override
-    public void onOpen(WebSocketConnection client) {
-        Lock lock = poolLock.writeLock();
-        lock.lock();
-        try {
-            pool.add(client);
-            if (latestStatic != null) client.send(latestStatic);
-            if (latestDynamic != null) client.send(latestDynamic);
-            System.out.println(String.format("[ MONITOR ] %s: %d connection(s)", name, pool.size()));
-        } finally {
-            lock.unlock();
-        }
+    public synchronized void onOpen(WebSocketConnection connection) {
+        var client = new Client(connection);
+        clients.put(connection, client);
+        if (latestStatic != null) client.offer(new Message(latestStatic, false, null));
+        if (latestDynamic != null) client.offer(latestDynamic);
+        System.out.println(String.format("[ MONITOR ] %s: %d connection(s)", name, clients.size()));
     }
 
     @Override
-    public void onClose(WebSocketConnection client) {
-        Lock lock = poolLock.writeLock();
-        lock.lock();
-        try {
-            pool.remove(client);
-            System.out.println(String.format("[ MONITOR ] %s: %d connection(s)", name, pool.size()));
-        } finally {
-            lock.unlock();
+    public synchronized void onClose(WebSocketConnection connection) {
+        var client = clients.remove(connection);
+        if (client != null && client.dropped > 0)
+            System.out.println(String.format("[ MONITOR ] %s: %d message(s) dropped for a slow client",
+                    name, client.dropped));
+        System.out.println(String.format("[ MONITOR ] %s: %d connection(s)", name, clients.size()));
+    }
+
+    @Override
+    public synchronized void onPong(WebSocketConnection connection, byte[] payload) {
+        var client = clients.get(connection);
+        if (client != null) client.confirm(payload);
+    }
+
+    public synchronized void broadcast(String message, boolean dynamic) {
+        var m = new Message(message, dynamic, null);
+        if (dynamic) latestDynamic = m;
+        else latestStatic = message;
+        offer(m);
+    }
+
+    /**
+     * Broadcasts the changes of the dynamic state. Clients which do not have the previous state (because they
+     * just connected or a message was dropped) get the complete state instead, which is only created when needed.
+     * @param delta the message to send to the connected clients
+     * @param complete creates the message with the complete dynamic state
+     */
+    public synchronized void broadcastDelta(String delta, Supplier<String> complete) {
+        latestDynamic = new Message(delta, true, complete);
+        offer(latestDynamic);
+    }
+
+    /**
+     * @return the number of dynamic messages dropped for the currently connected clients
+     */
+    public synchronized long getDroppedMessages() {
+        return clients.values().stream().mapToLong(c -> c.dropped).sum();
+    }
+
+    private void offer(Message message) {
+        for (var client : clients.values()) client.offer(message);
+    }
+
+    private static class Message {
+        private final String text;
+        private final boolean dynamic;
+        /** creates the complete state if the text is a delta (or null) */
+        private final Supplier<String> complete;
+        private String completeText;
+
+        private Message(String text, boolean dynamic, Supplier<String> complete) {
+            this.text = text;
+            this.dynamic = dynamic;
+            this.complete = complete;
+        }
+
+        private String complete() {
+            if (complete == null) return text;
+            if (completeText == null) completeText = complete.get();
+            return completeText;
         }
     }
 
-    public void broadcast(String message, boolean dynamic) {
-        if (dynamic) this.latestDynamic = message;
-        else this.latestStatic = message;
+    /**
+     * The messages of a single client which are sent or waiting. Only accessed while holding the sink's lock.
+     */
+    private static class Client {
+        private final WebSocketConnection connection;
+        private long sent = 0;
+        private long confirmed = 0;
+        private String waitingStatic;
+        private Message waitingDynamic;
+        /** whether the client lacks the state that the next delta refers to */
+        private boolean needsComplete = true;
+        private long dropped = 0;
+
+        private Client(WebSocketConnection connection) {
+            this.connection = connection;
+        }
+
+        private void offer(Message message) {
+            if (waitingDynamic != null) {
+                // a newer dynamic message or a static one (of a new simulation) replaces the waiting one
+                dropped++;
+                needsComplete = true;
+                waitingDynamic = null;
+            }
+            if (message.dynamic) waitingDynamic = message;
+            else waitingStatic = message.text;
+            send();
+        }
+
+        private void confirm(byte[] payload) {
+            if (payload.length != Long.BYTES) return;
+            confirmed = Math.max(confirmed, ByteBuffer.wrap(payload).getLong());
+            send();
+        }
 
-        Lock lock = poolLock.readLock();
-        lock.lock();
-        try {
-            for (WebSocketConnection client: pool) {
-                client.send(message);
+        private void send() {
+            while (sent - confirmed < MAX_IN_FLIGHT) {
+                String text;
+                if (waitingStatic != null) {
+                    text = waitingStatic;
+                    waitingStatic = null;
+                }
+                else if (waitingDynamic != null) {
+                    text = needsComplete? waitingDynamic.complete() : waitingDynamic.text;
+                    needsComplete = false;
+                    waitingDynamic = null;
+                }
+                else return;
+                connection.send(text);
+                connection.ping(ByteBuffer.allocate(Long.BYTES).putLong(++sent).array());
             }
-        } finally {
-            lock.unlock();
         }
     }
 }
@@ -2,6 +2,7 @@ package massim.monitor;
 
 import org.json.JSONObject;
 import org.webbitserver.BaseWebSocketHandler;
+import org.webbitserver.HttpHandler;
 import org.webbitserver.WebServer;
 import org.webbitserver.WebServers;
 import org.webbitserver.WebSocketConnection;
@@ -10,14 +11,19 @@ import org.webbitserver.handler.HttpToWebSocketHandler;
 import org.webbitserver.handler.StaticFileHandler;
 import org.webbitserver.handler.StringHttpHandler;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -30,6 +36,12 @@ public class Monitor {
 
     private final EventSink statusSink = new EventSink("status");
 
+    /** states and status snapshots waiting to be broadcast (so that the simulation does not wait for clients) */
+    private final BlockingQueue<Update> updates = new LinkedBlockingQueue<>();
+
+    /** the complete state of the current step (only accessed by the broadcast thread) */
+    private JSONObject latestState;
+
     /**
      * Constructor.
      * Used by the massim server to create the "live" monitor.
@@ -48,13 +60,17 @@ public class Monitor {
 
         System.out.println(String.format("[ MONITOR ] Live monitor: %s", publicUri));
         System.out.println(String.format("[ MONITOR ] Live status:  %sstatus.html", publicUri));
+
+        var broadcastThread = new Thread(this::broadcastLoop, "massim-monitor");
+        broadcastThread.setDaemon(true);
+        broadcastThread.start();
     }
 
     /**
      * Creates a new monitor to watch replays with.
-     * @param replayPath the path to a replay file
+     * @param replayPath the path to a replay directory or a compact replay file
      */
-    Monitor(int port, String replayPath) throws ExecutionException, InterruptedException {
+    Monitor(int port, String replayPath) throws ExecutionException, InterruptedException, IOException {
         // read index.html from resources
         String html = new Scanner(Monitor.class.getClassLoader().getResourceAsStream("www/index.html"), "UTF-8")
             .useDelimiter("\\A")
@@ -64,10 +80,14 @@ public class Monitor {
         InetSocketAddress bind = new InetSocketAddress(port);
         String publicUri = "http://localhost:" + port + "/";
 
+        HttpHandler replayHandler = replayPath.endsWith(CompactReplay.FILE_EXTENSION)?
+                new CompactReplayHandler(new CompactReplay.Reader(new File(replayPath))) :
+                new StaticFileHandler(replayPath);
+
         WebServer server = WebServers.createWebServer(executor, bind, URI.create(publicUri))
             .add(new EmbeddedResourceHandler("www"))
             .add("/?/", new StringHttpHandler("text/html", html))
-            .add(new StaticFileHandler(replayPath))
+            .add(replayHandler)
             .start()
             .get();
 
@@ -76,17 +96,89 @@ public class Monitor {
 
     /**
      * Updates the current state of the monitor.
-     * Called by the massim server after each step.
+     * Called by the massim server after each step. The state is broadcast by a separate thread, so it must not
+     * be changed afterwards.
+     * Deltas (see {@link SnapshotDelta}) are passed on to the clients as they are; clients connecting later
+     * get the complete state.
      */
     public void updateState(JSONObject state) {
-        monitorSink.broadcast(state.toString(), !state.has("grid"));
+        updates.add(new Update(state, false));
     }
 
+    /**
+     * Updates the status (like {@link #updateState(JSONObject)}).
+     */
     public void updateStatus(JSONObject status) {
-        statusSink.broadcast(status.toString(), true);
+        updates.add(new Update(status, true));
     }
 
-    public static void main(String[] args) throws ExecutionException, InterruptedException {
+    /**
+     * Broadcasts all updates. If the thread falls behind, it only sends the latest state and status of all
+     * waiting updates (each static state is still sent).
+     */
+    private void broadcastLoop() {
+        var batch = new ArrayList<Update>();
+        while (true) {
+            try {
+                batch.add(updates.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            updates.drainTo(batch);
+            JSONObject delta = null;
+            var dynamicChanged = false;
+            JSONObject status = null;
+            for (var update : batch) {
+                if (update.status) {
+                    status = update.json;
+                    continue;
+                }
+                var state = update.json;
+                if (SnapshotDelta.isDelta(state)) {
+                    if (latestState == null) continue; // cannot be applied without a complete state
+                    latestState = SnapshotDelta.apply(latestState, state);
+                    // a delta can only be sent as it is if no other state was skipped before it
+                    delta = dynamicChanged? null : state;
+                    dynamicChanged = true;
+                }
+                else if (state.has("grid")) {
+                    if (dynamicChanged) broadcastState(delta);
+                    dynamicChanged = false;
+                    monitorSink.broadcast(state.toString(), false);
+                }
+                else {
+                    latestState = state;
+                    delta = null;
+                    dynamicChanged = true;
+                }
+            }
+            if (dynamicChanged) broadcastState(delta);
+            if (status != null) statusSink.broadcast(status.toString(), true);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Broadcasts the latest complete state.
+     * @param delta the delta leading to it from the previously broadcast state or null
+     */
+    private void broadcastState(JSONObject delta) {
+        var complete = latestState;
+        if (delta != null) monitorSink.broadcastDelta(delta.toString(), complete::toString);
+        else monitorSink.broadcast(complete.toString(), true);
+    }
+
+    private static class Update {
+        private final JSONObject json;
+        private final boolean status;
+
+        private Update(JSONObject json, boolean status) {
+            this.json = json;
+            this.status = status;
+        }
+    }
+
+    public static void main(String[] args) throws ExecutionException, InterruptedException, IOException {
         int port = 8000;
         String path = null;
 
@@ -106,7 +198,13 @@ public class Monitor {
             return;
         }
 
-        if (!Paths.get(path, "static.json").toFile().exists()) {
+        if (path.endsWith(CompactReplay.FILE_EXTENSION)) {
+            if (!new File(path).isFile()) {
+                System.out.println("Replay file " + path + " does not exist.");
+                return;
+            }
+        }
+        else if (!Paths.get(path, "static.json").toFile().exists()) {
             System.out.println("Not a replay. static.json does not seem to exist in this directory.");
             return;
         }
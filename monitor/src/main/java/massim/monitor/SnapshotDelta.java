@@ -0,0 +1,83 @@
+package massim.monitor;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Applies snapshot deltas of the server (changed terrain cells, created or changed objects and the ids of removed
+ * objects) to complete snapshots.
+ */
+public final class SnapshotDelta {
+
+    private static final List<String> OBJECT_KEYS = List.of("entities", "blocks", "dispensers", "taskboards");
+
+    private SnapshotDelta() {}
+
+    /**
+     * @return true if the snapshot only contains the changes since the previous one
+     */
+    public static boolean isDelta(JSONObject snapshot) {
+        return snapshot.optBoolean("delta");
+    }
+
+    /**
+     * Creates the complete snapshot after the delta. The previous snapshot is not changed (but shares unchanged
+     * parts with the result). Applying the same delta twice has no further effect.
+     * @param previous the complete snapshot of the previous step
+     * @param delta the changes since then
+     * @return the complete snapshot
+     */
+    public static JSONObject apply(JSONObject previous, JSONObject delta) {
+        var snapshot = new JSONObject();
+        for (var key : delta.keySet()) {
+            if (!key.equals("delta") && !key.equals("removed") && !key.equals("cells") && !OBJECT_KEYS.contains(key))
+                snapshot.put(key, delta.get(key));
+        }
+
+        var removed = new HashSet<Integer>();
+        var removedJSON = delta.optJSONArray("removed");
+        if (removedJSON != null) for (var i = 0; i < removedJSON.length(); i++) removed.add(removedJSON.getInt(i));
+        for (var key : OBJECT_KEYS) {
+            var before = previous.optJSONArray(key);
+            var changes = delta.optJSONArray(key);
+            var changed = new HashMap<Integer, JSONObject>();
+            if (changes != null) for (var i = 0; i < changes.length(); i++) {
+                var object = changes.getJSONObject(i);
+                changed.put(object.getInt("id"), object);
+            }
+            var objects = new JSONArray();
+            if (before != null) for (var i = 0; i < before.length(); i++) {
+                var object = before.getJSONObject(i);
+                var id = object.optInt("id", -1);
+                if (removed.contains(id)) continue;
+                var replacement = changed.remove(id);
+                objects.put(replacement != null? replacement : object);
+            }
+            // new objects (in the order of the delta)
+            if (changes != null) for (var i = 0; i < changes.length(); i++) {
+                var object = changes.getJSONObject(i);
+                if (changed.containsKey(object.getInt("id"))) objects.put(object);
+            }
+            snapshot.put(key, objects);
+        }
+
+        // unchanged rows are shared with the previous snapshot, changed ones are copied
+        var before = previous.getJSONArray("cells");
+        var cells = new JSONArray();
+        for (var y = 0; y < before.length(); y++) cells.put(before.get(y));
+        var terrain = delta.getJSONArray("cells");
+        var copied = new HashSet<Integer>();
+        for (var i = 0; i < terrain.length(); i++) {
+            var change = terrain.getJSONArray(i);
+            var y = change.getInt(1);
+            if (copied.add(y)) cells.put(y, new JSONArray(before.getJSONArray(y).toList()));
+            cells.getJSONArray(y).put(change.getInt(0), change.get(2));
+        }
+        snapshot.put("cells", cells);
+        return snapshot;
+    }
+}
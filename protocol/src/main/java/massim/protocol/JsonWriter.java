@@ -0,0 +1,129 @@
+package massim.protocol;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Writes JSON text directly to a {@link Writer} without building org.json objects first.
+ * The output is exactly what the equivalent {@link JSONObject} would produce with toString(),
+ * as long as object keys are written in the order given by {@link #keyOrder(String...)}.
+ */
+public class JsonWriter {
+
+    private final Writer out;
+
+    /** for each open object or array, whether nothing has been written into it yet */
+    private boolean[] empty = new boolean[16];
+    private int depth = 0;
+    private boolean afterKey = false;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * A JSONObject keeps its entries in a plain HashMap, so this is the order in which it writes them.
+     * @param keys the keys in the order they are put into the object
+     * @return the keys in the order they are written
+     */
+    public static String[] keyOrder(String... keys) {
+        return keyOrder(Arrays.asList(keys));
+    }
+
+    /**
+     * @see #keyOrder(String...)
+     */
+    public static String[] keyOrder(Collection<String> keys) {
+        var map = new HashMap<String, Object>();
+        for (String key : keys) map.put(key, key);
+        return map.keySet().toArray(new String[0]);
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter key(String key) throws IOException {
+        separate();
+        JSONObject.quote(key, out);
+        out.write(':');
+        afterKey = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) out.write("null");
+        else JSONObject.quote(value, out);
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value? "true" : "false");
+        return this;
+    }
+
+    public JsonWriter value(JSONObject value) throws IOException {
+        separate();
+        value.write(out);
+        return this;
+    }
+
+    public JsonWriter value(JSONArray value) throws IOException {
+        separate();
+        value.write(out);
+        return this;
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        separate();
+        out.write(bracket);
+        if (++depth == empty.length) empty = Arrays.copyOf(empty, depth * 2);
+        empty[depth] = true;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        out.write(bracket);
+        depth--;
+        return this;
+    }
+
+    /**
+     * Writes a comma if the current value is not the first one in its object or array.
+     */
+    private void separate() throws IOException {
+        if (afterKey) {
+            afterKey = false;
+            return;
+        }
+        if (depth == 0) return;
+        if (!empty[depth]) out.write(',');
+        empty[depth] = false;
+    }
+}
@@ -0,0 +1,44 @@
+package massim.protocol;
+
+import massim.protocol.messages.ActionMessage;
+import massim.protocol.messages.RequestActionMessage;
+import massim.protocol.messages.SimEndMessage;
+import massim.protocol.messages.SimStartMessage;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An agent running in the same JVM as the simulation. It gets the messages directly instead of over a socket.
+ */
+public interface LocalAgent {
+
+    /**
+     * Called when a new simulation starts.
+     */
+    void handleSimStart(SimStartMessage message);
+
+    /**
+     * Called for each step. The simulation waits until the method returns.
+     * @return the action to perform (with the id of the request) or null to do nothing
+     */
+    ActionMessage handleRequestAction(RequestActionMessage message);
+
+    /**
+     * Called when a simulation has ended.
+     */
+    void handleSimEnd(SimEndMessage message);
+
+    /**
+     * Creates the agents of a team. Implementations need a public constructor without arguments.
+     */
+    interface Factory {
+
+        /**
+         * @param teamName the name of the team
+         * @param agentNames the names of all agents in the team
+         * @return the agents by name (may be incomplete; missing agents do not act)
+         */
+        Map<String, LocalAgent> createTeam(String teamName, List<String> agentNames);
+    }
+}
@@ -0,0 +1,171 @@
+package massim.protocol.data;
+
+import java.util.ArrayList;
+
+/**
+ * The dimensions of a grid that loops in both directions, and all position calculations that depend on them.
+ * Each simulation has its own instance, so that simulations with different grids can run at the same time.
+ */
+public final class GridGeometry {
+
+    private final int dimX;
+    private final int dimY;
+
+    /**
+     * Canonical instances of all positions inside the grid, indexed by cell id (see {@link #cell(int, int)}).
+     * Filled lazily (racing threads may both create an instance, which is harmless as positions are immutable).
+     */
+    private final Position[] cache;
+
+    public GridGeometry(int dimX, int dimY) {
+        this.dimX = dimX;
+        this.dimY = dimY;
+        this.cache = new Position[dimX * dimY];
+    }
+
+    public int getDimX() {
+        return dimX;
+    }
+
+    public int getDimY() {
+        return dimY;
+    }
+
+    /**
+     * @return the canonical instance for positions inside the grid, otherwise the same as {@link Position#of}
+     */
+    public Position of(int x, int y) {
+        if (x < 0 || y < 0 || x >= dimX || y >= dimY) return Position.of(x, y);
+        var index = y * dimX + x;
+        var pos = cache[index];
+        if (pos == null) {
+            pos = new Position(x, y);
+            cache[index] = pos;
+        }
+        return pos;
+    }
+
+    /**
+     * @return true if the position is inside the grid's bounds (i.e. it does not have to be wrapped)
+     */
+    public boolean contains(Position pos) {
+        return pos.x >= 0 && pos.y >= 0 && pos.x < dimX && pos.y < dimY;
+    }
+
+    /**
+     * @return the position wrapped back into the bounds
+     */
+    public Position wrapped(int someX, int someY) {
+        // handle negative values correctly
+        return of(Math.floorMod(someX, dimX), Math.floorMod(someY, dimY));
+    }
+
+    public Position wrapped(Position pos) {
+        return wrapped(pos.x, pos.y);
+    }
+
+    /**
+     * @return the x coordinate wrapped back into the bounds
+     */
+    public int wrappedX(int someX) {
+        return Math.floorMod(someX, dimX);
+    }
+
+    /**
+     * @return the y coordinate wrapped back into the bounds
+     */
+    public int wrappedY(int someY) {
+        return Math.floorMod(someY, dimY);
+    }
+
+    /**
+     * @return the id of the grid cell at the given coordinates (after wrapping them), i.e. y * dimX + x
+     */
+    public int cell(int someX, int someY) {
+        return Math.floorMod(someY, dimY) * dimX + Math.floorMod(someX, dimX);
+    }
+
+    /**
+     * @see #cell(int, int)
+     */
+    public int cell(Position pos) {
+        return cell(pos.x, pos.y);
+    }
+
+    public int cellX(int cell) {
+        return cell % dimX;
+    }
+
+    public int cellY(int cell) {
+        return cell / dimX;
+    }
+
+    /**
+     * @return the (canonical) position of the given grid cell
+     */
+    public Position ofCell(int cell) {
+        return of(cell % dimX, cell / dimX);
+    }
+
+    /**
+     * @return the distance between two coordinate pairs (respecting the map's looping)
+     */
+    public int distance(int x1, int y1, int x2, int y2) {
+        int dx = Math.abs(x1 - x2);
+        if (dx > dimX/2.0) dx = dimX - dx;
+        int dy = Math.abs(y1 - y2);
+        if (dy > dimY/2.0) dy = dimY - dy;
+        return dx + dy;
+    }
+
+    public int distance(Position pos, Position other) {
+        return distance(pos.x, pos.y, other.x, other.y);
+    }
+
+    public Position translate(Position pos, int x, int y) {
+        return wrapped(pos.x + x, pos.y + y);
+    }
+
+    public Position translate(Position pos, Position offset) {
+        return translate(pos, offset.x, offset.y);
+    }
+
+    /**
+     * @return the shortest offset from the origin to the position (respecting the map's looping)
+     */
+    public Position relativeTo(Position pos, Position origin) {
+        var dx = pos.x - origin.x;
+        if (dx < -(dimX / 2.0)) dx += dimX;
+        else if (dx > dimX / 2.0) dx -= dimX;
+        var dy = pos.y - origin.y;
+        if (dy < -(dimY / 2.0)) dy += dimY;
+        else if (dy > dimY / 2.0) dy -= dimY;
+        return Position.of(dx, dy);
+    }
+
+    /**
+     * @return list containing all positions belonging to the area around the center within the given radius.
+     */
+    public ArrayList<Position> spanArea(Position center, int radius) {
+        var area = new ArrayList<Position>();
+        for (var dx = -radius; dx <= radius; dx++) {
+            var cx = center.x + dx;
+            var dy = radius - Math.abs(dx);
+            for (var cy = center.y - dy; cy <= center.y + dy; cy++) {
+                area.add(wrapped(cx, cy));
+            }
+        }
+        return area;
+    }
+
+    /**
+     * @return the position rotated 90 degrees around the center in the given direction
+     */
+    public Position rotated90(Position pos, Position center, boolean clockwise) {
+        // the rotation is calculated relative to the rotation center
+        var relative = relativeTo(pos, center);
+        var dx = clockwise? -relative.y : relative.y;
+        var dy = clockwise? relative.x : -relative.x;
+        return wrapped(center.x + dx, center.y + dy);
+    }
+}
@@ -1,14 +1,19 @@
 package massim.protocol.data;
 
+import massim.protocol.JsonWriter;
 import org.json.JSONArray;
 
-import java.util.ArrayList;
-import java.util.Objects;
+import java.io.IOException;
 
 public final class Position {
 
-    private static int dimX = 0;
-    private static int dimY = 0;
+    /**
+     * Offsets in [-OFFSET_RADIUS, OFFSET_RADIUS] on both axes are always served from a cache
+     * (this covers all relative positions agents can perceive).
+     */
+    private static final int OFFSET_RADIUS = 32;
+    private static final int OFFSET_SIZE = 2 * OFFSET_RADIUS + 1;
+    private static final Position[] offsetCache = new Position[OFFSET_SIZE * OFFSET_SIZE];
 
     public final int x;
     public final int y;
@@ -20,51 +25,33 @@ public final class Position {
 
     @Override
     public boolean equals(Object other) {
+        if (this == other) return true;
         if (!(other instanceof Position)) return false;
         return ((Position) other).x == x && ((Position) other).y == y;
     }
 
+    /**
+     * Same value as Objects.hash(x, y) but without boxing.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(x, y);
-    }
-
-    public static void setGridDimensions(int dimX, int dimY) {
-        Position.dimX = dimX;
-        Position.dimY = dimY;
+        return 31 * (31 + x) + y;
     }
 
     /**
-     * @return the same position but wrapped back into the bounds
+     * @return a cached instance for small offsets, a new instance otherwise
+     * (see {@link GridGeometry#of(int, int)} for positions inside a grid)
      */
-    public static Position wrapped(int someX, int someY) {
-        // handle negative values correctly
-        return Position.of(Math.floorMod(someX, dimX), Math.floorMod(someY, dimY));
-    }
-
-    public Position wrapped() {
-        return Position.wrapped(x, y);
-    }
-
-    public int distanceTo(Position other) {
-            int dx = Math.abs(x - other.x);
-            if (dx > dimX/2.0) dx = dimX - dx;
-            int dy = Math.abs(y - other.y);
-            if (dy > dimY/2.0) dy = dimY - dy;
-            return dx + dy;
-    }
-
-    public Position moved(String direction, int distance) {
-        switch (direction) {
-            case "n": return Position.wrapped(x, y - distance);
-            case "s": return Position.wrapped(x, y + distance);
-            case "w": return Position.wrapped(x - distance, y);
-            case "e": return Position.wrapped(x + distance, y);
-        }
-        return Position.of(x, y);
-    }
-
     public static Position of(int x, int y) {
+        if (x >= -OFFSET_RADIUS && x <= OFFSET_RADIUS && y >= -OFFSET_RADIUS && y <= OFFSET_RADIUS) {
+            var index = (y + OFFSET_RADIUS) * OFFSET_SIZE + x + OFFSET_RADIUS;
+            var pos = offsetCache[index];
+            if (pos == null) {
+                pos = new Position(x, y);
+                offsetCache[index] = pos;
+            }
+            return pos;
+        }
         return new Position(x, y);
     }
 
@@ -73,22 +60,11 @@ public final class Position {
         return "(" + x + "," + y + ")";
     }
 
-    public Position translate(int x, int y) {
-        return Position.wrapped(this.x + x, this.y + y);
-    }
-
-    public Position translate(Position other) {
-        return translate(other.x, other.y);
-    }
-
-    public Position relativeTo(Position origin) {
-        var dx = x - origin.x;
-        if (dx < -(dimX / 2.0)) dx += dimX;
-        else if (dx > dimX / 2.0) dx -= dimX;
-        var dy = y - origin.y;
-        if (dy < -(dimY / 2.0)) dy += dimY;
-        else if (dy > dimY / 2.0) dy -= dimY;
-        return Position.of(dx, dy);
+    /**
+     * Writes the same JSON as {@link #toJSON()}.
+     */
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginArray().value(x).value(y).endArray();
     }
 
     public JSONArray toJSON() {
@@ -101,31 +77,4 @@ public final class Position {
     public static Position fromJSON(JSONArray json) {
         return Position.of(json.getInt(0), json.getInt(1));
     }
-
-    /**
-     * @return list containing all positions belonging to the area around this position within the given radius.
-     */
-    public ArrayList<Position> spanArea(int radius) {
-        var area = new ArrayList<Position>();
-        for (var dx = -radius; dx <= radius; dx++) {
-            var cx = x + dx;
-            var dy = radius - Math.abs(dx);
-            for (var cy = y - dy; cy <= y + dy; cy++) {
-                area.add(Position.wrapped(cx, cy));
-            }
-        }
-        return area;
-    }
-
-    /**
-     * @return this position rotated 90 degrees in the given direction
-     */
-    public Position rotated90(Position center, boolean clockwise) {
-        var pos = this.relativeTo(center);
-        // the rotation is calculated relative to the rotation center
-        //var pos = Position.of(center.x + relative.x, center.y + relative.y);
-        var dx = clockwise? -pos.y : pos.y;
-        var dy = clockwise? pos.x : -pos.x;
-        return Position.wrapped(center.x + dx, center.y + dy);
-    }
 }
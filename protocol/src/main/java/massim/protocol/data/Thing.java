@@ -1,7 +1,10 @@
 package massim.protocol.data;
 
+import massim.protocol.JsonWriter;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 public class Thing {
 
     public static final String TYPE_ENTITY = "entity";
@@ -10,19 +13,45 @@ public class Thing {
     public static final String TYPE_MARKER = "marker";
     public static final String TYPE_TASKBOARD = "taskboard";
 
+    private static final String[] KEYS = JsonWriter.keyOrder("x", "y", "type", "details");
+
     public int x;
     public int y;
     public String type;
     public String details;
 
+    /** JSON representation shared by immutable things and their copies (or null) */
+    private final JSONObject json;
+
     public Thing(int x, int y, String type, String details) {
+        this(x, y, type, details, null);
+    }
+
+    private Thing(int x, int y, String type, String details, JSONObject json) {
         this.x = x;
         this.y = y;
         this.type = type;
         this.details = details;
+        this.json = json;
+    }
+
+    /**
+     * Creates a thing whose JSON representation is built only once and then shared with all its copies
+     * (see {@link #copy()}). Such things must not be modified.
+     */
+    public static Thing immutable(int x, int y, String type, String details) {
+        return new Thing(x, y, type, details, new Thing(x, y, type, details).toJSON());
+    }
+
+    /**
+     * @return a new thing with the same values (sharing the JSON representation if this thing is immutable)
+     */
+    public Thing copy() {
+        return new Thing(x, y, type, details, json);
     }
 
     public JSONObject toJSON() {
+        if (json != null) return json;
         JSONObject thing = new JSONObject();
         thing.put("x", x);
         thing.put("y", y);
@@ -31,6 +60,26 @@ public class Thing {
         return thing;
     }
 
+    /**
+     * Writes the same JSON as {@link #toJSON()}.
+     */
+    public void writeJson(JsonWriter out) throws IOException {
+        if (json != null) {
+            out.value(json);
+            return;
+        }
+        out.beginObject();
+        for (String key : KEYS) {
+            switch (key) {
+                case "x": out.key(key).value(x); break;
+                case "y": out.key(key).value(y); break;
+                case "type": if (type != null) out.key(key).value(type); break;
+                case "details": if (details != null) out.key(key).value(details); break;
+            }
+        }
+        out.endObject();
+    }
+
     public static Thing fromJson(JSONObject jsonThing) {
         return new Thing(jsonThing.getInt("x"), jsonThing.getInt("y"), jsonThing.getString("type"), jsonThing.getString("details"));
     }
@@ -0,0 +1,146 @@
+package massim.protocol.messages;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads action messages directly from their (UTF-8) bytes, without building JSON objects first.
+ * Only handles plain action messages (no escape sequences, integer ids, string parameters). Everything else
+ * is rejected, so that it can be parsed with org.json instead (which then also reports any errors).
+ */
+public class ActionMessageParser {
+
+    private final byte[] data;
+    private int pos;
+    private final int end;
+
+    private ActionMessageParser(byte[] data, int offset, int length) {
+        this.data = data;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * @param frame a buffer holding exactly one message (array-backed)
+     * @return the action message or null if the frame does not contain a plain action message
+     */
+    public static ActionMessage parse(ByteBuffer frame) {
+        if (!frame.hasArray()) return null;
+        var parser = new ActionMessageParser(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        try {
+            return parser.parseMessage();
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private ActionMessage parseMessage() {
+        if (!consume('{')) return null;
+        String type = null;
+        ActionMessage action = null;
+        if (!consume('}')) {
+            do {
+                var key = readString();
+                if (key == null || !consume(':')) return null;
+                if (key.equals("type") && type == null) {
+                    type = readString();
+                    if (!Message.TYPE_ACTION.equals(type)) return null;
+                }
+                else if (key.equals("content") && action == null) {
+                    action = parseContent();
+                    if (action == null) return null;
+                }
+                else return null;
+            } while (consume(','));
+            if (!consume('}')) return null;
+        }
+        skipWhitespace();
+        if (pos != end || type == null) return null;
+        return action;
+    }
+
+    private ActionMessage parseContent() {
+        if (!consume('{')) return null;
+        String actionType = null;
+        Long id = null;
+        List<String> params = null;
+        if (!consume('}')) {
+            do {
+                var key = readString();
+                if (key == null || !consume(':')) return null;
+                if (key.equals("type") && actionType == null) {
+                    actionType = readString();
+                    if (actionType == null) return null;
+                }
+                else if (key.equals("id") && id == null) {
+                    id = readLong();
+                    if (id == null) return null;
+                }
+                else if (key.equals("p") && params == null) {
+                    params = readStrings();
+                    if (params == null) return null;
+                }
+                else return null;
+            } while (consume(','));
+            if (!consume('}')) return null;
+        }
+        if (actionType == null || id == null || params == null) return null;
+        return new ActionMessage(actionType, id, params);
+    }
+
+    private List<String> readStrings() {
+        if (!consume('[')) return null;
+        var result = new ArrayList<String>();
+        if (consume(']')) return result;
+        do {
+            var s = readString();
+            if (s == null) return null;
+            result.add(s);
+        } while (consume(','));
+        return consume(']')? result : null;
+    }
+
+    /**
+     * @return the string starting at the current position or null if there is none (or it contains escapes)
+     */
+    private String readString() {
+        if (!consume('"')) return null;
+        var start = pos;
+        while (pos < end && data[pos] != '"') {
+            if (data[pos] == '\\' || (data[pos] >= 0 && data[pos] < 0x20)) return null;
+            pos++;
+        }
+        if (pos == end) return null;
+        return new String(data, start, pos++ - start, StandardCharsets.UTF_8);
+    }
+
+    private Long readLong() {
+        skipWhitespace();
+        var start = pos;
+        if (pos < end && data[pos] == '-') pos++;
+        var digits = pos;
+        while (pos < end && data[pos] >= '0' && data[pos] <= '9') pos++;
+        if (pos == digits || pos - digits > 18) return null;
+        if (pos < end && (data[pos] == '.' || data[pos] == 'e' || data[pos] == 'E')) return null;
+        return Long.parseLong(new String(data, start, pos - start, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Skips whitespace and then the given character if it is next.
+     * @return true if the character was found
+     */
+    private boolean consume(char c) {
+        skipWhitespace();
+        if (pos < end && data[pos] == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && (data[pos] == ' ' || data[pos] == '\n' || data[pos] == '\r' || data[pos] == '\t')) pos++;
+    }
+}
@@ -6,15 +6,26 @@ public class AuthRequestMessage extends Message {
 
     private String username;
     private String password;
+    private boolean deltaPercepts;
 
     public AuthRequestMessage(JSONObject content) {
         this.username = content.optString("user");
         this.password = content.optString("pw");
+        this.deltaPercepts = content.optBoolean("deltaPercepts", false);
     }
 
     public AuthRequestMessage(String username, String password) {
+        this(username, password, false);
+    }
+
+    /**
+     * @param deltaPercepts whether the agent wants to receive step percepts as deltas
+     *                      (see {@link massim.protocol.messages.scenario.StepPerceptDelta})
+     */
+    public AuthRequestMessage(String username, String password, boolean deltaPercepts) {
         this.username = username;
         this.password = password;
+        this.deltaPercepts = deltaPercepts;
     }
 
     @Override
@@ -27,6 +38,7 @@ public class AuthRequestMessage extends Message {
         JSONObject content = new JSONObject();
         content.put("user", username);
         content.put("pw", password);
+        if (deltaPercepts) content.put("deltaPercepts", true);
         return content;
     }
 
@@ -37,4 +49,8 @@ public class AuthRequestMessage extends Message {
     public String getPassword() {
         return password;
     }
+
+    public boolean wantsDeltaPercepts() {
+        return deltaPercepts;
+    }
 }
@@ -1,12 +1,17 @@
 package massim.protocol.messages;
 
+import massim.protocol.JsonWriter;
 import massim.protocol.messages.scenario.InitialPercept;
 import massim.protocol.messages.scenario.StepPercept;
+import massim.protocol.messages.scenario.StepPerceptDelta;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 public abstract class Message {
 
     public final static String TYPE_REQUEST_ACTION = "request-action";
+    public final static String TYPE_REQUEST_ACTION_DELTA = "request-action-delta";
     public final static String TYPE_ACTION = "action";
     public final static String TYPE_AUTH_REQUEST = "auth-request";
     public final static String TYPE_AUTH_RESPONSE = "auth-response";
@@ -16,6 +21,8 @@ public abstract class Message {
     public final static String TYPE_STATUS_REQUEST = "status-request";
     public final static String TYPE_STATUS_RESPONSE = "status-response";
 
+    private final static String[] KEYS = JsonWriter.keyOrder("type", "content");
+
     public abstract String getMessageType();
 
     public abstract JSONObject makeContent();
@@ -27,6 +34,26 @@ public abstract class Message {
         return message;
     }
 
+    /**
+     * Writes the same JSON as {@link #toJson()} (streaming as much of it as the message supports).
+     */
+    public void writeJson(JsonWriter out) throws IOException {
+        out.beginObject();
+        for (String key : KEYS) {
+            out.key(key);
+            if (key.equals("type")) out.value(getMessageType());
+            else writeContent(out);
+        }
+        out.endObject();
+    }
+
+    /**
+     * Writes the JSON of {@link #makeContent()}. Subclasses can override this to write it directly.
+     */
+    protected void writeContent(JsonWriter out) throws IOException {
+        out.value(makeContent());
+    }
+
     public static Message buildFromJson(JSONObject src) {
         if(src == null) return null;
         String type = src.optString("type");
@@ -35,6 +62,7 @@ public abstract class Message {
         switch(type) {
             case TYPE_ACTION: return new ActionMessage(content);
             case TYPE_REQUEST_ACTION: return new StepPercept(content);
+            case TYPE_REQUEST_ACTION_DELTA: return new StepPerceptDelta(content);
             case TYPE_AUTH_RESPONSE: return new AuthResponseMessage(content);
             case TYPE_AUTH_REQUEST: return new AuthRequestMessage(content);
             case TYPE_BYE: return new ByeMessage(content);
@@ -1,12 +1,17 @@
 package massim.protocol.messages;
 
+import massim.protocol.JsonWriter;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 /**
  * Should be sub-classed for request-action messages including an agent's current percepts.
  */
 public abstract class RequestActionMessage extends Message {
 
+    private final static String[] CONTENT_KEYS = JsonWriter.keyOrder("id", "time", "deadline", "step", "percept");
+
     private long time;
     private long id;
     private long deadline;
@@ -42,6 +47,29 @@ public abstract class RequestActionMessage extends Message {
         return content;
     }
 
+    @Override
+    protected void writeContent(JsonWriter out) throws IOException {
+        out.beginObject();
+        for (String key : CONTENT_KEYS) {
+            out.key(key);
+            switch (key) {
+                case "id": out.value(id); break;
+                case "time": out.value(time); break;
+                case "deadline": out.value(deadline); break;
+                case "step": out.value(step); break;
+                default: writePercept(out);
+            }
+        }
+        out.endObject();
+    }
+
+    /**
+     * Writes the JSON of {@link #makePercept()}. Subclasses can override this to write it directly.
+     */
+    protected void writePercept(JsonWriter out) throws IOException {
+        out.value(makePercept());
+    }
+
     /**
      * Create the JSON representation of the percept part.
      * Will be appended under the "percept" key of the "content" object.
@@ -1,5 +1,6 @@
 package massim.protocol.messages.scenario;
 
+import massim.protocol.JsonWriter;
 import massim.protocol.data.Position;
 import massim.protocol.messages.RequestActionMessage;
 import massim.protocol.data.TaskInfo;
@@ -7,10 +8,14 @@ import massim.protocol.data.Thing;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.*;
 
 public class StepPercept extends RequestActionMessage {
 
+    private final static String[] PERCEPT_KEYS = JsonWriter.keyOrder("score", "things", "tasks", "terrain",
+            "energy", "disabled", "task", "lastAction", "lastActionResult", "lastActionParams", "attached");
+
     public Set<Thing> things = new HashSet<>();
     public Set<TaskInfo> taskInfo = new HashSet<>();
     public Map<String, Set<Position>> terrain = new HashMap<>();
@@ -23,6 +28,11 @@ public class StepPercept extends RequestActionMessage {
     public boolean disabled;
     public String task;
 
+    /** serialized {@link #taskInfo} (shared by all percepts of a step) or null */
+    private JSONArray tasksJSON;
+    /** the agent's move since its percept of the previous step (not sent) or null if it is not known */
+    private Position move;
+
     public StepPercept(JSONObject content) {
         super(content);
         parsePercept(content.getJSONObject("percept"));
@@ -43,11 +53,41 @@ public class StepPercept extends RequestActionMessage {
         this.task = task;
     }
 
+    /**
+     * Creates an empty percept (to be filled by the caller).
+     */
+    StepPercept(long time, long id, long deadline, int step) {
+        super(time, id, deadline, step);
+    }
+
+    /**
+     * Sets the JSON representation of the tasks, so that they do not have to be serialized again for each percept.
+     * @param tasksJSON the serialized tasks (must be the same as {@link #taskInfo} and must not be modified)
+     */
+    public void setTasksJSON(JSONArray tasksJSON) {
+        this.tasksJSON = tasksJSON;
+    }
+
+    /**
+     * Records by how much the agent moved since its percept of the previous step (only known to the server),
+     * so that a delta to that percept can be created (see {@link StepPerceptDelta#between}).
+     */
+    public void setMove(Position move) {
+        this.move = move;
+    }
+
+    /**
+     * @return the agent's move since its percept of the previous step or null if it is not known
+     */
+    public Position getMove() {
+        return move;
+    }
+
     @Override
     public JSONObject makePercept() {
         var percept = new JSONObject();
         var jsonThings = new JSONArray();
-        var jsonTasks = new JSONArray();
+        var jsonTasks = tasksJSON != null? tasksJSON : new JSONArray();
         var jsonTerrain = new JSONObject();
         percept.put("score", score);
         percept.put("things", jsonThings);
@@ -57,7 +97,7 @@ public class StepPercept extends RequestActionMessage {
         percept.put("disabled", disabled);
         percept.put("task", task);
         things.forEach(t -> jsonThings.put(t.toJSON()));
-        taskInfo.forEach(t -> jsonTasks.put(t.toJSON()));
+        if (tasksJSON == null) taskInfo.forEach(t -> jsonTasks.put(t.toJSON()));
         terrain.forEach((t, positions) -> {
             JSONArray jsonPositions = new JSONArray();
             positions.forEach(p -> jsonPositions.put(p.toJSON()));
@@ -79,6 +119,55 @@ public class StepPercept extends RequestActionMessage {
         return percept;
     }
 
+    @Override
+    protected void writePercept(JsonWriter out) throws IOException {
+        out.beginObject();
+        for (String key : PERCEPT_KEYS) {
+            switch (key) {
+                case "score": out.key(key).value(score); break;
+                case "things":
+                    out.key(key).beginArray();
+                    for (Thing t : things) t.writeJson(out);
+                    out.endArray();
+                    break;
+                case "tasks":
+                    out.key(key);
+                    if (tasksJSON != null) out.value(tasksJSON);
+                    else {
+                        out.beginArray();
+                        for (TaskInfo t : taskInfo) out.value(t.toJSON());
+                        out.endArray();
+                    }
+                    break;
+                case "terrain":
+                    out.key(key).beginObject();
+                    for (String type : JsonWriter.keyOrder(terrain.keySet())) {
+                        out.key(type).beginArray();
+                        for (Position p : terrain.get(type)) p.writeJson(out);
+                        out.endArray();
+                    }
+                    out.endObject();
+                    break;
+                case "energy": out.key(key).value(energy); break;
+                case "disabled": out.key(key).value(disabled); break;
+                case "task": if (task != null) out.key(key).value(task); break;
+                case "lastAction": if (lastAction != null) out.key(key).value(lastAction); break;
+                case "lastActionResult": if (lastActionResult != null) out.key(key).value(lastActionResult); break;
+                case "lastActionParams":
+                    out.key(key).beginArray();
+                    for (String param : lastActionParams) out.value(param);
+                    out.endArray();
+                    break;
+                case "attached":
+                    out.key(key).beginArray();
+                    for (Position p : attachedThings) p.writeJson(out);
+                    out.endArray();
+                    break;
+            }
+        }
+        out.endObject();
+    }
+
     private void parsePercept(JSONObject percept) {
         score = percept.getLong("score");
         JSONArray jsonThings = percept.getJSONArray("things");
@@ -0,0 +1,309 @@
+package massim.protocol.messages.scenario;
+
+import massim.protocol.data.Position;
+import massim.protocol.data.TaskInfo;
+import massim.protocol.data.Thing;
+import massim.protocol.messages.Message;
+import massim.protocol.messages.RequestActionMessage;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * A step percept that only contains the things, terrain and tasks that changed since the agent's previous
+ * step percept (the base). Only sent to agents that asked for it (see
+ * {@link massim.protocol.messages.AuthRequestMessage#wantsDeltaPercepts()}).
+ *
+ * Since percepts are relative to the agent, the base's contents are first moved by a shift (the offset by which
+ * the agent moved since the base) before they are compared.
+ */
+public class StepPerceptDelta extends RequestActionMessage {
+
+    /** the step of the percept this delta has to be applied to */
+    public int base;
+    /** the offset which has to be subtracted from all positions of the base */
+    public Position shift = Position.of(0, 0);
+
+    public List<Thing> addedThings = new ArrayList<>();
+    public List<Thing> removedThings = new ArrayList<>();
+    public Map<String, Set<Position>> addedTerrain = new HashMap<>();
+    public Map<String, Set<Position>> removedTerrain = new HashMap<>();
+    /** new tasks (or tasks whose deadline changed) */
+    public List<TaskInfo> addedTasks = new ArrayList<>();
+    /** new rewards of otherwise unchanged tasks */
+    public Map<String, Integer> taskRewards = new HashMap<>();
+    public List<String> removedTasks = new ArrayList<>();
+
+    // always complete
+    public long score;
+    public String lastAction;
+    public String lastActionResult;
+    public List<String> lastActionParams = new ArrayList<>();
+    public Set<Position> attachedThings = new HashSet<>();
+    public int energy;
+    public boolean disabled;
+    public String task;
+
+    public StepPerceptDelta(JSONObject content) {
+        super(content);
+        parsePercept(content.getJSONObject("percept"));
+    }
+
+    private StepPerceptDelta(StepPercept current) {
+        super(current.getTime(), current.getId(), current.getDeadline(), current.getStep());
+    }
+
+    /**
+     * @param shift the offset by which the agent moved from the previous to the current percept
+     * @return the changes from the previous to the current percept
+     */
+    public static StepPerceptDelta between(StepPercept previous, StepPercept current, Position shift) {
+        var delta = new StepPerceptDelta(current);
+        delta.base = previous.getStep();
+        delta.shift = shift;
+        delta.score = current.score;
+        delta.lastAction = current.lastAction;
+        delta.lastActionResult = current.lastActionResult;
+        delta.lastActionParams.addAll(current.lastActionParams);
+        delta.attachedThings.addAll(current.attachedThings);
+        delta.energy = current.energy;
+        delta.disabled = current.disabled;
+        delta.task = current.task;
+
+        var remaining = new HashMap<ThingKey, Integer>();
+        for (Thing t : previous.things) remaining.merge(delta.shifted(t), 1, Integer::sum);
+        for (Thing t : current.things) {
+            var key = new ThingKey(t.x, t.y, t.type, t.details);
+            var count = remaining.get(key);
+            if (count == null) delta.addedThings.add(t);
+            else if (count == 1) remaining.remove(key);
+            else remaining.put(key, count - 1);
+        }
+        remaining.forEach((key, count) -> {
+            for (var i = 0; i < count; i++) delta.removedThings.add(key.toThing());
+        });
+
+        var terrainTypes = new HashSet<>(previous.terrain.keySet());
+        terrainTypes.addAll(current.terrain.keySet());
+        for (String type : terrainTypes) {
+            var before = new HashSet<Position>();
+            previous.terrain.getOrDefault(type, Collections.emptySet()).forEach(p -> before.add(delta.shifted(p)));
+            var after = current.terrain.getOrDefault(type, Collections.emptySet());
+            var added = new HashSet<>(after);
+            added.removeAll(before);
+            before.removeAll(after);
+            if (!added.isEmpty()) delta.addedTerrain.put(type, added);
+            if (!before.isEmpty()) delta.removedTerrain.put(type, before);
+        }
+
+        var previousTasks = new HashMap<String, TaskInfo>();
+        previous.taskInfo.forEach(t -> previousTasks.put(t.name, t));
+        for (TaskInfo t : current.taskInfo) {
+            var old = previousTasks.remove(t.name);
+            if (old == null || old.deadline != t.deadline) delta.addedTasks.add(t);
+            else if (old.reward != t.reward) delta.taskRewards.put(t.name, t.reward);
+        }
+        delta.removedTasks.addAll(previousTasks.keySet());
+        return delta;
+    }
+
+    /**
+     * Reconstructs the complete percept.
+     * @param previous the percept this delta is based on
+     * @return the complete percept or null if previous is not the base of this delta
+     */
+    public StepPercept applyTo(StepPercept previous) {
+        if (previous == null || previous.getStep() != base) return null;
+        var percept = new StepPercept(getTime(), getId(), getDeadline(), getStep());
+        percept.score = score;
+        percept.lastAction = lastAction;
+        percept.lastActionResult = lastActionResult;
+        percept.lastActionParams.addAll(lastActionParams);
+        percept.attachedThings.addAll(attachedThings);
+        percept.energy = energy;
+        percept.disabled = disabled;
+        percept.task = task;
+
+        var removals = new HashMap<ThingKey, Integer>();
+        for (Thing t : removedThings) removals.merge(new ThingKey(t.x, t.y, t.type, t.details), 1, Integer::sum);
+        for (Thing t : previous.things) {
+            var key = shifted(t);
+            var count = removals.get(key);
+            if (count == null) percept.things.add(key.toThing());
+            else if (count == 1) removals.remove(key);
+            else removals.put(key, count - 1);
+        }
+        percept.things.addAll(addedThings);
+
+        previous.terrain.forEach((type, positions) -> {
+            var shiftedPositions = new HashSet<Position>();
+            positions.forEach(p -> shiftedPositions.add(shifted(p)));
+            shiftedPositions.removeAll(removedTerrain.getOrDefault(type, Collections.emptySet()));
+            if (!shiftedPositions.isEmpty()) percept.terrain.put(type, shiftedPositions);
+        });
+        addedTerrain.forEach((type, positions) ->
+                percept.terrain.computeIfAbsent(type, t -> new HashSet<>()).addAll(positions));
+
+        var tasks = new HashMap<String, TaskInfo>();
+        previous.taskInfo.forEach(t -> tasks.put(t.name, t));
+        removedTasks.forEach(tasks::remove);
+        taskRewards.forEach((name, reward) -> {
+            var old = tasks.get(name);
+            if (old != null) tasks.put(name, new TaskInfo(name, old.deadline, reward, new HashSet<>(old.requirements)));
+        });
+        addedTasks.forEach(t -> tasks.put(t.name, t));
+        percept.taskInfo.addAll(tasks.values());
+        return percept;
+    }
+
+    @Override
+    public String getMessageType() {
+        return Message.TYPE_REQUEST_ACTION_DELTA;
+    }
+
+    @Override
+    public JSONObject makePercept() {
+        var percept = new JSONObject();
+        percept.put("base", base);
+        percept.put("shift", shift.toJSON());
+        percept.put("score", score);
+        percept.put("energy", energy);
+        percept.put("disabled", disabled);
+        percept.put("task", task);
+
+        var things = new JSONObject();
+        things.put("added", thingsToJSON(addedThings));
+        things.put("removed", thingsToJSON(removedThings));
+        percept.put("things", things);
+
+        var terrain = new JSONObject();
+        terrain.put("added", terrainToJSON(addedTerrain));
+        terrain.put("removed", terrainToJSON(removedTerrain));
+        percept.put("terrain", terrain);
+
+        var tasks = new JSONObject();
+        var jsonAdded = new JSONArray();
+        addedTasks.forEach(t -> jsonAdded.put(t.toJSON()));
+        tasks.put("added", jsonAdded);
+        tasks.put("rewards", new JSONObject(taskRewards));
+        var jsonRemoved = new JSONArray();
+        removedTasks.forEach(jsonRemoved::put);
+        tasks.put("removed", jsonRemoved);
+        percept.put("tasks", tasks);
+
+        percept.put("lastAction", lastAction);
+        percept.put("lastActionResult", lastActionResult);
+        var params = new JSONArray();
+        lastActionParams.forEach(params::put);
+        percept.put("lastActionParams", params);
+        var attached = new JSONArray();
+        attachedThings.forEach(a -> attached.put(a.toJSON()));
+        percept.put("attached", attached);
+        return percept;
+    }
+
+    private void parsePercept(JSONObject percept) {
+        base = percept.getInt("base");
+        shift = Position.fromJSON(percept.getJSONArray("shift"));
+        score = percept.getLong("score");
+        energy = percept.getInt("energy");
+        disabled = percept.getBoolean("disabled");
+        task = percept.getString("task");
+
+        var things = percept.getJSONObject("things");
+        thingsFromJSON(things.getJSONArray("added"), addedThings);
+        thingsFromJSON(things.getJSONArray("removed"), removedThings);
+
+        var terrain = percept.getJSONObject("terrain");
+        terrainFromJSON(terrain.getJSONObject("added"), addedTerrain);
+        terrainFromJSON(terrain.getJSONObject("removed"), removedTerrain);
+
+        var tasks = percept.getJSONObject("tasks");
+        var jsonAdded = tasks.getJSONArray("added");
+        for (var i = 0; i < jsonAdded.length(); i++) addedTasks.add(TaskInfo.fromJson(jsonAdded.getJSONObject(i)));
+        var jsonRewards = tasks.getJSONObject("rewards");
+        jsonRewards.keys().forEachRemaining(name -> taskRewards.put(name, jsonRewards.getInt(name)));
+        var jsonRemoved = tasks.getJSONArray("removed");
+        for (var i = 0; i < jsonRemoved.length(); i++) removedTasks.add(jsonRemoved.getString(i));
+
+        lastAction = percept.getString("lastAction");
+        lastActionResult = percept.getString("lastActionResult");
+        var params = percept.getJSONArray("lastActionParams");
+        for (var i = 0; i < params.length(); i++) lastActionParams.add(params.getString(i));
+        var attached = percept.getJSONArray("attached");
+        for (var i = 0; i < attached.length(); i++) attachedThings.add(Position.fromJSON(attached.getJSONArray(i)));
+    }
+
+    private ThingKey shifted(Thing t) {
+        return new ThingKey(t.x - shift.x, t.y - shift.y, t.type, t.details);
+    }
+
+    private Position shifted(Position p) {
+        return Position.of(p.x - shift.x, p.y - shift.y);
+    }
+
+    private static JSONArray thingsToJSON(List<Thing> things) {
+        var json = new JSONArray();
+        things.forEach(t -> json.put(t.toJSON()));
+        return json;
+    }
+
+    private static void thingsFromJSON(JSONArray json, List<Thing> things) {
+        for (var i = 0; i < json.length(); i++) things.add(Thing.fromJson(json.getJSONObject(i)));
+    }
+
+    private static JSONObject terrainToJSON(Map<String, Set<Position>> terrain) {
+        var json = new JSONObject();
+        terrain.forEach((type, positions) -> {
+            var jsonPositions = new JSONArray();
+            positions.forEach(p -> jsonPositions.put(p.toJSON()));
+            json.put(type, jsonPositions);
+        });
+        return json;
+    }
+
+    private static void terrainFromJSON(JSONObject json, Map<String, Set<Position>> terrain) {
+        json.keys().forEachRemaining(type -> {
+            var positions = new HashSet<Position>();
+            var jsonPositions = json.getJSONArray(type);
+            for (var i = 0; i < jsonPositions.length(); i++) positions.add(Position.fromJSON(jsonPositions.getJSONArray(i)));
+            terrain.put(type, positions);
+        });
+    }
+
+    /**
+     * Value of a thing (things themselves are only equal if they are the same object).
+     */
+    private static class ThingKey {
+        final int x;
+        final int y;
+        final String type;
+        final String details;
+
+        ThingKey(int x, int y, String type, String details) {
+            this.x = x;
+            this.y = y;
+            this.type = type;
+            this.details = details;
+        }
+
+        Thing toThing() {
+            return new Thing(x, y, type, details);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ThingKey)) return false;
+            var other = (ThingKey) o;
+            return x == other.x && y == other.y && Objects.equals(type, other.type)
+                    && Objects.equals(details, other.details);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(x, y, type, details);
+        }
+    }
+}
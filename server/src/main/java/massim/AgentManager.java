@@ -1,16 +1,23 @@
 package massim;
 
+import massim.config.ServerConfig;
 import massim.config.TeamConfig;
+import massim.game.GameAction;
+import massim.protocol.JsonWriter;
 import massim.protocol.messages.*;
 import massim.protocol.messages.scenario.Actions;
+import massim.protocol.messages.scenario.StepPercept;
+import massim.protocol.messages.scenario.StepPerceptDelta;
+import massim.util.FrameReader;
 import massim.util.Log;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,24 +36,54 @@ class AgentManager {
     private boolean disconnecting = false;
     private int maxPacketLength;
 
+    /** runs the blocking socket loops of all connections */
+    private final ExecutorService connectionExecutor;
+
     /**
      * If an agent's sendQueue is already "full", the oldest element will be removed before a new one is added
      */
     private int sendBufferSize = 4;
 
+    /**
+     * Agents receiving delta percepts get a complete percept after this many deltas
+     */
+    private static final int DELTA_KEYFRAME_INTERVAL = 20;
+
     /**
      * Creates a new agent manager responsible for sending and receiving messages.
      * @param teams a list of all teams to configure the manager for
      * @param agentTimeout the timeout to use for request-action messages (to wait for actions) in milliseconds
      * @param maxPacketLength the maximum size of packets to <b>process</b> (they are received anyway, just not parsed
      *                        in case they are too big)
+     * @param connectionThreads the kind of threads to handle blocking connections with
+     *                          (one of the ServerConfig.THREADS_ constants)
      */
-    AgentManager(List<TeamConfig> teams, long agentTimeout, int maxPacketLength) {
+    AgentManager(List<TeamConfig> teams, long agentTimeout, int maxPacketLength, String connectionThreads) {
         teams.forEach(team -> team.getAgentNames().forEach((name) -> {
             agents.put(name, new AgentProxy(name, team.getName(), team.getPassword(name)));
         }));
         this.agentTimeout = agentTimeout;
         this.maxPacketLength = maxPacketLength;
+        this.connectionExecutor = createExecutor(connectionThreads);
+    }
+
+    /**
+     * @return an executor starting a new platform thread for each task, reusing idle platform threads
+     * or starting a virtual thread for each task
+     */
+    private static ExecutorService createExecutor(String connectionThreads) {
+        if (ServerConfig.THREADS_VIRTUAL.equals(connectionThreads)) {
+            try {
+                // only available from Java 21 on
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                Log.log(Log.Level.ERROR, "Virtual threads are not available in this JVM. Using pooled threads instead.");
+                connectionThreads = ServerConfig.THREADS_POOLED;
+            }
+        }
+        // idle threads are either kept for reuse or end immediately
+        var keepAlive = ServerConfig.THREADS_POOLED.equals(connectionThreads)? 60 : 0;
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, keepAlive, TimeUnit.SECONDS, new SynchronousQueue<>());
     }
 
     /**
@@ -55,15 +92,34 @@ class AgentManager {
     void stop(){
         disconnecting = true;
         agents.values().forEach(AgentProxy::close);
+        connectionExecutor.shutdown();
+    }
+
+    /**
+     * Runs a (blocking) task of a new connection, e.g. handling its first message.
+     */
+    void execute(Runnable task) {
+        connectionExecutor.execute(task);
     }
 
     /**
      * Sets a new socket for the given agent that was just authenticated (again or for the first time).
      * @param s the new socket opened for the agent
      * @param agentName the name of the agent
+     * @param deltaPercepts whether the agent wants to receive step percepts as deltas
+     */
+    void handleNewConnection(Socket s, String agentName, boolean deltaPercepts){
+        if (agents.containsKey(agentName)) agents.get(agentName).handleNewConnection(s, deltaPercepts);
+    }
+
+    /**
+     * Sets a new non-blocking connection for the given agent that was just authenticated.
+     * @param connection the new connection opened for the agent
+     * @param agentName the name of the agent
+     * @param deltaPercepts whether the agent wants to receive step percepts as deltas
      */
-    void handleNewConnection(Socket s, String agentName){
-        if (agents.containsKey(agentName)) agents.get(agentName).handleNewConnection(s);
+    void handleNewConnection(SelectorNetwork.Connection connection, String agentName, boolean deltaPercepts){
+        if (agents.containsKey(agentName)) agents.get(agentName).handleNewConnection(connection, deltaPercepts);
     }
 
     /**
@@ -90,30 +146,41 @@ class AgentManager {
 
     /**
      * Uses the percepts to send a request-action message and waits for the action answers.
-     * {@link #agentTimeout} is used to limit the waiting time per agent.
+     * All agents get the same deadline, {@link #agentTimeout} milliseconds after the requests are sent.
      * @param percepts mapping from agent names to percepts of the current simulation state
+     * @param stats the statistics of the simulation (see {@link #startSimulation(Collection)})
      * @return mapping from agent names to actions received in response
      */
-    Map<String, ActionMessage> requestActions(Map<String, RequestActionMessage> percepts) {
-        // each thread needs to countdown the latch when it finishes
-        CountDownLatch latch = new CountDownLatch(percepts.keySet().size());
-        Map<String, ActionMessage> resultMap = new ConcurrentHashMap<>();
-        percepts.forEach((agName, percept) -> {
-            // start a new thread to get each action
-            new Thread(() -> {
-                ActionMessage action = agents.get(agName).requestAction(percept);
-                resultMap.put(agName, action);
-                latch.countDown();
-            }).start();
-        });
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            Log.log(Log.Level.ERROR, "Latch interrupted. Actions probably incomplete.");
-        }
+    Map<String, GameAction> requestActions(Map<String, RequestActionMessage> percepts, ResponseStats stats) {
+        stats.startStep();
+        long stepStart = System.currentTimeMillis();
+        long deadline = stepStart + agentTimeout;
+        // send all requests first, so that all agents can work at the same time
+        Map<String, ActionRequest> requests = new HashMap<>();
+        percepts.forEach((agName, percept) -> requests.put(agName, agents.get(agName).requestAction(percept, deadline)));
+        Map<String, GameAction> resultMap = new ConcurrentHashMap<>();
+        percepts.forEach((agName, percept) ->
+                resultMap.put(agName, agents.get(agName).awaitAction(requests.get(agName), stepStart)));
+        Log.log(Log.Level.NORMAL, stats.describeStep());
         return resultMap;
     }
 
+    /**
+     * Starts recording response statistics for a new simulation. Simulations running at the same time
+     * have separate statistics, as their agents are disjoint.
+     * @param agentNames the names of all agents taking part in the simulation
+     * @return the statistics to pass to {@link #requestActions(Map, ResponseStats)}
+     */
+    ResponseStats startSimulation(Collection<String> agentNames) {
+        var stats = new ResponseStats();
+        stats.startSimulation();
+        for (var agentName : agentNames) {
+            var agent = agents.get(agentName);
+            if (agent != null) agent.responseStats = stats;
+        }
+        return stats;
+    }
+
     /**
      * Sends sim-end percepts to the agents.
      * @param finalPercepts mapping from agent names to sim-end percepts
@@ -126,11 +193,27 @@ class AgentManager {
         });
     }
 
+    /**
+     * An action requested from an agent.
+     */
+    private static class ActionRequest {
+        private final long id;
+        private final long deadline;
+        private final CompletableFuture<GameAction> action = new CompletableFuture<>();
+        /** when the action was received (valid once it is completed) */
+        private volatile long receivedAt;
+
+        private ActionRequest(long id, long deadline) {
+            this.id = id;
+            this.deadline = deadline;
+        }
+    }
+
     /**
      * Stores account info of an agent.
      * Receives messages from and sends messages to remote agents.
      */
-    private class AgentProxy {
+    private class AgentProxy implements SelectorNetwork.Peer {
 
         // things that do not change
         private String name;
@@ -139,16 +222,27 @@ class AgentManager {
 
         // networking things
         private Socket socket;
-        private Thread sendThread;
-        private Thread receiveThread;
+        private Future<?> sendTask;
+        private Future<?> receiveTask;
+        /** the connection if the selector network is used (instead of the socket and threads) */
+        private SelectorNetwork.Connection connection;
+
+        /** the statistics of the simulation the agent currently takes part in */
+        private volatile ResponseStats responseStats = new ResponseStats();
 
         // concurrency magic
         private AtomicLong messageCounter = new AtomicLong();
-        private LinkedBlockingDeque<JSONObject> sendQueue = new LinkedBlockingDeque<>();
-        private Map<Long, CompletableFuture<JSONObject>> futureActions = new ConcurrentHashMap<>();
+        private LinkedBlockingDeque<Message> sendQueue = new LinkedBlockingDeque<>();
+        private Map<Long, ActionRequest> futureActions = new ConcurrentHashMap<>();
 
         private SimStartMessage lastSimStartMessage;
 
+        // delta percepts
+        private boolean deltaPercepts;
+        /** the last step percept that was put into the send queue (or null if the next one has to be complete) */
+        private StepPercept lastStepPercept;
+        private int deltasSinceKeyframe;
+
         /**
          * Creates a new instance with the given credentials.
          * @param name the name of the agent
@@ -165,105 +259,162 @@ class AgentManager {
          * Creates a message for the given initial percept and sends it to the remote agent.
          * @param percept the initial percept to forward
          */
-        void handleInitialPercept(SimStartMessage percept) {
+        synchronized void handleInitialPercept(SimStartMessage percept) {
             lastSimStartMessage = percept;
+            lastStepPercept = null;
             sendMessage(lastSimStartMessage);
         }
 
         /**
          * Creates a request-action message and sends it to the agent.
-         * Should be called within a new thread, as it blocks up to {@link #agentTimeout} milliseconds.
          * @param percept the step percept to forward
-         * @return the action that was received by the agent (or {@link Actions#NO_ACTION})
+         * @param deadline the time by which the action has to be received
+         * @return the request to be completed with the agent's action
          */
-        ActionMessage requestAction(RequestActionMessage percept) {
+        ActionRequest requestAction(RequestActionMessage percept, long deadline) {
             long id = messageCounter.getAndIncrement();
-            percept.updateIdAndDeadline(id, System.currentTimeMillis() + agentTimeout);
-            CompletableFuture<JSONObject> futureAction = new CompletableFuture<>();
-            futureActions.put(id, futureAction);
-            sendMessage(percept);
+            percept.updateIdAndDeadline(id, deadline);
+            var request = new ActionRequest(id, deadline);
+            futureActions.put(id, request);
+            synchronized (this) {
+                sendMessage(encodePercept(percept));
+            }
+            return request;
+        }
+
+        /**
+         * Blocks until the agent's action is received or the deadline of the request has passed.
+         * @param request the request returned by {@link #requestAction(RequestActionMessage, long)}
+         * @param stepStart the time the requests of the step were sent at
+         * @return the action that was received by the agent (or {@link Actions#NO_ACTION})
+         */
+        GameAction awaitAction(ActionRequest request, long stepStart) {
             try {
                 // wait for action to be received
-                JSONObject json = futureAction.get(agentTimeout, TimeUnit.MILLISECONDS);
-                Message msg = Message.buildFromJson(json);
-                if(msg instanceof ActionMessage){
-                    return (ActionMessage) msg;
-                }
+                long remaining = Math.max(0, request.deadline - System.currentTimeMillis());
+                var action = request.action.get(remaining, TimeUnit.MILLISECONDS);
+                responseStats.addResponse(name, teamName, request.receivedAt - stepStart);
+                return action;
             } catch (InterruptedException | ExecutionException e) {
                 Log.log(Log.Level.ERROR, "Interrupted while waiting for action.");
             } catch (TimeoutException e) {
+                synchronized (request) {
+                    // cancel, so that we know if the action arrives later
+                    if (!request.action.cancel(false)) return awaitAction(request, stepStart); // it just arrived
+                }
                 Log.log(Log.Level.NORMAL, "No valid action available in time for agent " + name + ".");
+                responseStats.addTimeout(name, teamName);
             }
-            return new ActionMessage(Actions.NO_ACTION, id, new ArrayList<>());
+            return GameAction.noAction();
         }
 
         /**
          * Creates and send a sim-end message to the agent.
          * @param percept the percept to append to the message.
          */
-        void handleFinalPercept(SimEndMessage percept) {
+        synchronized void handleFinalPercept(SimEndMessage percept) {
             lastSimStartMessage = null; // now we can stop resending it
+            lastStepPercept = null;
             sendMessage(percept);
         }
 
+        /**
+         * @return the percept itself or (if the agent wants deltas) its delta to the last step percept that was sent
+         */
+        private Message encodePercept(RequestActionMessage percept) {
+            if (!deltaPercepts || !(percept instanceof StepPercept)) return percept;
+            var stepPercept = (StepPercept) percept;
+            Message message = stepPercept;
+            if (lastStepPercept != null && deltasSinceKeyframe < DELTA_KEYFRAME_INTERVAL
+                    && stepPercept.getMove() != null && lastStepPercept.getStep() == stepPercept.getStep() - 1) {
+                message = StepPerceptDelta.between(lastStepPercept, stepPercept, stepPercept.getMove());
+                deltasSinceKeyframe++;
+            }
+            else deltasSinceKeyframe = 0;
+            lastStepPercept = stepPercept;
+            return message;
+        }
+
         /**
          * Sets a new endpoint for sending and receiving messages. If a socket is already present, it is replaced and closed.
          * @param newSocket the new socket to use for this agent
+         * @param deltaPercepts whether step percepts should be sent as deltas on the new socket
          */
-        private void handleNewConnection(Socket newSocket){
-            // potentially close old socket
-            if (sendThread != null) sendThread.interrupt();
-            if (receiveThread != null) receiveThread.interrupt();
-            if (socket != null) try { socket.close(); } catch (IOException ignored) {}
+        private synchronized void handleNewConnection(Socket newSocket, boolean deltaPercepts){
+            closeConnection();
             // set new socket and open new threads
             socket = newSocket;
+            resetQueue(deltaPercepts);
+            sendTask = connectionExecutor.submit(this::send);
+            receiveTask = connectionExecutor.submit(() -> receive());
+        }
+
+        /**
+         * Sets a new non-blocking connection for sending and receiving messages, replacing any previous one.
+         * @param newConnection the new connection to use for this agent
+         * @param deltaPercepts whether step percepts should be sent as deltas on the new connection
+         */
+        private synchronized void handleNewConnection(SelectorNetwork.Connection newConnection, boolean deltaPercepts){
+            closeConnection(); // detaches the old connection, so it cannot take the messages meant for the new one
+            connection = newConnection;
+            resetQueue(deltaPercepts);
+            connection.attach(this);
+        }
+
+        /**
+         * Closes the old socket or connection (if any).
+         */
+        private void closeConnection() {
+            if (sendTask != null) sendTask.cancel(true);
+            if (receiveTask != null) receiveTask.cancel(true);
+            if (socket != null) try { socket.close(); } catch (IOException ignored) {}
+            if (connection != null) connection.disconnect();
+            sendTask = receiveTask = null;
+            socket = null;
+            connection = null;
+        }
+
+        /**
+         * Prepares the send queue for a new connection.
+         */
+        private void resetQueue(boolean deltaPercepts) {
             sendQueue.clear();
+            this.deltaPercepts = deltaPercepts;
+            lastStepPercept = null;
             // resend sim start message if available
-            if(lastSimStartMessage != null) sendQueue.addFirst(lastSimStartMessage.toJson());
-            sendThread = new Thread(this::send);
-            sendThread.start();
-            receiveThread = new Thread(this::receive);
-            receiveThread.start();
+            if(lastSimStartMessage != null) sendQueue.addFirst(lastSimStartMessage);
         }
 
         /**
          * Reads JSON objects (0-terminated) from the socket. If any "packet" is bigger than
          * {@link #maxPacketLength}, the read bytes are immediately discarded until the next 0 byte.
+         * Action messages are parsed directly from the received bytes if possible.
          */
         private void receive() {
-            InputStream in;
             try {
-                in = new BufferedInputStream(socket.getInputStream());
-                var buffer = new ByteArrayOutputStream(maxPacketLength);
-                var readBytes = 0;
-                var skipping = false;
+                var frames = new FrameReader(socket.getInputStream(), maxPacketLength);
                 while (!disconnecting){
-                    var b = in.read();
-                    if (!skipping && b != 0) buffer.write(b);
-                    if(b == -1) break; // stream ended
-                    if (b == 0){
-                        if (skipping){
-                            skipping = false; // new packet next up
-                        }
-                        else {
-                            // json object complete
-                            JSONObject json = new JSONObject(new String(buffer.toByteArray()));
-                            handleReceivedMessage(json);
-                            buffer = new ByteArrayOutputStream();
-                            readBytes = 0;
-                        }
-                    }
-                    if (readBytes++ >= maxPacketLength){
-                        buffer = new ByteArrayOutputStream();
-                        readBytes = 0;
-                        skipping = true;
-                    }
+                    var frame = frames.next();
+                    if (frame == null) break; // stream ended
+                    receive(frame);
                 }
             } catch (IOException | JSONException e) {
                 Log.log(Log.Level.ERROR, "Error receiving json object. Stop receiving.");
             }
         }
 
+        @Override
+        public void receive(ByteBuffer frame) {
+            var action = ActionMessageParser.parse(frame);
+            if (action != null) handleAction(action);
+            else handleReceivedMessage(new JSONObject(StandardCharsets.UTF_8.decode(frame).toString()));
+        }
+
+        @Override
+        public Message nextMessage() {
+            return sendQueue.poll();
+        }
+
         /**
          * Handles one received document (from the remote agent).
          * @param json the json object that needs to be processed
@@ -276,32 +427,63 @@ class AgentManager {
                 return;
             }
             if(message instanceof ActionMessage){
-                ActionMessage action = (ActionMessage) message;
-                long actionID = action.getId();
-                if(actionID != -1 && futureActions.containsKey(actionID)){
-                    futureActions.get(actionID).complete(json);
-                }
-                else Log.log(Log.Level.ERROR, "Invalid action id " + actionID + " from " + name);
+                handleAction((ActionMessage) message);
             }
             else{
                 Log.log(Log.Level.NORMAL, "Received unknown message type from " + name);
             }
         }
 
+        /**
+         * Hands the action to the step waiting for it (if any). The action is parsed here, on the receiving thread,
+         * so that the simulation only deals with typed actions.
+         */
+        private void handleAction(ActionMessage action) {
+            long actionID = action.getId();
+            var request = futureActions.get(actionID);
+            if(actionID != -1 && request != null){
+                var receivedAt = System.currentTimeMillis();
+                synchronized (request) {
+                    if (request.action.isCancelled()) {
+                        responseStats.addLate(name, teamName);
+                        return;
+                    }
+                    if (request.action.isDone()) {
+                        Log.log(Log.Level.ERROR, "Duplicate action id " + actionID + " from " + name);
+                        responseStats.addInvalid(name, teamName);
+                        return;
+                    }
+                    request.receivedAt = receivedAt;
+                    request.action.complete(GameAction.of(action));
+                }
+            }
+            else {
+                Log.log(Log.Level.ERROR, "Invalid action id " + actionID + " from " + name);
+                responseStats.addInvalid(name, teamName);
+            }
+        }
+
         /**
          * Sends all messages from {@link #sendQueue}, blocks if it is empty.
+         * Each message is written into a reused buffer first, which is then sent at once.
          */
         private void send() {
+            var buffer = new ByteArrayOutputStream(8192);
+            var writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+            var json = new JsonWriter(writer);
             while (true) {
                 if (disconnecting && sendQueue.isEmpty()) { // we can stop when everything is sent (e.g. the bye message)
                     break;
                 }
                 try {
-                    var osw = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
                     var msg = sendQueue.take();
-                    osw.write(msg.toString());
-                    osw.write(0);
-                    osw.flush();
+                    buffer.reset();
+                    msg.writeJson(json);
+                    writer.write(0);
+                    writer.flush();
+                    var out = socket.getOutputStream();
+                    buffer.writeTo(out);
+                    out.flush();
                 } catch (IOException | InterruptedException e){
                     Log.log(Log.Level.DEBUG, name + ": Error writing to socket. Stop sending now.");
                     break;
@@ -314,14 +496,19 @@ class AgentManager {
          */
         private void close() {
             sendMessage(new ByeMessage(System.currentTimeMillis()));
+            var connection = this.connection;
+            if (connection != null) {
+                connection.closeWhenSent(5000); // give bye-message some time to be sent (but not too much)
+                return;
+            }
             try {
-                if(sendThread != null)
-                    sendThread.join(5000); // give bye-message some time to be sent (but not too much)
+                if(sendTask != null)
+                    sendTask.get(5000, TimeUnit.MILLISECONDS); // give bye-message some time to be sent (but not too much)
             } catch (InterruptedException e) {
                 Log.log(Log.Level.ERROR, "Interrupted while waiting for disconnection.");
-            }
-            if (sendThread != null) sendThread.interrupt();
-            if (receiveThread != null) receiveThread.interrupt();
+            } catch (ExecutionException | TimeoutException | CancellationException ignored) {}
+            if (sendTask != null) sendTask.cancel(true);
+            if (receiveTask != null) receiveTask.cancel(true);
             if (socket != null) {
                 try {
                     socket.close();
@@ -331,17 +518,21 @@ class AgentManager {
 
         /**
          * Puts the given message into the send queue as soon as possible.
-         * @param message the message document to send
+         * The message is only serialized when it is sent, so it must not be changed afterwards.
+         * @param message the message to send
          */
-        private void sendMessage(Message message){
-            while (sendQueue.size() > sendBufferSize)
+        private synchronized void sendMessage(Message message){
+            while (sendQueue.size() > sendBufferSize) {
                 sendQueue.poll();
+                lastStepPercept = null; // a delta might have been dropped
+            }
 
             try {
-                sendQueue.put(message.toJson());
+                sendQueue.put(message);
             } catch (InterruptedException e) {
                 Log.log(Log.Level.ERROR, "Interrupted while trying to put message into queue.");
             }
+            if (connection != null) connection.requestFlush();
         }
     }
 }
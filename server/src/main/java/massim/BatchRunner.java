@@ -0,0 +1,173 @@
+package massim;
+
+import massim.config.ServerConfig;
+import massim.config.TeamConfig;
+import massim.game.GameAction;
+import massim.game.Simulation;
+import massim.protocol.LocalAgent;
+import massim.util.IOUtil;
+import massim.util.Log;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs a number of matches with agents in the same JVM (see {@link LocalAgent}), without any networking.
+ * Meant for parameter sweeps and other experiments that need many matches.
+ */
+public class BatchRunner {
+
+    private final ServerConfig config;
+    private final Map<String, LocalAgent.Factory> factories;
+
+    /**
+     * @param config the server configuration (its first teamsPerMatch teams play each match)
+     * @param factories the agent factories for each team
+     */
+    public BatchRunner(ServerConfig config, Map<String, LocalAgent.Factory> factories) {
+        this.config = config;
+        this.factories = factories;
+    }
+
+    public static void main(String[] args) {
+        ServerConfig config = null;
+        var matches = 1;
+        var seed = System.currentTimeMillis();
+        String defaultFactory = null;
+        var teamFactories = new HashMap<String, String>();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-conf":
+                    try {
+                        config = Server.parseServerConfig(IOUtil.readJSONObjectWithImport(args[++i]));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        Log.log(Log.Level.ERROR, "Could not read massim.config file.");
+                    }
+                    break;
+                case "-matches":
+                    matches = Integer.parseInt(args[++i]);
+                    break;
+                case "-seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "-agents":
+                    var spec = args[++i];
+                    var split = spec.indexOf('=');
+                    if (split == -1) defaultFactory = spec;
+                    else teamFactories.put(spec.substring(0, split), spec.substring(split + 1));
+                    break;
+                default:
+                    Log.log(Log.Level.ERROR, "Unknown option: " + args[i]);
+            }
+        }
+        if (config == null) {
+            Log.log(Log.Level.ERROR, "Usage: BatchRunner -conf <config> [-matches <n>] [-seed <seed>] "
+                    + "[-agents [<team>=]<factory class>]...");
+            System.exit(1);
+        }
+
+        Server.setLogLevel(config.logLevel);
+        var factories = new HashMap<String, LocalAgent.Factory>();
+        for (TeamConfig team : config.teams) {
+            var factory = teamFactories.getOrDefault(team.getName(), defaultFactory);
+            if (factory == null) continue;
+            try {
+                factories.put(team.getName(), (LocalAgent.Factory)
+                        Class.forName(factory).getDeclaredConstructor().newInstance());
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                Log.log(Log.Level.CRITICAL, "Cannot create agent factory " + factory + ": " + e);
+                System.exit(1);
+            }
+        }
+
+        var results = new JSONObject();
+        results.put("seed", seed);
+        results.put("simulations", new BatchRunner(config, factories).run(matches, seed));
+        var time = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss").format(new Date());
+        IOUtil.writeJSONToFile(results, new File(config.resultPath + File.separator + "batch_" + time + ".json"));
+    }
+
+    /**
+     * Runs the matches one after another.
+     * @param matches the number of matches to run
+     * @param seed determines the random seeds of all simulations
+     * @return the results of all simulations (including the seed to replay them with)
+     */
+    public JSONArray run(int matches, long seed) {
+        if (config.teamsPerMatch > config.teams.size()) {
+            Log.log(Log.Level.ERROR, "Not enough teams configured. Stopping.");
+            return new JSONArray();
+        }
+        var matchTeams = new LinkedHashSet<>(config.teams.subList(0, config.teamsPerMatch));
+        var seeds = new Random(seed);
+        var results = new JSONArray();
+        for (var match = 0; match < matches; match++) {
+            var agents = createAgents(matchTeams);
+            for (var simIndex = 0; simIndex < config.simConfigs.size(); simIndex++) {
+                var simSeed = seeds.nextLong();
+                Log.log(Log.Level.NORMAL, "Running match " + match + " simulation " + simIndex + " with seed " + simSeed);
+                var result = new JSONObject();
+                result.put("match", match);
+                result.put("simulation", simIndex);
+                result.put("randomSeed", simSeed);
+                result.put("result", runSimulation(config.simConfigs.get(simIndex), simSeed, matchTeams, agents));
+                results.put(result);
+            }
+        }
+        return results;
+    }
+
+    private Map<String, LocalAgent> createAgents(Set<TeamConfig> matchTeams) {
+        var agents = new HashMap<String, LocalAgent>();
+        for (TeamConfig team : matchTeams) {
+            var factory = factories.get(team.getName());
+            if (factory != null) agents.putAll(factory.createTeam(team.getName(), team.getAgentNames()));
+        }
+        return agents;
+    }
+
+    /**
+     * Runs one simulation to the end.
+     * @return the simulation's result
+     */
+    private JSONObject runSimulation(JSONObject simConfig, long seed, Set<TeamConfig> matchTeams,
+                                     Map<String, LocalAgent> agents) {
+        var sim = new Simulation(seed);
+        sim.setPerceptThreads(config.perceptThreads);
+        sim.setActionResolution(config.actionResolution);
+        int steps = simConfig.getInt("steps");
+
+        sim.init(steps, simConfig, matchTeams).forEach((agName, percept) -> {
+            var agent = agents.get(agName);
+            if (agent != null) agent.handleSimStart(percept);
+        });
+
+        long actionId = 0;
+        for (int i = 0; i < steps; i++) {
+            Log.log(Log.Level.DEBUG, "Simulation at step " + i);
+            Map<String, GameAction> actions = new ConcurrentHashMap<>();
+            for (var entry : sim.preStep(i).entrySet()) {
+                var id = actionId++;
+                var percept = entry.getValue();
+                percept.updateIdAndDeadline(id, System.currentTimeMillis() + config.agentTimeout);
+                var agent = agents.get(entry.getKey());
+                var action = agent != null? agent.handleRequestAction(percept) : null;
+                actions.put(entry.getKey(), action != null? GameAction.of(action) : GameAction.noAction());
+            }
+            sim.step(i, actions);
+        }
+
+        sim.finish().forEach((agName, percept) -> {
+            var agent = agents.get(agName);
+            if (agent != null) agent.handleSimEnd(percept);
+        });
+        return sim.getResult();
+    }
+}
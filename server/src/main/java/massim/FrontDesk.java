@@ -1,8 +1,10 @@
 package massim;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
@@ -11,6 +13,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import massim.config.ServerConfig;
+import massim.protocol.JsonWriter;
 import massim.protocol.messages.AuthRequestMessage;
 import massim.protocol.messages.AuthResponseMessage;
 import massim.protocol.messages.Message;
@@ -27,6 +30,7 @@ class FrontDesk {
     private boolean stopped = false;
     private final ServerSocket serverSocket;
     private final Thread thread;
+    private final SelectorNetwork network;
     private final AgentManager agentManager;
 
     private final Status simStatus = new Status();
@@ -39,6 +43,13 @@ class FrontDesk {
     FrontDesk(AgentManager agentMng, ServerConfig config) throws IOException {
         setTeamSizes(config.teamSizes.toArray(new Integer[0]));
         agentManager = agentMng;
+        if (ServerConfig.NETWORK_SELECTOR.equals(config.network)) {
+            network = new SelectorNetwork(this, agentMng, config);
+            serverSocket = null;
+            thread = null;
+            return;
+        }
+        network = null;
         serverSocket = new ServerSocket(config.port, config.backlog, null);
         thread = new Thread(() -> {
             while (!stopped) {
@@ -46,8 +57,7 @@ class FrontDesk {
                     Log.log(Log.Level.DEBUG, "Waiting for connection...");
                     Socket s = serverSocket.accept();
                     Log.log(Log.Level.DEBUG,"Got a connection.");
-                    Thread t = new Thread(() -> handleSocket(s));
-                    t.start();
+                    agentManager.execute(() -> handleSocket(s));
                 } catch (IOException e) {
                     Log.log(Log.Level.DEBUG,"Stop listening");
                 }
@@ -59,13 +69,18 @@ class FrontDesk {
      * Starts listening on the socket.
      */
     void open() {
-        thread.start();
+        if (network != null) network.open();
+        else thread.start();
     }
 
     /**
      * Stops listening.
      */
     void close() {
+        if (network != null) {
+            network.close();
+            return;
+        }
         try {
             stopped = true;
             serverSocket.close();
@@ -74,24 +89,12 @@ class FrontDesk {
         }
     }
 
-    /**
-     * Creates and sends an auth-response message on the given socket.
-     * @param s the socket to send on
-     * @param result whether the authentication was successful
-     */
-    private void sendAuthResponse(Socket s, String result) {
-        sendMessage(s, new AuthResponseMessage(System.currentTimeMillis(), result));
-    }
-
-    private void sendStatusResponse(Socket s) {
-        sendMessage(s, buildStatusResponse());
-    }
-
     private void sendMessage(Socket s, Message msg) {
         try {
-            var out = s.getOutputStream();
-            out.write(msg.toJson().toString().getBytes());
+            var out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+            msg.writeJson(new JsonWriter(out));
             out.write(0);
+            out.flush();
         } catch (IOException e) {
             Log.log(Log.Level.CRITICAL, msg.getMessageType() + " message could not be sent.");
             e.printStackTrace();
@@ -113,51 +116,79 @@ class FrontDesk {
                 else if (b == -1) return; // stream ended
                 else buffer.write(b);
             }
+            handleRequest(buffer.toString(StandardCharsets.UTF_8), new Client() {
+                @Override
+                public String getAddress() {
+                    return s.getInetAddress().getHostAddress();
+                }
 
-            String received = buffer.toString(StandardCharsets.UTF_8);
-            JSONObject json = null;
-            try {
-                json = new JSONObject(received);
-            } catch(JSONException e){
-                Log.log(Log.Level.ERROR, "Invalid JSON object received: " + received);
-            }
-            Message msg = Message.buildFromJson(json);
-
-            if(msg != null){
-                if(msg instanceof AuthRequestMessage) {
-                    AuthRequestMessage auth = (AuthRequestMessage) msg;
-                    Log.log(Log.Level.NORMAL, "got authentication: username=" + auth.getUsername() + " password="
-                            + auth.getPassword() + " address=" + s.getInetAddress().getHostAddress());
-                    // check credentials and act accordingly
-                    if (agentManager.auth(auth.getUsername(), auth.getPassword())) {
-                        Log.log(Log.Level.NORMAL, auth.getUsername() + " authentication successful");
-                        sendAuthResponse(s, AuthResponseMessage.OK);
-                        agentManager.handleNewConnection(s, auth.getUsername());
-                    } else {
-                        Log.log(Log.Level.ERROR, "Got invalid authentication from: " + s.getInetAddress().getHostAddress());
-                        sendAuthResponse(s, AuthResponseMessage.FAIL);
-                        try {
-                            s.close();
-                        } catch (IOException ignored) {}
-                    }
+                @Override
+                public void reply(Message message) {
+                    sendMessage(s, message);
                 }
-                else if (msg instanceof StatusRequestMessage) {
-                    Log.log(Log.Level.DEBUG, "Got status request from: " + s.getInetAddress().getHostAddress());
-                    sendStatusResponse(s);
+
+                @Override
+                public void accept(String agentName, boolean deltaPercepts) {
+                    agentManager.handleNewConnection(s, agentName, deltaPercepts);
                 }
-                else{
-                    Log.log(Log.Level.ERROR, "Expected AuthRequest, Received message of type: " + msg.getClass());
+
+                @Override
+                public void reject() {
+                    try {
+                        s.close();
+                    } catch (IOException ignored) {}
                 }
-            }
-            else{
-                Log.log(Log.Level.ERROR, "Cannot handle message: " + received);
-            }
+            });
         } catch (IOException e) {
             Log.log(Log.Level.ERROR, "Error while receiving authentication message");
             e.printStackTrace();
         }
     }
 
+    /**
+     * Handles the first message received on a new connection, i.e. tries to perform agent authentication or
+     * answers a status request.
+     * @param received the received message
+     * @param client the connection the message was received on
+     */
+    void handleRequest(String received, Client client) {
+        JSONObject json = null;
+        try {
+            json = new JSONObject(received);
+        } catch(JSONException e){
+            Log.log(Log.Level.ERROR, "Invalid JSON object received: " + received);
+        }
+        Message msg = Message.buildFromJson(json);
+
+        if(msg != null){
+            if(msg instanceof AuthRequestMessage) {
+                AuthRequestMessage auth = (AuthRequestMessage) msg;
+                Log.log(Log.Level.NORMAL, "got authentication: username=" + auth.getUsername() + " password="
+                        + auth.getPassword() + " address=" + client.getAddress());
+                // check credentials and act accordingly
+                if (agentManager.auth(auth.getUsername(), auth.getPassword())) {
+                    Log.log(Log.Level.NORMAL, auth.getUsername() + " authentication successful");
+                    client.reply(new AuthResponseMessage(System.currentTimeMillis(), AuthResponseMessage.OK));
+                    client.accept(auth.getUsername(), auth.wantsDeltaPercepts());
+                } else {
+                    Log.log(Log.Level.ERROR, "Got invalid authentication from: " + client.getAddress());
+                    client.reply(new AuthResponseMessage(System.currentTimeMillis(), AuthResponseMessage.FAIL));
+                    client.reject();
+                }
+            }
+            else if (msg instanceof StatusRequestMessage) {
+                Log.log(Log.Level.DEBUG, "Got status request from: " + client.getAddress());
+                client.reply(buildStatusResponse());
+            }
+            else{
+                Log.log(Log.Level.ERROR, "Expected AuthRequest, Received message of type: " + msg.getClass());
+            }
+        }
+        else{
+            Log.log(Log.Level.ERROR, "Cannot handle message: " + received);
+        }
+    }
+
     public void setTeams(String[] teams) {
         synchronized (simStatus) {
             simStatus.teams = teams;
@@ -183,6 +214,29 @@ class FrontDesk {
         }
     }
 
+    /**
+     * A new connection, which has not been handed to the {@link AgentManager} yet.
+     */
+    interface Client {
+
+        String getAddress();
+
+        /**
+         * Sends the message before anything else is sent on the connection.
+         */
+        void reply(Message message);
+
+        /**
+         * Hands the connection to the agent manager after successful authentication.
+         */
+        void accept(String agentName, boolean deltaPercepts);
+
+        /**
+         * Closes the connection (after the replies have been sent).
+         */
+        void reject();
+    }
+
     static class Status {
         String[] teams = new String[0];
         Integer[] teamSizes = new Integer[0];
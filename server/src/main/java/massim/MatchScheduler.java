@@ -0,0 +1,110 @@
+package massim;
+
+import massim.config.TeamConfig;
+import massim.util.Log;
+import massim.util.RNG;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a number of matches at the same time. Matches that share a team never run at the same time,
+ * as each agent can only play in one simulation at once.
+ */
+class MatchScheduler {
+
+    private final int concurrency;
+    private final ExecutorService executor;
+    private final Consumer<Set<TeamConfig>> runMatch;
+
+    /** the teams of all running matches */
+    private final Set<TeamConfig> busyTeams = new HashSet<>();
+    private int running = 0;
+
+    /**
+     * @param concurrency the maximum number of matches to run at the same time
+     * @param runMatch runs a single match with the given teams (called on one of the scheduler's threads)
+     */
+    MatchScheduler(int concurrency, Consumer<Set<TeamConfig>> runMatch) {
+        this.concurrency = Math.max(1, concurrency);
+        this.runMatch = runMatch;
+        var threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(this.concurrency,
+                r -> new Thread(r, "massim-match-" + threadCount.getAndIncrement()));
+    }
+
+    /**
+     * Runs all matches and waits until they are finished. Matches are started in the given order, but a match
+     * may be started before an earlier one whose teams are still playing.
+     * @param matches the teams of each match
+     * @throws InterruptedException if interrupted while waiting (running matches are not stopped)
+     */
+    synchronized void runAll(List<Set<TeamConfig>> matches) throws InterruptedException {
+        var pending = new LinkedList<>(matches);
+        while (!pending.isEmpty()) {
+            var next = running < concurrency?
+                    pending.stream().filter(m -> Collections.disjoint(m, busyTeams)).findFirst().orElse(null) : null;
+            if (next == null) {
+                wait();
+                continue;
+            }
+            pending.remove(next);
+            start(next);
+        }
+        while (running > 0) wait();
+    }
+
+    /**
+     * Keeps running matches of randomly chosen teams (among those not playing at the moment) until stopped.
+     * Waits for the running matches to finish afterwards.
+     * @param stopped whether to stop starting new matches (checked whenever a match could be started)
+     * @throws InterruptedException if interrupted while waiting (running matches are not stopped)
+     */
+    synchronized void runRandom(List<TeamConfig> teams, int teamsPerMatch, RNG rng, BooleanSupplier stopped)
+            throws InterruptedException {
+        while (!stopped.getAsBoolean()) {
+            var idleTeams = teams.stream().filter(t -> !busyTeams.contains(t)).collect(Collectors.toList());
+            if (running >= concurrency || idleTeams.size() < teamsPerMatch) {
+                wait();
+                continue;
+            }
+            rng.shuffle(idleTeams);
+            start(new HashSet<>(idleTeams.subList(0, teamsPerMatch)));
+        }
+        while (running > 0) wait();
+    }
+
+    /**
+     * Stops the scheduler's threads once all matches are finished.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    private void start(Set<TeamConfig> matchTeams) {
+        busyTeams.addAll(matchTeams);
+        running++;
+        executor.execute(() -> {
+            try {
+                runMatch.accept(matchTeams);
+            } catch (RuntimeException e) {
+                Log.log(Log.Level.ERROR, "Match of " + matchTeams.stream().map(TeamConfig::getName)
+                        .collect(Collectors.joining(", ")) + " failed.");
+                e.printStackTrace();
+            } finally {
+                finished(matchTeams);
+            }
+        });
+    }
+
+    private synchronized void finished(Set<TeamConfig> matchTeams) {
+        busyTeams.removeAll(matchTeams);
+        running--;
+        notifyAll();
+    }
+}
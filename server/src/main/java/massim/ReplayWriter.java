@@ -1,62 +1,274 @@
 package massim;
 
+import massim.config.ServerConfig;
+import massim.monitor.CompactReplay;
+import massim.monitor.SnapshotDelta;
 import massim.util.Log;
 import org.json.JSONObject;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 
+/**
+ * Saves the snapshots of simulations to disk. Snapshots are queued and written by a background thread, so that
+ * the simulation does not wait for the disk (unless the queue is full).
+ * Each group file is written once: the steps of a group are appended to it as they arrive.
+ * In the compact format, each simulation is written to a single {@link CompactReplay} file instead.
+ * Snapshot deltas are applied to the previous complete snapshot by the background thread, so replays
+ * always contain complete snapshots.
+ */
 public class ReplayWriter {
 
     private static final int GROUP_SIZE = 5;
 
-    private String replayPath;
+    /** the maximum number of snapshots waiting to be written */
+    private static final int QUEUE_CAPACITY = 64;
 
-    private int lastGroup = -1;
-    private JSONObject cache = new JSONObject();
+    private final String replayPath;
+    private final boolean compact;
+    private final BlockingQueue<Item> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writerThread;
 
-    public ReplayWriter(String replayPath) {
+    // back-pressure metrics (only accessed by the simulation thread)
+    private int snapshots = 0;
+    private int blocked = 0;
+    private long blockedNanos = 0;
+    private int maxQueued = 0;
+
+    // state of the writer thread
+    private String groupDir;
+    private int group;
+    private Writer groupWriter;
+    private final Set<String> groupSteps = new HashSet<>();
+    private String compactDir;
+    private CompactReplay.Writer compactWriter;
+    /** the replay directory and the complete snapshot of the last step written */
+    private String latestDir;
+    private JSONObject latest;
+
+    /**
+     * @param format one of the ServerConfig.REPLAY_ constants
+     */
+    public ReplayWriter(String replayPath, String format) {
         this.replayPath = replayPath;
+        this.compact = format.equals(ServerConfig.REPLAY_COMPACT);
+        writerThread = new Thread(this::writeLoop, "massim-replay");
+        writerThread.setDaemon(true);
+        writerThread.start();
     }
 
+    /**
+     * Queues a snapshot for writing. Blocks only if the writer is {@link #QUEUE_CAPACITY} snapshots behind.
+     * The snapshot must not be changed afterwards.
+     */
     public void updateState(String simId, String startTime, JSONObject world) {
-        if (!isStatic(world)) {
-            int step = world.optInt("step");
-            int group = step / GROUP_SIZE;
-            String stepStr = String.valueOf(step);
+        if (world == null) {
+            Log.log(Log.Level.ERROR, "No JSON object to write.");
+            return;
+        }
+        enqueue(new Snapshot(startTime + "-" + simId, world));
+        snapshots++;
+        maxQueued = Math.max(maxQueued, queue.size());
+    }
+
+    /**
+     * Blocks until all queued snapshots are on disk and logs how often the simulation had to wait for the writer.
+     * Called at the end of each simulation.
+     */
+    public void flush() {
+        var flush = new Flush();
+        enqueue(flush);
+        try {
+            flush.done.await();
+        } catch (InterruptedException e) {
+            Log.log(Log.Level.ERROR, "Interrupted while flushing replay.");
+            return;
+        }
+        Log.log(Log.Level.NORMAL, String.format("Replay: %d snapshots written, queue full %d times (%d ms), " +
+                "max. %d queued", snapshots, blocked, blockedNanos / 1_000_000, maxQueued));
+        snapshots = 0;
+        blocked = 0;
+        blockedNanos = 0;
+        maxQueued = 0;
+    }
 
-            if (lastGroup != group || cache.has(stepStr)) cache = new JSONObject();
-            cache.put(stepStr, world);
-            write(startTime, simId, String.valueOf(group * GROUP_SIZE), cache);
+    /**
+     * Flushes all snapshots and stops the writer thread.
+     */
+    public void close() {
+        flush();
+        writerThread.interrupt();
+    }
 
-            lastGroup = group;
-        } else {
-            write(startTime, simId, "static", world);
+    private void enqueue(Item item) {
+        if (queue.offer(item)) return;
+        blocked++;
+        long start = System.nanoTime();
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Log.log(Log.Level.ERROR, "Interrupted while queueing replay snapshot.");
         }
+        blockedNanos += System.nanoTime() - start;
     }
 
-    private boolean isStatic(JSONObject world) {
-        return world.has("grid");
+    private void writeLoop() {
+        while (true) {
+            Item item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                closeGroup();
+                closeCompact();
+                return;
+            }
+            if (item instanceof Flush) {
+                closeGroup();
+                closeCompact();
+                ((Flush) item).done.countDown();
+            }
+            else write((Snapshot) item);
+        }
     }
 
-    private void write(String startTime, String simId, String name, JSONObject json) {
-        if(json == null) {
-            Log.log(Log.Level.ERROR, "No JSON object to write.");
+    private void write(Snapshot snapshot) {
+        if (SnapshotDelta.isDelta(snapshot.world)) {
+            if (latest == null || !snapshot.dir.equals(latestDir)) {
+                Log.log(Log.Level.ERROR, "Replay: snapshot delta without previous snapshot.");
+                return;
+            }
+            snapshot = new Snapshot(snapshot.dir, SnapshotDelta.apply(latest, snapshot.world));
+        }
+        if (!isStatic(snapshot.world)) {
+            latestDir = snapshot.dir;
+            latest = snapshot.world;
+        }
+        if (compact) {
+            writeCompact(snapshot);
+            return;
+        }
+        if (isStatic(snapshot.world)) {
+            writeFile(snapshot.dir, "static", snapshot.world);
             return;
         }
-        String prefix = startTime + "-" + simId;
-        File file = Paths.get(this.replayPath, prefix, name + ".json").toFile();
-        File dir = file.getParentFile();
-        if (!dir.exists()) dir.mkdirs();
+        var step = snapshot.world.optInt("step");
+        var stepStr = String.valueOf(step);
+        var stepGroup = step / GROUP_SIZE;
+        // a step written again replaces the whole group (as before)
+        if (!snapshot.dir.equals(groupDir) || stepGroup != group || groupSteps.contains(stepStr)) {
+            closeGroup();
+            openGroup(snapshot.dir, stepGroup);
+        }
+        if (groupWriter == null) return;
+        try {
+            groupWriter.write(groupSteps.isEmpty()? "{" : ",");
+            groupWriter.write(JSONObject.quote(stepStr));
+            groupWriter.write(':');
+            snapshot.world.write(groupWriter);
+            groupSteps.add(stepStr);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
+    private void openGroup(String dir, int group) {
+        groupDir = dir;
+        this.group = group;
+        groupSteps.clear();
         try {
-            FileWriter writer = new FileWriter(file);
+            groupWriter = openFile(dir, String.valueOf(group * GROUP_SIZE));
+        } catch (IOException e) {
+            e.printStackTrace();
+            groupWriter = null;
+        }
+    }
+
+    /**
+     * Completes the JSON object of the current group file and closes it.
+     */
+    private void closeGroup() {
+        if (groupWriter == null) return;
+        try {
+            if (groupSteps.isEmpty()) groupWriter.write('{');
+            groupWriter.write('}');
+            groupWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        groupWriter = null;
+        groupDir = null;
+    }
+
+    private void writeCompact(Snapshot snapshot) {
+        try {
+            if (!snapshot.dir.equals(compactDir)) {
+                closeCompact();
+                var file = Paths.get(replayPath, snapshot.dir + CompactReplay.FILE_EXTENSION).toFile();
+                var parent = file.getParentFile();
+                if (!parent.exists()) parent.mkdirs();
+                compactWriter = new CompactReplay.Writer(file, CompactReplay.DEFAULT_KEYFRAME_INTERVAL);
+                compactDir = snapshot.dir;
+            }
+            if (isStatic(snapshot.world)) compactWriter.writeStatic(snapshot.world);
+            else compactWriter.writeStep(snapshot.world);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the index of the current compact replay and closes it.
+     */
+    private void closeCompact() {
+        if (compactWriter == null) return;
+        try {
+            compactWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        compactWriter = null;
+        compactDir = null;
+    }
+
+    private boolean isStatic(JSONObject world) {
+        return world.has("grid");
+    }
+
+    private void writeFile(String dir, String name, JSONObject json) {
+        try (var writer = openFile(dir, name)) {
             json.write(writer);
-            writer.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    private Writer openFile(String dir, String name) throws IOException {
+        File file = Paths.get(this.replayPath, dir, name + ".json").toFile();
+        File parent = file.getParentFile();
+        if (!parent.exists()) parent.mkdirs();
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    private interface Item {}
+
+    private static class Snapshot implements Item {
+        /** the replay directory (relative to the replay path) */
+        private final String dir;
+        private final JSONObject world;
+
+        private Snapshot(String dir, JSONObject world) {
+            this.dir = dir;
+            this.world = world;
+        }
+    }
+
+    private static class Flush implements Item {
+        private final CountDownLatch done = new CountDownLatch(1);
+    }
 }
@@ -0,0 +1,178 @@
+package massim;
+
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Collects how long the agents take to respond to action requests, for the current step and for the whole
+ * simulation. Latencies are measured from the start of the step, i.e. from when all requests were sent.
+ */
+class ResponseStats {
+
+    private final Map<String, Latencies> stepTeams = new LinkedHashMap<>();
+    private final Map<String, Latencies> stepAgents = new LinkedHashMap<>();
+    private final Map<String, Latencies> simTeams = new LinkedHashMap<>();
+    private final Map<String, Latencies> simAgents = new LinkedHashMap<>();
+    private final Map<String, String> agentTeams = new LinkedHashMap<>();
+
+    /**
+     * Forgets everything recorded for the previous simulation.
+     */
+    synchronized void startSimulation() {
+        simTeams.clear();
+        simAgents.clear();
+        startStep();
+    }
+
+    /**
+     * Forgets everything recorded for the previous step.
+     */
+    synchronized void startStep() {
+        stepTeams.clear();
+        stepAgents.clear();
+    }
+
+    synchronized void addResponse(String agent, String team, long latency) {
+        update(agent, team, l -> l.add(latency));
+    }
+
+    synchronized void addTimeout(String agent, String team) {
+        update(agent, team, l -> l.timeouts++);
+    }
+
+    /**
+     * Records an action that was received after its deadline.
+     */
+    synchronized void addLate(String agent, String team) {
+        update(agent, team, l -> l.late++);
+    }
+
+    /**
+     * Records an action with an unknown or already used id.
+     */
+    synchronized void addInvalid(String agent, String team) {
+        update(agent, team, l -> l.invalid++);
+    }
+
+    private void update(String agent, String team, Consumer<Latencies> update) {
+        agentTeams.put(agent, team);
+        update.accept(stepTeams.computeIfAbsent(team, t -> new Latencies()));
+        update.accept(stepAgents.computeIfAbsent(agent, a -> new Latencies()));
+        update.accept(simTeams.computeIfAbsent(team, t -> new Latencies()));
+        update.accept(simAgents.computeIfAbsent(agent, a -> new Latencies()));
+    }
+
+    /**
+     * @return a single line describing the responses of each team in the current step and the slowest agent
+     */
+    synchronized String describeStep() {
+        var description = new StringBuilder("Responses (min/median/p99/max):");
+        stepTeams.forEach((team, latencies) -> description.append(" ").append(team).append(" ")
+                .append(latencies.describe()).append(";"));
+        String slowest = null;
+        long slowestLatency = -1;
+        for (var entry : stepAgents.entrySet()) {
+            var latencies = entry.getValue();
+            if (latencies.size > 0 && latencies.max() > slowestLatency) {
+                slowest = entry.getKey();
+                slowestLatency = latencies.max();
+            }
+        }
+        if (slowest != null) description.append(" slowest: ").append(slowest).append(" ").append(slowestLatency).append("ms");
+        return description.toString();
+    }
+
+    /**
+     * @return the statistics of each team and the latency of each agent (or -1 for no response) in the current step
+     */
+    synchronized JSONObject stepToJSON() {
+        var teams = new JSONObject();
+        stepTeams.forEach((team, latencies) -> teams.put(team, latencies.toJSON()));
+        var agents = new JSONObject();
+        stepAgents.forEach((agent, latencies) -> agents.put(agent, latencies.size > 0? latencies.max() : -1));
+        var json = new JSONObject();
+        json.put("teams", teams);
+        json.put("agents", agents);
+        return json;
+    }
+
+    /**
+     * Adds the statistics of the whole simulation to each team's result (as "responses").
+     * @param simResult the result mapping team names to their results
+     */
+    synchronized void addToResult(JSONObject simResult) {
+        simTeams.forEach((team, latencies) -> {
+            var teamResult = simResult.optJSONObject(team);
+            if (teamResult == null) return;
+            var responses = latencies.toJSON();
+            var agents = new JSONObject();
+            responses.put("agents", agents);
+            teamResult.put("responses", responses);
+        });
+        simAgents.forEach((agent, latencies) -> {
+            var teamResult = simResult.optJSONObject(agentTeams.get(agent));
+            if (teamResult == null) return;
+            teamResult.getJSONObject("responses").getJSONObject("agents").put(agent, latencies.toJSON());
+        });
+    }
+
+    /**
+     * The latencies of a group of responses (in ms).
+     */
+    private static class Latencies {
+
+        private long[] values = new long[16];
+        private int size = 0;
+        private boolean sorted = true;
+        private int timeouts = 0;
+        private int late = 0;
+        private int invalid = 0;
+
+        private void add(long latency) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = latency;
+            sorted = false;
+        }
+
+        /**
+         * @param p the share of values that are at most the result
+         * @return the smallest recorded value with at least the given share of values less or equal
+         */
+        private long percentile(double p) {
+            if (!sorted) {
+                Arrays.sort(values, 0, size);
+                sorted = true;
+            }
+            return values[Math.max(0, (int) Math.ceil(p * size) - 1)];
+        }
+
+        private long max() {
+            return percentile(1);
+        }
+
+        private String describe() {
+            var counts = timeouts + " timeouts, " + late + " late, " + invalid + " invalid";
+            if (size == 0) return "no responses (" + counts + ")";
+            return percentile(0) + "/" + percentile(.5) + "/" + percentile(.99) + "/" + max() + "ms (" + counts + ")";
+        }
+
+        private JSONObject toJSON() {
+            var json = new JSONObject();
+            json.put("responses", size);
+            if (size > 0) {
+                json.put("min", percentile(0));
+                json.put("median", percentile(.5));
+                json.put("p99", percentile(.99));
+                json.put("max", max());
+            }
+            json.put("timeouts", timeouts);
+            json.put("late", late);
+            json.put("invalid", invalid);
+            return json;
+        }
+    }
+}
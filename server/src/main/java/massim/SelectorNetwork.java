@@ -0,0 +1,389 @@
+package massim;
+
+import massim.config.ServerConfig;
+import massim.protocol.JsonWriter;
+import massim.protocol.messages.Message;
+import massim.util.FrameReader;
+import massim.util.Log;
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking alternative to the socket threads of the {@link FrontDesk} and the {@link AgentManager}.
+ * A few I/O threads accept all connections and do all reading and writing.
+ */
+class SelectorNetwork {
+
+    private final FrontDesk frontDesk;
+    private final AgentManager agentManager;
+    private final int maxPacketLength;
+
+    private final ServerSocketChannel serverChannel;
+    private final IOLoop[] loops;
+    private int nextLoop = 0;
+
+    /**
+     * Opens the server socket.
+     * @throws IOException if the socket with the given data cannot be opened
+     */
+    SelectorNetwork(FrontDesk frontDesk, AgentManager agentManager, ServerConfig config) throws IOException {
+        this.frontDesk = frontDesk;
+        this.agentManager = agentManager;
+        this.maxPacketLength = config.maxPacketLength;
+        loops = new IOLoop[Math.max(1, config.ioThreads)];
+        for (int i = 0; i < loops.length; i++) loops[i] = new IOLoop(i);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.port), config.backlog);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Starts the I/O threads.
+     */
+    void open() {
+        for (IOLoop loop : loops) loop.thread.start();
+    }
+
+    /**
+     * Stops accepting new connections. Existing connections are closed by the agent manager.
+     */
+    void close() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        loops[0].selector.wakeup();
+    }
+
+    /**
+     * Accepts all pending connections and distributes them among the I/O threads.
+     */
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                Log.log(Log.Level.DEBUG, "Got a connection.");
+                channel.configureBlocking(false);
+                var loop = loops[nextLoop++ % loops.length];
+                var connection = new Connection(channel, loop);
+                loop.execute(connection::register);
+            }
+        } catch (IOException e) {
+            Log.log(Log.Level.DEBUG, "Stop listening");
+        }
+    }
+
+    /**
+     * The end of a connection that receives and sends messages for an agent.
+     */
+    interface Peer {
+
+        /**
+         * @return the next message to send or null if there is none
+         */
+        Message nextMessage();
+
+        /**
+         * Handles one frame received on the connection. Called by an I/O thread.
+         * @param frame the bytes of the message (only valid during the call)
+         * @throws JSONException if the frame does not contain a valid JSON object
+         */
+        void receive(ByteBuffer frame);
+    }
+
+    /**
+     * A thread waiting for and handling I/O events of a share of the connections.
+     */
+    private class IOLoop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        /** things to do on this thread, e.g. for events triggered by other threads */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private IOLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "massim-io-" + index);
+            thread.setDaemon(true);
+        }
+
+        /**
+         * Runs the task on the I/O thread as soon as possible.
+         */
+        private void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    Log.log(Log.Level.CRITICAL, "Selector failed. Stop networking.");
+                    e.printStackTrace();
+                    return;
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) task.run();
+                var keys = selector.selectedKeys();
+                for (SelectionKey key : keys) {
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    var connection = (Connection) key.attachment();
+                    if (key.isReadable()) connection.read();
+                    if (key.isValid() && key.isWritable()) connection.flush();
+                }
+                keys.clear();
+            }
+        }
+    }
+
+    /**
+     * A single non-blocking connection. Its private methods must only be called by the connection's I/O thread.
+     */
+    class Connection implements FrontDesk.Client {
+
+        private final SocketChannel channel;
+        private final IOLoop loop;
+        private final String address;
+        private SelectionKey key;
+
+        private final FrameReader frames = new FrameReader(maxPacketLength);
+        /** whether the first message was handled by the front desk already */
+        private boolean answered = false;
+        /** whether incoming messages are ignored (after an invalid one) */
+        private boolean ignoreInput = false;
+
+        /** messages of the front desk, which are sent before anything else */
+        private final Queue<Message> replies = new ConcurrentLinkedQueue<>();
+        private volatile Peer peer;
+        /** the rest of the message that is currently being sent */
+        private ByteBuffer pending;
+        private final MessageBuffer out = new MessageBuffer();
+        private final OutputStreamWriter writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        private final JsonWriter json = new JsonWriter(writer);
+
+        /** whether the connection should be closed once everything has been sent */
+        private boolean closing = false;
+        /** whether the connection was disconnected, so that nothing is sent anymore */
+        private volatile boolean detached = false;
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        private Connection(SocketChannel channel, IOLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+            address = channel.socket().getInetAddress().getHostAddress();
+        }
+
+        private void register() {
+            try {
+                key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+            } catch (ClosedChannelException e) {
+                closed.countDown();
+            }
+        }
+
+        /**
+         * Reads what is available and handles all complete messages.
+         */
+        private void read() {
+            try {
+                if (frames.read(channel) < 0) {
+                    close();
+                    return;
+                }
+                ByteBuffer frame;
+                while ((frame = frames.poll()) != null) {
+                    if (!ignoreInput) handleFrame(frame);
+                }
+            } catch (IOException e) {
+                Log.log(Log.Level.DEBUG, address + ": Error reading from socket.");
+                close();
+            }
+        }
+
+        private void handleFrame(ByteBuffer frame) {
+            var p = peer;
+            if (p == null) {
+                if (!answered) frontDesk.handleRequest(StandardCharsets.UTF_8.decode(frame).toString(), this);
+                answered = true;
+                return;
+            }
+            try {
+                p.receive(frame);
+            } catch (JSONException e) {
+                Log.log(Log.Level.ERROR, "Error receiving json object. Stop receiving.");
+                ignoreInput = true;
+            }
+        }
+
+        /**
+         * Writes as much of the queued messages as possible and waits for the socket to become writable if some
+         * are left.
+         */
+        private void flush() {
+            if (key == null || !key.isValid()) return;
+            try {
+                while (!detached) {
+                    if (pending == null) {
+                        var message = nextMessage();
+                        if (message == null) break;
+                        pending = serialize(message);
+                    }
+                    channel.write(pending);
+                    if (pending.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    pending = null;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+                if (closing) close();
+            } catch (IOException e) {
+                Log.log(Log.Level.DEBUG, address + ": Error writing to socket. Stop sending now.");
+                close();
+            }
+        }
+
+        /**
+         * Synchronized with {@link #detachPeer()}, so that no message is taken from a peer after it was detached.
+         */
+        private synchronized Message nextMessage() {
+            var reply = replies.poll();
+            if (reply != null) return reply;
+            var p = peer;
+            return p != null? p.nextMessage() : null;
+        }
+
+        private ByteBuffer serialize(Message message) throws IOException {
+            out.reset();
+            message.writeJson(json);
+            writer.write(0);
+            writer.flush();
+            return out.toByteBuffer();
+        }
+
+        private void close() {
+            if (key != null) key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+            closed.countDown();
+        }
+
+        /**
+         * Lets the connection's I/O thread send the queued messages.
+         */
+        void requestFlush() {
+            loop.execute(this::flush);
+        }
+
+        /**
+         * Sets the receiver of all further messages and the source of outgoing messages.
+         */
+        void attach(Peer peer) {
+            this.peer = peer;
+            requestFlush();
+        }
+
+        /**
+         * Stops taking messages from the peer (and handing it received ones) right away, before the peer can be
+         * attached to another connection.
+         * @return the peer (or null if there was none)
+         */
+        private synchronized Peer detachPeer() {
+            var p = peer;
+            peer = null;
+            return p;
+        }
+
+        /**
+         * Closes the connection after everything that is queued has been sent.
+         * The peer is detached immediately, its queued messages are moved to this connection.
+         * @param timeout the maximum time to wait for the connection to close in milliseconds
+         */
+        void closeWhenSent(long timeout) {
+            synchronized (this) {
+                var p = detachPeer();
+                if (p != null) {
+                    Message message;
+                    while ((message = p.nextMessage()) != null) replies.add(message);
+                }
+            }
+            loop.execute(() -> {
+                closing = true;
+                flush();
+            });
+            try {
+                if (!closed.await(timeout, TimeUnit.MILLISECONDS)) disconnect();
+            } catch (InterruptedException e) {
+                Log.log(Log.Level.ERROR, "Interrupted while waiting for disconnection.");
+            }
+        }
+
+        /**
+         * Closes the connection immediately. The peer is detached and nothing is sent anymore before this returns.
+         */
+        void disconnect() {
+            detached = true;
+            detachPeer();
+            loop.execute(this::close);
+        }
+
+        @Override
+        public String getAddress() {
+            return address;
+        }
+
+        @Override
+        public void reply(Message message) {
+            replies.add(message);
+            requestFlush();
+        }
+
+        @Override
+        public void accept(String agentName, boolean deltaPercepts) {
+            agentManager.handleNewConnection(this, agentName, deltaPercepts);
+        }
+
+        @Override
+        public void reject() {
+            loop.execute(() -> {
+                closing = true;
+                flush();
+            });
+        }
+    }
+
+    /**
+     * Gives access to the written bytes without copying them.
+     */
+    private static class MessageBuffer extends ByteArrayOutputStream {
+
+        private MessageBuffer() {
+            super(8192);
+        }
+
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
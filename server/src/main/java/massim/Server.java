@@ -34,12 +34,26 @@ public class Server {
     private FrontDesk frontDesk;
     private AgentManager agentManager;
     private Monitor monitor;
-    private ReplayWriter replayWriter;
 
     /**
-     * whether server should stop after the next match (random mode)
+     * the teams of the match shown by the monitor (null if the monitor is free)
      */
-    private boolean stopped = false;
+    private Set<TeamConfig> monitoredMatch;
+
+    /**
+     * the teams of all running matches
+     */
+    private final List<Set<TeamConfig>> runningMatches = new ArrayList<>();
+
+    /**
+     * held while reading inputs, so that pausing one match pauses all of them
+     */
+    private final Object inputLock = new Object();
+
+    /**
+     * whether server should stop after the running matches (random mode)
+     */
+    private volatile boolean stopped = false;
 
     public static void main(String[] args){
 
@@ -123,10 +137,6 @@ public class Server {
         }
         server.config.monitorPort = monitorPort;
 
-        if (server.config.replayPath != null) {
-            server.replayWriter = new ReplayWriter(server.config.replayPath);
-        }
-
         server.go();
         server.close();
     }
@@ -147,12 +157,7 @@ public class Server {
     private void go(){
 
         //setup text I/O
-        switch(config.logLevel){
-            case "debug": Log.setLogLevel(Log.Level.DEBUG); break;
-            case "error": Log.setLogLevel(Log.Level.ERROR); break;
-            case "critical": Log.setLogLevel(Log.Level.CRITICAL); break;
-            default: Log.setLogLevel(Log.Level.NORMAL);
-        }
+        setLogLevel(config.logLevel);
         if(config.logPath != null){
             File logFile = new File(config.logPath + File.separator + "MASSim-log-" + timestamp() + ".log");
             File dir = logFile.getParentFile();
@@ -162,7 +167,8 @@ public class Server {
         inputManager.start();
 
         // setup backend
-        agentManager = new AgentManager(config.teams, config.agentTimeout, config.maxPacketLength);
+        agentManager = new AgentManager(config.teams, config.agentTimeout, config.maxPacketLength,
+                config.connectionThreads);
         try {
             frontDesk = new FrontDesk(agentManager, config);
             frontDesk.open();
@@ -213,46 +219,64 @@ public class Server {
         }
 
         // run matches according to tournament mode
-        switch(config.tournamentMode){
-            case ServerConfig.MODE_ROUND_ROBIN:
-                // run a match for each team combination
-                if (config.teamsPerMatch > config.teams.size()){
-                    Log.log(Log.Level.ERROR, "Not enough teams configured. Stopping MASSim now.");
-                    System.exit(0);
-                }
-                int[] indices = IntStream.rangeClosed(0, config.teamsPerMatch - 1).toArray();
-                boolean nextMatch = true;
-                while (nextMatch){
-                    Set<TeamConfig> matchTeams = new HashSet<>();
-                    for (int index : indices) matchTeams.add(config.teams.get(index));
-
-                    runMatch(matchTeams);
-
-                    // determine the next team constellation
-                    for (int i = indices.length - 1; i >= 0; i--) {
-                        if (indices[i] < config.teams.size() - 1 - (indices.length - 1 - i)){
-                            indices[i]++;
-                            for (int j = i + 1; j < indices.length; j++){
-                                indices[j] = indices[i] + (j - i);
+        var scheduler = new MatchScheduler(config.concurrentMatches, this::runMatch);
+        try {
+            switch (config.tournamentMode) {
+                case ServerConfig.MODE_ROUND_ROBIN:
+                    // run a match for each team combination
+                    if (config.teamsPerMatch > config.teams.size()){
+                        Log.log(Log.Level.ERROR, "Not enough teams configured. Stopping MASSim now.");
+                        System.exit(0);
+                    }
+                    List<Set<TeamConfig>> matches = new ArrayList<>();
+                    int[] indices = IntStream.rangeClosed(0, config.teamsPerMatch - 1).toArray();
+                    boolean nextMatch = true;
+                    while (nextMatch) {
+                        Set<TeamConfig> matchTeams = new HashSet<>();
+                        for (int index : indices) matchTeams.add(config.teams.get(index));
+                        matches.add(matchTeams);
+
+                        // determine the next team constellation
+                        for (int i = indices.length - 1; i >= 0; i--) {
+                            if (indices[i] < config.teams.size() - 1 - (indices.length - 1 - i)) {
+                                indices[i]++;
+                                for (int j = i + 1; j < indices.length; j++) {
+                                    indices[j] = indices[i] + (j - i);
+                                }
+                                break;
                             }
-                            break;
+                            if (i == 0) nextMatch = false; // no team constellation left
                         }
-                        if (i == 0) nextMatch = false; // no team constellation left
                     }
-                }
-                break;
-            case ServerConfig.MODE_MANUAL:
-                if(config.manualModeTeams != null) config.manualModeTeams.forEach(this::runMatch);
-                break;
-            case ServerConfig.MODE_RANDOM:
-                while(!stopped){
-                    List<TeamConfig> teams = new Vector<>(config.teams);
-                    RNG.shuffle(teams);
-                    runMatch(new HashSet<>(teams.subList(0, config.teamsPerMatch)));
-                }
-                break;
-            default:
-                Log.log(Log.Level.ERROR, "Invalid tournament mode: " + config.tournamentMode);
+                    scheduler.runAll(matches);
+                    break;
+                case ServerConfig.MODE_MANUAL:
+                    if (config.manualModeTeams != null) scheduler.runAll(config.manualModeTeams);
+                    break;
+                case ServerConfig.MODE_RANDOM:
+                    scheduler.runRandom(config.teams, config.teamsPerMatch, new RNG(System.currentTimeMillis()),
+                            () -> stopped);
+                    break;
+                default:
+                    Log.log(Log.Level.ERROR, "Invalid tournament mode: " + config.tournamentMode);
+            }
+        } catch (InterruptedException e) {
+            Log.log(Log.Level.ERROR, "Interrupted while running matches.");
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * Sets the level at which to log.
+     * @param logLevel the configured level (debug, normal, error or critical)
+     */
+    static void setLogLevel(String logLevel) {
+        switch(logLevel){
+            case "debug": Log.setLogLevel(Log.Level.DEBUG); break;
+            case "error": Log.setLogLevel(Log.Level.ERROR); break;
+            case "critical": Log.setLogLevel(Log.Level.CRITICAL); break;
+            default: Log.setLogLevel(Log.Level.NORMAL);
         }
     }
 
@@ -265,7 +289,7 @@ public class Server {
 
 
     /**
-     * Stops running matches after the current one finishes (random tournament mode)
+     * Stops running matches after the current ones finish (random tournament mode)
      */
     public void stop(){
         stopped = true;
@@ -273,11 +297,28 @@ public class Server {
 
     /**
      * Runs a match for the given teams. Sim configuration is taken from the server config.
+     * May be called for multiple matches at the same time (if their teams are disjoint).
      * @param matchTeams a set of all teams to participate in the simulation
      */
     private void runMatch(Set<TeamConfig> matchTeams) {
+        matchStarted(matchTeams);
+        var monitored = claimMonitor(matchTeams);
+        try {
+            runSimulations(matchTeams, monitored);
+        } finally {
+            if (monitored) releaseMonitor();
+            matchFinished(matchTeams);
+        }
+    }
 
-        frontDesk.setTeams(matchTeams.stream().map(TeamConfig::getName).toArray(String[]::new));
+    /**
+     * Runs all configured simulations for the given teams.
+     * @param matchTeams a set of all teams to participate in the simulation
+     * @param monitored whether the monitor shows this match
+     */
+    private void runSimulations(Set<TeamConfig> matchTeams, boolean monitored) {
+        var replayWriter = config.replayPath != null? new ReplayWriter(config.replayPath, config.replayFormat) : null;
+        var agentNames = matchTeams.stream().flatMap(t -> t.getAgentNames().stream()).collect(Collectors.toList());
 
         var startTime = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss").format(new Date());
         var result = new JSONObject();
@@ -289,16 +330,18 @@ public class Server {
             // initialize random
             long randomSeed = simConfig.optLong("randomSeed", System.currentTimeMillis());
             Log.log(Log.Level.NORMAL, "Configuring random seed: " + randomSeed);
-            RNG.initialize(randomSeed);
             // create and run simulation instance with the given teams
-            Simulation sim = new Simulation();
+            Simulation sim = new Simulation(randomSeed);
+            sim.setPerceptThreads(config.perceptThreads);
+            sim.setActionResolution(config.actionResolution);
 
             int steps = simConfig.getInt("steps");
 
             // handle initial state
             var initialPercepts = sim.init(steps, simConfig, matchTeams);
-            handleSimState(sim.getName(), startTime, sim.getStaticData());
-            handleSimState(sim.getName(), startTime, sim.getSnapshot());
+            var responseStats = agentManager.startSimulation(agentNames);
+            var consumers = snapshotConsumers(sim.getName(), startTime, monitored, replayWriter, responseStats);
+            consumers.publishInitial(sim);
             agentManager.handleInitialPercepts(initialPercepts);
 
             // handle steps
@@ -306,16 +349,18 @@ public class Server {
                 Log.log(Log.Level.NORMAL, "Simulation at step " + i);
                 handleInputs(sim);
                 var percepts = sim.preStep(i);
-                var actions = agentManager.requestActions(percepts);
+                var actions = agentManager.requestActions(percepts, responseStats);
                 sim.step(i, actions); // execute step with agent actions
-                handleSimState(sim.getName(), startTime, sim.getSnapshot());
-                if (monitor != null) monitor.updateStatus(sim.getStatusSnapshot());
+                consumers.publishStep(sim, config.deltaSnapshots);
             }
 
             // handle final state
             var finalPercepts = sim.finish();
+            if (replayWriter != null) replayWriter.flush();
             agentManager.handleFinalPercepts(finalPercepts);
-            result.put(sim.getName(), sim.getResult());
+            var simResult = sim.getResult();
+            responseStats.addToResult(simResult);
+            result.put(sim.getName(), simResult);
 
             // pause between simulations
             if (config.waitBetweenSimulations > 0) {
@@ -325,16 +370,67 @@ public class Server {
                 } catch (InterruptedException ignored) {}
             }
         }
+        if (replayWriter != null) replayWriter.close();
 
         // write match result to file
-        IOUtil.writeJSONToFile(result, new File(config.resultPath + File.separator + "result_" + timestamp() + ".json"));
+        IOUtil.writeJSONToFile(result, newResultFile());
+    }
+
+    /**
+     * Lets the front desk report the teams of all running matches.
+     */
+    private synchronized void matchStarted(Set<TeamConfig> matchTeams) {
+        runningMatches.add(matchTeams);
+        updateRunningTeams();
+    }
+
+    private synchronized void matchFinished(Set<TeamConfig> matchTeams) {
+        runningMatches.remove(matchTeams);
+        updateRunningTeams();
+    }
+
+    private void updateRunningTeams() {
+        frontDesk.setTeams(runningMatches.stream().flatMap(Set::stream)
+                .map(TeamConfig::getName).toArray(String[]::new));
+    }
+
+    /**
+     * The monitor shows one match at a time: the first one to start while the monitor is free.
+     * @return whether the match may use the monitor
+     */
+    private synchronized boolean claimMonitor(Set<TeamConfig> matchTeams) {
+        if (monitoredMatch != null) return false;
+        monitoredMatch = matchTeams;
+        return true;
+    }
+
+    private synchronized void releaseMonitor() {
+        monitoredMatch = null;
     }
 
     /**
-     * Takes and processes all inputs from the input manager
+     * @return a file for a match result which does not exist yet (matches may finish within the same second)
+     */
+    private synchronized File newResultFile() {
+        var name = "result_" + timestamp();
+        var file = new File(config.resultPath + File.separator + name + ".json");
+        for (var i = 1; file.exists(); i++)
+            file = new File(config.resultPath + File.separator + name + "_" + i + ".json");
+        return file;
+    }
+
+    /**
+     * Takes and processes all inputs from the input manager.
+     * While one match is paused, all other matches stop before their next step.
      * @param sim the simulation that may receive some of the commands
      */
     private void handleInputs(Simulation sim) {
+        synchronized (inputLock) {
+            readInputs(sim);
+        }
+    }
+
+    private void readInputs(Simulation sim) {
         boolean paused = false;
         // read inputs if inputs are available or execution is paused
         while(inputManager.hasInput() || paused){
@@ -370,14 +466,25 @@ public class Server {
     }
 
     /**
-     * Handles snapshots of the world state, i.e. notifies monitor and saves replays (if configured).
+     * Registers the consumers of a simulation's snapshots, i.e. the monitor and the replay writer (if configured).
      * @param simId the ID of the current sim
      * @param startTime string representation of the simulation's start time
-     * @param world the world state
+     * @param monitored whether the monitor shows the simulation
+     * @param replayWriter the replay writer of the match or null
+     * @param responseStats the response statistics of the simulation (shown in the monitor's status)
      */
-    private void handleSimState(String simId, String startTime, JSONObject world) {
-        if (monitor != null) monitor.updateState(world);
-        if (replayWriter != null) replayWriter.updateState(simId, startTime, world);
+    private SnapshotConsumers snapshotConsumers(String simId, String startTime, boolean monitored,
+                                                ReplayWriter replayWriter, ResponseStats responseStats) {
+        var consumers = new SnapshotConsumers();
+        if (monitored && monitor != null) {
+            consumers.addWorldConsumer(monitor::updateState);
+            consumers.addStatusConsumer(status -> {
+                status.put("responses", responseStats.stepToJSON());
+                monitor.updateStatus(status);
+            });
+        }
+        if (replayWriter != null) consumers.addWorldConsumer(world -> replayWriter.updateState(simId, startTime, world));
+        return consumers;
     }
 
     /**
@@ -415,8 +522,24 @@ public class Server {
         Log.log(Log.Level.NORMAL, "Configuring max packet length: " + config.maxPacketLength);
         config.replayPath = serverJSON.getString("replayPath");
         Log.log(Log.Level.NORMAL, "Configuring replay path: " + config.replayPath);
+        config.replayFormat = serverJSON.optString("replayFormat", ServerConfig.REPLAY_JSON);
+        Log.log(Log.Level.NORMAL, "Configuring replay format: " + config.replayFormat);
+        config.deltaSnapshots = serverJSON.optBoolean("deltaSnapshots", false);
+        Log.log(Log.Level.NORMAL, "Configuring delta snapshots: " + config.deltaSnapshots);
         config.waitBetweenSimulations = serverJSON.optInt("waitBetweenSimulations");
         Log.log(Log.Level.NORMAL, "Configuring wait time: " + config.waitBetweenSimulations);
+        config.perceptThreads = serverJSON.optInt("perceptThreads", 1);
+        Log.log(Log.Level.NORMAL, "Configuring percept threads: " + config.perceptThreads);
+        config.actionResolution = serverJSON.optString("actionResolution", ServerConfig.ACTIONS_SEQUENTIAL);
+        Log.log(Log.Level.NORMAL, "Configuring action resolution: " + config.actionResolution);
+        config.network = serverJSON.optString("network", ServerConfig.NETWORK_BLOCKING);
+        Log.log(Log.Level.NORMAL, "Configuring network: " + config.network);
+        config.ioThreads = serverJSON.optInt("ioThreads", 1);
+        Log.log(Log.Level.NORMAL, "Configuring I/O threads: " + config.ioThreads);
+        config.connectionThreads = serverJSON.optString("connectionThreads", ServerConfig.THREADS_PLATFORM);
+        Log.log(Log.Level.NORMAL, "Configuring connection threads: " + config.connectionThreads);
+        config.concurrentMatches = serverJSON.optInt("concurrentMatches", 1);
+        Log.log(Log.Level.NORMAL, "Configuring concurrent matches: " + config.concurrentMatches);
 
         // parse matches
         JSONArray matchJSON = conf.getJSONArray("match");
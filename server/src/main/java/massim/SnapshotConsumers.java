@@ -0,0 +1,62 @@
+package massim;
+
+import massim.game.Simulation;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The consumers of the snapshots of a simulation (e.g. the monitor and the replay writer).
+ * Snapshots are only built if someone consumes them. If world and status snapshots are both needed,
+ * they are built in the same pass over the world.
+ * The same snapshot object is passed to all consumers, so they must not change it.
+ */
+class SnapshotConsumers {
+
+    private final List<Consumer<JSONObject>> worldConsumers = new ArrayList<>();
+    private final List<Consumer<JSONObject>> statusConsumers = new ArrayList<>();
+
+    /**
+     * @param consumer receives the static data, the initial snapshot and the snapshot (or delta) of each step
+     */
+    void addWorldConsumer(Consumer<JSONObject> consumer) {
+        worldConsumers.add(consumer);
+    }
+
+    /**
+     * @param consumer receives the status snapshot of each step
+     */
+    void addStatusConsumer(Consumer<JSONObject> consumer) {
+        statusConsumers.add(consumer);
+    }
+
+    /**
+     * Passes the static data and a complete snapshot of the initial state to the world consumers.
+     */
+    void publishInitial(Simulation sim) {
+        if (worldConsumers.isEmpty()) return;
+        publish(worldConsumers, sim.getStaticData());
+        publish(worldConsumers, sim.getSnapshot());
+    }
+
+    /**
+     * Passes the snapshots of the current step to all consumers.
+     * @param delta whether world snapshots may be deltas (see {@link Simulation#getSnapshotDelta(JSONObject)})
+     */
+    void publishStep(Simulation sim, boolean delta) {
+        if (worldConsumers.isEmpty()) {
+            if (!statusConsumers.isEmpty()) publish(statusConsumers, sim.getStatusSnapshot());
+            return;
+        }
+        var status = statusConsumers.isEmpty()? null : sim.newStatusSnapshot();
+        var world = delta? sim.getSnapshotDelta(status) : sim.getSnapshot(status);
+        publish(worldConsumers, world);
+        if (status != null) publish(statusConsumers, status);
+    }
+
+    private static void publish(List<Consumer<JSONObject>> consumers, JSONObject snapshot) {
+        for (var consumer : consumers) consumer.accept(snapshot);
+    }
+}
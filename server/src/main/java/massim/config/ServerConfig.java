@@ -15,6 +15,20 @@ public class ServerConfig {
     public final static String MODE_MANUAL = "manual";
     public final static String MODE_RANDOM = "random";
 
+    public final static String NETWORK_BLOCKING = "blocking";
+    public final static String NETWORK_SELECTOR = "selector";
+
+    public final static String REPLAY_JSON = "json";
+    public final static String REPLAY_COMPACT = "compact";
+
+    public final static String ACTIONS_SEQUENTIAL = "sequential";
+    public final static String ACTIONS_BATCHED = "batched";
+    public final static String ACTIONS_COMPARE = "compare";
+
+    public final static String THREADS_PLATFORM = "platform";
+    public final static String THREADS_POOLED = "pooled";
+    public final static String THREADS_VIRTUAL = "virtual";
+
     public String tournamentMode;
     public String launch;
     public int teamsPerMatch;
@@ -47,6 +61,18 @@ public class ServerConfig {
      */
     public String replayPath;
 
+    /**
+     * How replays are saved: a directory of JSON files per simulation ({@link #REPLAY_JSON}) or a single compressed
+     * file with step deltas ({@link #REPLAY_COMPACT}).
+     */
+    public String replayFormat = REPLAY_JSON;
+
+    /**
+     * Whether the world state is passed to the monitor and the replay writer as changes since the previous step
+     * (with a complete snapshot every Simulation.FULL_SNAPSHOT_INTERVAL steps) instead of completely each step.
+     */
+    public boolean deltaSnapshots = false;
+
     /**
      * The port for the webmonitor or 0.
      */
@@ -57,6 +83,40 @@ public class ServerConfig {
      */
     public int waitBetweenSimulations = 0;
 
+    /**
+     * The number of threads used to build the agents' percepts each step (1 = on the simulation thread).
+     */
+    public int perceptThreads = 1;
+
+    /**
+     * How the actions of a step are executed: one after another ({@link #ACTIONS_SEQUENTIAL}), or planned for all
+     * entities at once before being executed in the same order ({@link #ACTIONS_BATCHED}), which has the same results.
+     * {@link #ACTIONS_COMPARE} runs a second, sequential simulation with the same actions and logs any differences.
+     */
+    public String actionResolution = ACTIONS_SEQUENTIAL;
+
+    /**
+     * The networking backend: a thread per socket and direction ({@link #NETWORK_BLOCKING}) or non-blocking
+     * channels served by {@link #ioThreads} threads ({@link #NETWORK_SELECTOR}).
+     */
+    public String network = NETWORK_BLOCKING;
+
+    /**
+     * The number of I/O threads serving all connections if the selector network is used.
+     */
+    public int ioThreads = 1;
+
+    /**
+     * The kind of threads handling blocking connections: a new thread per task ({@link #THREADS_PLATFORM}),
+     * reused threads ({@link #THREADS_POOLED}) or virtual threads ({@link #THREADS_VIRTUAL}, if the JVM supports them).
+     */
+    public String connectionThreads = THREADS_PLATFORM;
+
+    /**
+     * The maximum number of matches to run at the same time. Matches sharing a team are never run at the same time.
+     */
+    public int concurrentMatches = 1;
+
     /**
      * Actual number of agents required in each simulation.
      */
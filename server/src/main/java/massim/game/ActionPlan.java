@@ -0,0 +1,54 @@
+package massim.game;
+
+import massim.game.environment.Attachable;
+import massim.game.environment.Grid;
+import massim.protocol.data.Position;
+
+import java.util.List;
+
+/**
+ * The outcome of an action, computed without changing the game state, and everything it depends on:
+ * the cells that were read and the attachables whose attachments were read.
+ * The plan can be committed instead of executing the action, as long as none of these changed since
+ * {@link Grid#startActionTracking()}.
+ */
+class ActionPlan {
+
+    private final String result;
+    /** changes the game state if the action succeeds (or null) */
+    private final Runnable effect;
+    private final List<Position> readCells;
+    private final Attachable[] attachables;
+    private final long[] versions;
+
+    ActionPlan(String result, Runnable effect, List<Position> readCells, Attachable... attachables) {
+        this.result = result;
+        this.effect = effect;
+        this.readCells = readCells;
+        this.attachables = attachables;
+        this.versions = new long[attachables.length];
+        for (var i = 0; i < attachables.length; i++) versions[i] = attachables[i].getComponentVersion();
+    }
+
+    /**
+     * @return whether the plan still has the same outcome as executing the action now
+     */
+    boolean isValid(Grid grid) {
+        for (var i = 0; i < attachables.length; i++) {
+            if (attachables[i].getComponentVersion() != versions[i]) return false;
+        }
+        for (var pos : readCells) {
+            if (grid.changedSinceActionTracking(pos)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Applies the plan to the game state.
+     * @return the action result
+     */
+    String commit() {
+        if (effect != null) effect.run();
+        return result;
+    }
+}
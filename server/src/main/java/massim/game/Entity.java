@@ -4,10 +4,8 @@ import massim.game.environment.Attachable;
 import massim.game.environment.Task;
 import massim.protocol.data.Position;
 import massim.protocol.data.Thing;
-import massim.protocol.messages.ActionMessage;
 import massim.protocol.messages.scenario.Actions;
 
-import java.util.Collections;
 import java.util.List;
 
 
@@ -16,17 +14,13 @@ import java.util.List;
  */
 public class Entity extends Attachable {
 
-    static int maxEnergy = 0;
-    static int clearEnergyCost = 0;
-    static int disableDuration = 0;
-
     private String agentName;
     private String teamName;
-    private String lastAction = "";
-    private List<String> lastActionParams = Collections.emptyList();
+    private GameAction lastAction = GameAction.NONE;
     private String lastActionResult = "";
 
     private int vision = 5;
+    private final int maxEnergy;
     private int energy;
 
     private int previousClearStep = -1;
@@ -37,17 +31,17 @@ public class Entity extends Attachable {
 
     private Task acceptedTask;
 
-    public Entity(Position xy, String agentName, String teamName) {
-        super(xy);
+    public Entity(int id, Position xy, String agentName, String teamName, int maxEnergy) {
+        super(id, xy);
         this.agentName = agentName;
         this.teamName = teamName;
+        this.maxEnergy = maxEnergy;
         this.energy = maxEnergy;
     }
 
     @Override
-    public Thing toPercept(Position origin) {
-        Position localPosition = getPosition().relativeTo(origin);
-        return new Thing(localPosition.x, localPosition.y, Thing.TYPE_ENTITY, teamName);
+    public Thing toPercept(Position relativePosition) {
+        return new Thing(relativePosition.x, relativePosition.y, Thing.TYPE_ENTITY, teamName);
     }
 
     /**
@@ -70,18 +64,21 @@ public class Entity extends Attachable {
         return agentName;
     }
 
-    void setNewAction(ActionMessage action) {
-        this.lastAction = action.getActionType();
+    void setNewAction(GameAction action) {
+        this.lastAction = action;
         this.lastActionResult = Actions.RESULT_UNPROCESSED;
-        this.lastActionParams = action.getParams();
     }
 
-    String getLastAction() {
+    GameAction getAction() {
         return lastAction;
     }
 
+    String getLastAction() {
+        return lastAction.getName();
+    }
+
     List<String> getLastActionParams() {
-        return lastActionParams;
+        return lastAction.getParams();
     }
 
     String getLastActionResult() {
@@ -113,8 +110,11 @@ public class Entity extends Attachable {
         clearCounter = 0;
     }
 
-    void disable() {
-        disabled = disableDuration;
+    /**
+     * @param duration the number of steps the entity stays disabled
+     */
+    void disable(int duration) {
+        disabled = duration;
         detachAll();
     }
 
@@ -126,8 +126,8 @@ public class Entity extends Attachable {
         return energy;
     }
 
-    void consumeClearEnergy() {
-        energy -= clearEnergyCost;
+    void consumeEnergy(int amount) {
+        energy -= amount;
     }
 
     void acceptTask(Task t) {
@@ -0,0 +1,147 @@
+package massim.game;
+
+import massim.game.environment.Direction;
+import massim.game.environment.Rotation;
+import massim.protocol.messages.ActionMessage;
+import massim.protocol.messages.scenario.Actions;
+import massim.util.Util;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An action of an agent with its parameters already parsed, so that executing it only deals with enums and ints.
+ * The original name and parameters are kept for the percepts and snapshots.
+ */
+public final class GameAction {
+
+    public enum Type {
+        NO_ACTION(Actions.NO_ACTION),
+        SKIP(Actions.SKIP),
+        MOVE(Actions.MOVE),
+        ATTACH(Actions.ATTACH),
+        DETACH(Actions.DETACH),
+        ROTATE(Actions.ROTATE),
+        CONNECT(Actions.CONNECT),
+        REQUEST(Actions.REQUEST),
+        SUBMIT(Actions.SUBMIT),
+        CLEAR(Actions.CLEAR),
+        DISCONNECT(Actions.DISCONNECT),
+        ACCEPT(Actions.ACCEPT),
+        /** any action name not known to the simulation */
+        UNKNOWN(null);
+
+        private final String name;
+
+        Type(String name) {
+            this.name = name;
+        }
+
+        static Type parse(String name) {
+            if (name == null) return UNKNOWN;
+            for (var type : values()) {
+                if (name.equals(type.name)) return type;
+            }
+            return UNKNOWN;
+        }
+    }
+
+    /** the action of an entity that has not acted yet */
+    static final GameAction NONE = new GameAction("", Collections.emptyList());
+
+    private final Type type;
+    private final String name;
+    private final List<String> params;
+    private final Direction direction;
+    private final Rotation rotation;
+    private final int[] intParams;
+    private final boolean[] isInt;
+
+    private GameAction(String name, List<String> params) {
+        this.type = Type.parse(name);
+        this.name = name;
+        this.params = params;
+        var first = params.isEmpty()? null : params.get(0);
+        this.direction = Direction.parse(first);
+        this.rotation = Rotation.parse(first);
+        this.intParams = new int[params.size()];
+        this.isInt = new boolean[params.size()];
+        for (var i = 0; i < params.size(); i++) {
+            var value = Util.tryParseInt(params.get(i));
+            if (value != null) {
+                intParams[i] = value;
+                isInt[i] = true;
+            }
+        }
+    }
+
+    /**
+     * Parses the action and its parameters.
+     */
+    public static GameAction of(ActionMessage message) {
+        var params = message.getParams();
+        return new GameAction(message.getActionType(), params != null? params : Collections.emptyList());
+    }
+
+    /**
+     * @return an action that was not received in time
+     */
+    public static GameAction noAction() {
+        return new GameAction(Actions.NO_ACTION, Collections.emptyList());
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getParams() {
+        return params;
+    }
+
+    /**
+     * @return the first parameter as a direction or null if it is none
+     */
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return the first parameter as a rotation or null if it is none
+     */
+    public Rotation getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @return the parameter at the given index or null if there is no such parameter
+     */
+    public String getParam(int index) {
+        return index < params.size()? params.get(index) : null;
+    }
+
+    /**
+     * @return whether the parameters at the given indices exist and are all integers
+     */
+    public boolean hasIntParams(int... indices) {
+        for (var index : indices) {
+            if (index >= isInt.length || !isInt[index]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the integer value of the parameter at the given index (only valid if {@link #hasIntParams} says so)
+     */
+    public int getIntParam(int index) {
+        return intParams[index];
+    }
+
+    @Override
+    public String toString() {
+        return name + params;
+    }
+}
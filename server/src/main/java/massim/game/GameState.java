@@ -2,7 +2,9 @@ package massim.game;
 
 import massim.config.TeamConfig;
 import massim.game.environment.*;
+import massim.protocol.data.GridGeometry;
 import massim.protocol.data.Position;
+import massim.protocol.data.TaskInfo;
 import massim.protocol.data.Thing;
 import massim.protocol.messages.RequestActionMessage;
 import massim.protocol.messages.SimEndMessage;
@@ -20,6 +22,10 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -34,7 +40,13 @@ class GameState {
 
     private int step = -1;
     private int teamSize;
+    /** draws the initial map and objects */
+    private final RNG mapRng;
+    private final RNG taskRng;
+    /** draws clear events and the obstacles they create */
+    private final RNG eventRng;
     private Grid grid;
+    private GridGeometry geometry;
     private Map<Integer, GameObject> gameObjects = new HashMap<>();
     private Map<Position, Dispenser> dispensers = new HashMap<>();
     private Map<Position, TaskBoard> taskboards = new HashMap<>();
@@ -53,6 +65,9 @@ class GameState {
     private int taskRewardDecayMin;
     private int taskRewardDecayMax;
     int clearSteps;
+    private int clearEnergyCost;
+    int disableDuration;
+    private int maxEnergy;
     private int eventChance;
     private int eventRadiusMin;
     private int eventRadiusMax;
@@ -66,7 +81,27 @@ class GameState {
 
     private JSONArray logEvents = new JSONArray();
 
-    GameState(JSONObject config, Set<TeamConfig> matchTeams) {
+    /** Builds step percepts concurrently if set (see {@link #setPerceptThreads(int)}) */
+    private ExecutorService perceptExecutor;
+
+    /** An entity's previous percept is only patched if it moved at most this far since */
+    private static final int MAX_PERCEPT_SHIFT = 3;
+    /** All percepts are built from scratch if more than this share of the grid's cells changed since the last ones */
+    private static final double MAX_DIRTY_SHARE = .25;
+    private final Map<Entity, PerceptCache> perceptCaches = new HashMap<>();
+    /** ids of all objects and of the objects with attachments at the time of the last snapshot (null before) */
+    private Set<Integer> snapshotObjects;
+    private Set<Integer> snapshotAttached;
+    /** counts the calls to {@link #getStepPercepts()} */
+    private int perceptGeneration = 0;
+
+    /**
+     * @param rng the random number generator of the simulation (the state derives a stream for each purpose)
+     */
+    GameState(JSONObject config, Set<TeamConfig> matchTeams, RNG rng) {
+        this.mapRng = rng.stream("map");
+        this.taskRng = rng.stream("tasks");
+        this.eventRng = rng.stream("events");
         // parse simulation config
         randomFail = config.getInt("randomFail");
         Log.log(Log.Level.NORMAL, "config.randomFail: " + randomFail);
@@ -79,15 +114,15 @@ class GameState {
         int clusterSizeMax = clusterSizes.getInt(1);
         Log.log(Log.Level.NORMAL, "config.clusterBounds: " + clusterSizeMin + ", " + clusterSizeMax);
 
-        Entity.clearEnergyCost = config.getInt("clearEnergyCost");
-        Log.log(Log.Level.NORMAL, "config.clearEnergyCost: " + Entity.clearEnergyCost);
-        Entity.disableDuration = config.getInt("disableDuration");
-        Log.log(Log.Level.NORMAL, "config.disableDuration: " + Entity.disableDuration);
-        Entity.maxEnergy = config.getInt("maxEnergy");
-        Log.log(Log.Level.NORMAL, "config.maxEnergy: " + Entity.maxEnergy);
+        clearEnergyCost = config.getInt("clearEnergyCost");
+        Log.log(Log.Level.NORMAL, "config.clearEnergyCost: " + clearEnergyCost);
+        disableDuration = config.getInt("disableDuration");
+        Log.log(Log.Level.NORMAL, "config.disableDuration: " + disableDuration);
+        maxEnergy = config.getInt("maxEnergy");
+        Log.log(Log.Level.NORMAL, "config.maxEnergy: " + maxEnergy);
 
         var blockTypeBounds = config.getJSONArray("blockTypes");
-        var numberOfBlockTypes = RNG.betweenClosed(blockTypeBounds.getInt(0), blockTypeBounds.getInt(1));
+        var numberOfBlockTypes = mapRng.betweenClosed(blockTypeBounds.getInt(0), blockTypeBounds.getInt(1));
         Log.log(Log.Level.NORMAL, "config.blockTypes: " + blockTypeBounds + " -> " + numberOfBlockTypes);
         for (int i = 0; i < numberOfBlockTypes; i++) {
             blockTypes.add("b" + i);
@@ -133,14 +168,12 @@ class GameState {
         eventCreatePerimeter = eventConfig.getInt("perimeter");
         Log.log(Log.Level.NORMAL, "config.events.perimeter: " + eventCreatePerimeter);
 
-        // set config values
-        Task.setLowerRewardLimit(lowerRewardLimit);
-
         // create teams
         matchTeams.forEach(team -> teams.put(team.getName(), new Team(team.getName())));
 
         // create grid environment
-        grid = new Grid(config.getJSONObject("grid"), attachLimit, distanceToTaskboards);
+        grid = new Grid(config.getJSONObject("grid"), attachLimit, distanceToTaskboards, mapRng);
+        geometry = grid.getGeometry();
 
         // create entities
         var entities = config.getJSONObject("entities");
@@ -150,10 +183,10 @@ class GameState {
             var numberOfAgents = entities.getInt(it.next());
             List<Integer> agentsRange = IntStream.rangeClosed(0, numberOfAgents-1).boxed().collect(Collectors.toList());
             while (!agentsRange.isEmpty()) {
-                int clusterSize = Math.min(RNG.betweenClosed(clusterSizeMin, clusterSizeMax), agentsRange.size());
+                int clusterSize = Math.min(mapRng.betweenClosed(clusterSizeMin, clusterSizeMax), agentsRange.size());
                 ArrayList<Position> cluster = grid.findRandomFreeClusterPosition(clusterSize);
                 for (Position p : cluster) {
-                    int index = agentsRange.remove(RNG.nextInt(agentsRange.size()));
+                    int index = agentsRange.remove(mapRng.nextInt(agentsRange.size()));
                     for (TeamConfig team: matchTeams) {
                         createEntity(p, team.getAgentNames().get(index), team.getName());
                     }
@@ -166,7 +199,7 @@ class GameState {
 
         // create env. things
         for (var block : blockTypes) {
-            var numberOfDispensers = RNG.betweenClosed(dispenserBounds.getInt(0), dispenserBounds.getInt(1));
+            var numberOfDispensers = mapRng.betweenClosed(dispenserBounds.getInt(0), dispenserBounds.getInt(1));
             for (var i = 0; i < numberOfDispensers; i++) {
                 createDispenser(grid.findRandomFreePosition(), block);
             }
@@ -317,8 +350,9 @@ class GameState {
         agentCausedClearMarkers.clear();
 
         //handle tasks
-        if (RNG.nextDouble() < pNewTask) {
-            createTask(RNG.betweenClosed(taskDurationMin, taskDurationMax), RNG.betweenClosed(taskSizeMin, taskSizeMax));
+        if (taskRng.nextDouble() < pNewTask) {
+            createTask(taskRng.betweenClosed(taskDurationMin, taskDurationMax),
+                    taskRng.betweenClosed(taskSizeMin, taskSizeMax));
         }
 
         //handle entities
@@ -328,9 +362,9 @@ class GameState {
         tasks.values().forEach(Task::preStep);
 
         //handle (map) events
-        if (RNG.nextInt(100) < eventChance) {
-            clearEvents.add(new ClearEvent(grid.getRandomPosition(), step + eventWarning,
-                    RNG.betweenClosed(eventRadiusMin, eventRadiusMax)));
+        if (eventRng.nextInt(100) < eventChance) {
+            clearEvents.add(new ClearEvent(grid.getRandomPosition(eventRng), step + eventWarning,
+                    eventRng.betweenClosed(eventRadiusMin, eventRadiusMax)));
         }
         var processedEvents = new HashSet<ClearEvent>();
         for (ClearEvent event: clearEvents) {
@@ -340,8 +374,8 @@ class GameState {
             }
             else {
                 var type = event.getStep() - step <= 2? Marker.Type.CLEAR_IMMEDIATE : Marker.Type.CLEAR;
-                var clearArea = event.getPosition().spanArea(event.getRadius());
-                var clearPerimeter = event.getPosition().spanArea(event.getRadius() + eventCreatePerimeter);
+                var clearArea = geometry.spanArea(event.getPosition(), event.getRadius());
+                var clearPerimeter = geometry.spanArea(event.getPosition(), event.getRadius() + eventCreatePerimeter);
                 clearPerimeter.removeAll(clearArea);
                 for (Position pos: clearArea) grid.createMarker(pos, type);
                 for (Position pos: clearPerimeter) grid.createMarker(pos, Marker.Type.CLEAR_PERIMETER);
@@ -354,53 +388,213 @@ class GameState {
 
     private void processEvent(ClearEvent event) {
         var removed = clearArea(event.getPosition(), event.getRadius());
-        var distributeNew = RNG.betweenClosed(eventCreateMin, eventCreateMax) + removed;
+        var distributeNew = eventRng.betweenClosed(eventCreateMin, eventCreateMax) + removed;
 
         for (var i = 0; i < distributeNew; i++) {
-            var pos = grid.findRandomFreePosition(event.getPosition(),eventCreatePerimeter + event.getRadius());
-            if(pos != null && grid.getTerrain(pos) == Terrain.EMPTY
-                    && dispensers.get(pos) == null && !grid.outOfBounds(pos)) {
+            var pos = grid.findRandomFreePosition(event.getPosition(),eventCreatePerimeter + event.getRadius(),
+                    eventRng);
+            if(pos != null && grid.isFree(pos) && dispensers.get(pos) == null && !grid.outOfBounds(pos)) {
                 grid.setTerrain(pos, Terrain.OBSTACLE);
             }
         }
     }
 
+    /**
+     * Sets the number of threads used to build the step percepts. Building a percept only reads the game state,
+     * so the percepts are the same as if they were built sequentially.
+     * @param threads the number of threads to use (1 or less for building them on the simulation thread)
+     */
+    void setPerceptThreads(int threads) {
+        if (perceptExecutor != null) perceptExecutor.shutdown();
+        perceptExecutor = null;
+        if (threads > 1) {
+            perceptExecutor = Executors.newFixedThreadPool(threads, r -> {
+                var t = new Thread(r, "percepts");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Releases resources that are only needed while the simulation is running.
+     */
+    void close() {
+        setPerceptThreads(1);
+    }
+
     Map<String, RequestActionMessage> getStepPercepts(){
+        var allTasks = getTaskPercepts();
+        var tasksJSON = new JSONArray();
+        allTasks.forEach(t -> tasksJSON.put(t.toJSON()));
+        var entities = new ArrayList<>(entityToAgent.keySet());
+        var percepts = new StepPercept[entities.size()];
+        var caches = new PerceptCache[entities.size()];
+        for (var i = 0; i < entities.size(); i++)
+            caches[i] = perceptCaches.computeIfAbsent(entities.get(i), e -> new PerceptCache());
+        var reuse = grid.getDirtyCellCount() <= MAX_DIRTY_SHARE * grid.getDimX() * grid.getDimY();
+        perceptGeneration++;
+        if (perceptExecutor == null) {
+            for (var i = 0; i < entities.size(); i++)
+                percepts[i] = buildStepPercept(entities.get(i), allTasks, caches[i], reuse);
+        }
+        else {
+            var jobs = new ArrayList<Callable<StepPercept>>(entities.size());
+            for (var i = 0; i < entities.size(); i++) {
+                var entity = entities.get(i);
+                var cache = caches[i];
+                jobs.add(() -> buildStepPercept(entity, allTasks, cache, reuse));
+            }
+            try {
+                var futures = perceptExecutor.invokeAll(jobs);
+                for (var i = 0; i < futures.size(); i++) percepts[i] = futures.get(i).get();
+            } catch (InterruptedException | ExecutionException e) {
+                Log.log(Log.Level.ERROR, "Parallel percept generation failed, building percepts sequentially.");
+                for (var i = 0; i < entities.size(); i++)
+                    percepts[i] = buildStepPercept(entities.get(i), allTasks, caches[i], false);
+            }
+        }
+        grid.clearDirtyCells();
         Map<String, RequestActionMessage> result = new HashMap<>();
-        var allTasks = tasks.values().stream()
+        for (var i = 0; i < entities.size(); i++) {
+            percepts[i].setTasksJSON(tasksJSON);
+            result.put(entities.get(i).getAgentName(), percepts[i]);
+        }
+        return result;
+    }
+
+    private Set<TaskInfo> getTaskPercepts() {
+        return tasks.values().stream()
                 .filter(t -> !t.isCompleted())
                 .map(Task::toPercept)
                 .collect(Collectors.toSet());
-        for (Entity entity : entityToAgent.keySet()) {
-            var pos = entity.getPosition();
-            var visibleThings = new HashSet<Thing>();
-            Map<String, Set<Position>> visibleTerrain = new HashMap<>();
-            Set<Position> attachedThings = new HashSet<>();
-            for (Position currentPos: pos.spanArea(entity.getVision())){
-                getThingsAt(currentPos).forEach(go -> {
-                    visibleThings.add(go.toPercept(pos));
-                    if (go != entity && go instanceof Attachable && ((Attachable)go).isAttachedToAnotherEntity()){
-                        attachedThings.add(go.getPosition().relativeTo(pos));
-                    }
-                });
-                var d = dispensers.get(currentPos);
-                if (d != null) visibleThings.add(d.toPercept(pos));
-                var tb = taskboards.get(currentPos);
-                if (tb != null) visibleThings.add(tb.toPercept(pos));
-                var terrain = grid.getTerrain(currentPos);
-                if (terrain != Terrain.EMPTY) {
-                    visibleTerrain.computeIfAbsent(terrain.name,
-                            t -> new HashSet<>()).add(currentPos.relativeTo(pos));
+    }
+
+    /**
+     * Builds the step percept of an agent from scratch, without using or changing its percept cache
+     * (to check the percepts returned by {@link #getStepPercepts()}).
+     */
+    StepPercept buildFullStepPercept(String agent) {
+        return buildStepPercept(agentToEntity.get(agent), getTaskPercepts(), new PerceptCache(), false);
+    }
+
+    /**
+     * Runs jobs that only read the game state on the percept threads (or one after another if there are none).
+     * @return the results in the order of the jobs
+     */
+    <T> List<T> readInParallel(List<Callable<T>> jobs) {
+        var results = new ArrayList<T>(jobs.size());
+        if (perceptExecutor != null) {
+            try {
+                for (var future : perceptExecutor.invokeAll(jobs)) results.add(future.get());
+                return results;
+            } catch (InterruptedException | ExecutionException e) {
+                Log.log(Log.Level.ERROR, "Parallel execution failed, running jobs sequentially.");
+                results.clear();
+            }
+        }
+        for (var job : jobs) {
+            try {
+                results.add(job.call());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return a short description of each entity's action result, position and attachments by agent name
+     * (to compare the outcomes of different ways to execute the same actions)
+     */
+    Map<String, String> describeEntities() {
+        var descriptions = new HashMap<String, String>();
+        agentToEntity.forEach((agent, entity) -> {
+            var attached = entity.getConnected().stream()
+                    .map(a -> a.getPosition().toString())
+                    .sorted()
+                    .collect(Collectors.joining(","));
+            descriptions.put(agent, entity.getLastActionResult() + " " + entity.getPosition()
+                    + " " + entity.getEnergy() + " [" + attached + "]");
+        });
+        return descriptions;
+    }
+
+    /**
+     * Creates the step percept of a single entity. Must not modify the game state (except for the entity's cache).
+     * If reuse is allowed, the percept contents of cells that did not change since the entity's previous percept
+     * are taken from its cache (as they are if the entity did not move, otherwise translated by its move).
+     */
+    private StepPercept buildStepPercept(Entity entity, Set<TaskInfo> allTasks, PerceptCache cache, boolean reuse) {
+        var pos = entity.getPosition();
+        var vision = entity.getVision();
+        var move = cache.generation == perceptGeneration - 1? geometry.relativeTo(pos, cache.center) : null;
+        var previousCells = reuse && cache.generation == perceptGeneration - 1 && cache.vision == vision
+                && 2 * vision < grid.getDimX() && 2 * vision < grid.getDimY()? cache.cells : null;
+        var shift = previousCells != null? move : Position.of(0, 0);
+        if (Math.abs(shift.x) + Math.abs(shift.y) > MAX_PERCEPT_SHIFT) previousCells = null;
+        var reusableCells = previousCells;
+        var moved = shift.x != 0 || shift.y != 0;
+
+        var area = grid.getAreaOffsets(vision);
+        var cells = cache.nextCells(area.size());
+        var visibleThings = new HashSet<Thing>();
+        Map<String, Set<Position>> visibleTerrain = new HashMap<>();
+        Set<Position> attachedThings = new HashSet<>();
+        grid.forEachCellInArea(pos, vision, (i, x, y, relativePos) -> {
+            PerceptCache.Cell cell = null;
+            if (reusableCells != null && !grid.isDirty(x, y)) {
+                var previousIndex = moved? area.indexOf(relativePos.x + shift.x, relativePos.y + shift.y) : i;
+                if (previousIndex >= 0) {
+                    cell = reusableCells[previousIndex];
+                    if (moved) cell = cell.movedTo(relativePos);
+                }
+            }
+            if (cell == null) cell = readCell(x, y, relativePos, entity);
+            cells[i] = cell;
+            if (cell == PerceptCache.Cell.EMPTY) return;
+
+            Collections.addAll(visibleThings, cell.things);
+            for (var attachable : cell.attachables) {
+                if (attachable.isAttachedToAnotherEntity()) {
+                    attachedThings.add(relativePos);
+                    break;
                 }
             }
-            var percept = new StepPercept(step, teams.get(entity.getTeamName()).getScore(),
-                    visibleThings, visibleTerrain, allTasks, entity.getLastAction(), entity.getLastActionParams(),
-                    entity.getLastActionResult(), attachedThings, entity.getTask());
-            percept.energy = entity.getEnergy();
-            percept.disabled = entity.isDisabled();
-            result.put(entity.getAgentName(), percept);
+            if (cell.terrain != null) visibleTerrain.computeIfAbsent(cell.terrain, t -> new HashSet<>()).add(relativePos);
+        });
+        cache.update(pos, vision, perceptGeneration, cells);
+        var percept = new StepPercept(step, teams.get(entity.getTeamName()).getScore(),
+                visibleThings, visibleTerrain, allTasks, entity.getLastAction(), entity.getLastActionParams(),
+                entity.getLastActionResult(), attachedThings, entity.getTask());
+        percept.energy = entity.getEnergy();
+        percept.disabled = entity.isDisabled();
+        percept.setMove(move);
+        return percept;
+    }
+
+    /**
+     * @return the percept contents of the cell as seen by the entity
+     */
+    private PerceptCache.Cell readCell(int x, int y, Position relativePos, Entity entity) {
+        var things = grid.getThingsView(x, y);
+        var currentPos = geometry.of(x, y);
+        var dispenser = dispensers.get(currentPos);
+        var taskboard = taskboards.get(currentPos);
+        var terrain = grid.getTerrain(x, y);
+        if (things.isEmpty() && dispenser == null && taskboard == null && terrain == Terrain.EMPTY)
+            return PerceptCache.Cell.EMPTY;
+
+        var percepts = new ArrayList<Thing>(things.size() + 2);
+        var attachables = new ArrayList<Attachable>();
+        for (Positionable go : things) {
+            percepts.add(go.toPercept(relativePos));
+            if (go != entity && go instanceof Attachable) attachables.add((Attachable) go);
         }
-        return result;
+        if (dispenser != null) percepts.add(dispenser.toPercept(relativePos));
+        if (taskboard != null) percepts.add(taskboard.toPercept(relativePos));
+        return new PerceptCache.Cell(percepts.toArray(new Thing[0]), attachables.toArray(new Attachable[0]),
+                terrain != Terrain.EMPTY? terrain.name : null);
     }
 
     Map<String, SimEndMessage> getFinalPercepts() {
@@ -418,22 +612,22 @@ class GameState {
         return result;
     }
 
-    String handleMoveAction(Entity entity, String direction) {
+    String handleMoveAction(Entity entity, Direction direction) {
         if (grid.moveWithAttached(entity, direction, 1)) {
             return Actions.RESULT_SUCCESS;
         }
         return Actions.RESULT_F_PATH;
     }
 
-    String handleRotateAction(Entity entity, boolean clockwise) {
-        if (grid.rotateWithAttached(entity, clockwise)) {
+    String handleRotateAction(Entity entity, Rotation rotation) {
+        if (grid.rotateWithAttached(entity, rotation.isClockwise())) {
             return Actions.RESULT_SUCCESS;
         }
         return Actions.RESULT_F;
     }
 
-    String handleAttachAction(Entity entity, String direction) {
-        Position target = entity.getPosition().moved(direction, 1);
+    String handleAttachAction(Entity entity, Direction direction) {
+        Position target = direction.from(geometry, entity.getPosition(), 1);
         Attachable a = getUniqueAttachable(target);
         if (a == null) return Actions.RESULT_F_TARGET;
         if (a instanceof Entity && ofDifferentTeams(entity, (Entity) a)) {
@@ -445,8 +639,43 @@ class GameState {
         return Actions.RESULT_F;
     }
 
-    String handleDetachAction(Entity entity, String direction) {
-        Position target = entity.getPosition().moved(direction, 1);
+    /**
+     * Computes the outcome of {@link #handleMoveAction(Entity, Direction)} without changing the game state.
+     */
+    ActionPlan planMoveAction(Entity entity, Direction direction) {
+        var movement = grid.planMove(entity, direction, 1);
+        if (!movement.isPossible()) return new ActionPlan(Actions.RESULT_F_PATH, null, movement.getReadCells(), entity);
+        return new ActionPlan(Actions.RESULT_SUCCESS, () -> grid.apply(movement), movement.getReadCells(), entity);
+    }
+
+    /**
+     * Computes the outcome of {@link #handleRotateAction(Entity, Rotation)} without changing the game state.
+     */
+    ActionPlan planRotateAction(Entity entity, Rotation rotation) {
+        var movement = grid.planRotation(entity, rotation.isClockwise());
+        if (!movement.isPossible()) return new ActionPlan(Actions.RESULT_F, null, movement.getReadCells(), entity);
+        return new ActionPlan(Actions.RESULT_SUCCESS, () -> grid.apply(movement), movement.getReadCells(), entity);
+    }
+
+    /**
+     * Computes the outcome of {@link #handleAttachAction(Entity, Direction)} without changing the game state.
+     */
+    ActionPlan planAttachAction(Entity entity, Direction direction) {
+        Position target = direction.from(geometry, entity.getPosition(), 1);
+        var readCells = List.of(entity.getPosition(), target);
+        Attachable a = getUniqueAttachable(target);
+        if (a == null) return new ActionPlan(Actions.RESULT_F_TARGET, null, readCells, entity);
+        if (a instanceof Entity && ofDifferentTeams(entity, (Entity) a)) {
+            return new ActionPlan(Actions.RESULT_F_TARGET, null, readCells, entity);
+        }
+        if (!attachedToOpponent(a, entity) && grid.canAttach(entity, a)) {
+            return new ActionPlan(Actions.RESULT_SUCCESS, () -> grid.attach(entity, a), readCells, entity, a);
+        }
+        return new ActionPlan(Actions.RESULT_F, null, readCells, entity, a);
+    }
+
+    String handleDetachAction(Entity entity, Direction direction) {
+        Position target = direction.from(geometry, entity.getPosition(), 1);
         Attachable a = getUniqueAttachable(target);
         if (a == null) return Actions.RESULT_F_TARGET;
         if (a instanceof Entity && ofDifferentTeams(entity, (Entity) a)) {
@@ -459,30 +688,27 @@ class GameState {
     }
 
     String handleDisconnectAction(Entity entity, Position attPos1, Position attPos2) {
-        var attachable1 = getUniqueAttachable(attPos1.translate(entity.getPosition()));
-        var attachable2 = getUniqueAttachable(attPos2.translate(entity.getPosition()));
+        var attachable1 = getUniqueAttachable(geometry.translate(attPos1, entity.getPosition()));
+        var attachable2 = getUniqueAttachable(geometry.translate(attPos2, entity.getPosition()));
         if (attachable1 == null || attachable2 == null) return Actions.RESULT_F_TARGET;
-        var allAttachments = entity.collectAllAttachments();
-        if (!allAttachments.contains(attachable1) || !allAttachments.contains(attachable2))
+        if (!entity.isConnected(attachable1) || !entity.isConnected(attachable2))
             return Actions.RESULT_F_TARGET;
         if (grid.detachNeighbors(attachable1, attachable2)) return Actions.RESULT_SUCCESS;
         return Actions.RESULT_F_TARGET;
     }
 
     String handleConnectAction(Entity entity, Position blockPos, Entity partnerEntity, Position partnerBlockPos) {
-        Attachable block1 = getUniqueAttachable(blockPos.translate(entity.getPosition()));
-        Attachable block2 = getUniqueAttachable(partnerBlockPos.translate(partnerEntity.getPosition()));
+        Attachable block1 = getUniqueAttachable(geometry.translate(blockPos, entity.getPosition()));
+        Attachable block2 = getUniqueAttachable(geometry.translate(partnerBlockPos, partnerEntity.getPosition()));
 
         if(!(block1 instanceof Block) || !(block2 instanceof Block)) return Actions.RESULT_F_TARGET;
 
-        Set<Attachable> attachables = entity.collectAllAttachments();
-        if (attachables.contains(partnerEntity)) return Actions.RESULT_F;
-        if (!attachables.contains(block1)) return Actions.RESULT_F_TARGET;
-        if (attachables.contains(block2)) return Actions.RESULT_F_TARGET;
+        if (entity.isConnected(partnerEntity)) return Actions.RESULT_F;
+        if (!entity.isConnected(block1)) return Actions.RESULT_F_TARGET;
+        if (entity.isConnected(block2)) return Actions.RESULT_F_TARGET;
 
-        Set<Attachable> partnerAttachables = partnerEntity.collectAllAttachments();
-        if (!partnerAttachables.contains(block2)) return Actions.RESULT_F_TARGET;
-        if (partnerAttachables.contains(block1)) return Actions.RESULT_F_TARGET;
+        if (!partnerEntity.isConnected(block2)) return Actions.RESULT_F_TARGET;
+        if (partnerEntity.isConnected(block1)) return Actions.RESULT_F_TARGET;
 
         if(grid.attach(block1, block2)){
             return Actions.RESULT_SUCCESS;
@@ -490,8 +716,8 @@ class GameState {
         return Actions.RESULT_F;
     }
 
-    String handleRequestAction(Entity entity, String direction) {
-        var requestPosition = entity.getPosition().moved(direction, 1);
+    String handleRequestAction(Entity entity, Direction direction) {
+        var requestPosition = direction.from(geometry, entity.getPosition(), 1);
         var dispenser = dispensers.get(requestPosition);
         if (dispenser == null) return Actions.RESULT_F_TARGET;
         if (!grid.isUnblocked(requestPosition)) return Actions.RESULT_F_BLOCKED;
@@ -505,21 +731,20 @@ class GameState {
             return Actions.RESULT_F_TARGET;
         Position ePos = e.getPosition();
         if (grid.getTerrain(ePos) != Terrain.GOAL) return Actions.RESULT_F;
-        Set<Attachable> attachedBlocks = e.collectAllAttachments();
         for (Map.Entry<Position, String> entry : task.getRequirements().entrySet()) {
             var pos = entry.getKey();
             var reqType = entry.getValue();
-            var checkPos = Position.wrapped(pos.x + ePos.x, pos.y + ePos.y);
+            var checkPos = geometry.wrapped(pos.x + ePos.x, pos.y + ePos.y);
             var actualBlock = getUniqueAttachable(checkPos);
             if (actualBlock instanceof Block
                 && ((Block) actualBlock).getBlockType().equals(reqType)
-                && attachedBlocks.contains(actualBlock)) {
+                && e.isConnected(actualBlock)) {
                 continue;
             }
             return Actions.RESULT_F;
         }
         task.getRequirements().keySet().forEach(pos -> {
-            Attachable a = getUniqueAttachable(pos.translate(e.getPosition()));
+            Attachable a = getUniqueAttachable(geometry.translate(pos, e.getPosition()));
             removeObjectFromGame(a);
         });
         teams.get(e.getTeamName()).addScore(task.getReward());
@@ -540,9 +765,9 @@ class GameState {
      * @return action result
      */
     String handleClearAction(Entity entity, Position xy) {
-        var target = xy.translate(entity.getPosition());
-        if (target.distanceTo(entity.getPosition()) > entity.getVision()) return Actions.RESULT_F_TARGET;
-        if (entity.getEnergy() < Entity.clearEnergyCost) return Actions.RESULT_F_RESOURCES;
+        var target = geometry.translate(xy, entity.getPosition());
+        if (geometry.distance(target, entity.getPosition()) > entity.getVision()) return Actions.RESULT_F_TARGET;
+        if (entity.getEnergy() < clearEnergyCost) return Actions.RESULT_F_RESOURCES;
 
         var previousPos = entity.getPreviousClearPosition();
         if(entity.getPreviousClearStep() != step - 1 || previousPos.x != target.x || previousPos.y != target.y) {
@@ -551,11 +776,11 @@ class GameState {
         var counter = entity.incrementClearCounter();
         if (counter == clearSteps) {
             clearArea(target, 1);
-            entity.consumeClearEnergy();
+            entity.consumeEnergy(clearEnergyCost);
             entity.resetClearCounter();
         }
         else {
-            agentCausedClearMarkers.addAll(target.spanArea(1));
+            agentCausedClearMarkers.addAll(geometry.spanArea(target, 1));
         }
         entity.recordClearAction(step, target);
         return Actions.RESULT_SUCCESS;
@@ -569,7 +794,7 @@ class GameState {
         var nearTaskboard = false;
         var pos = entity.getPosition();
         for (var tb: taskboards.values()) {
-            if (tb.getPosition().distanceTo(pos) <= 2) {
+            if (geometry.distance(tb.getPosition(), pos) <= 2) {
                 nearTaskboard = true;
                 break;
             }
@@ -582,10 +807,10 @@ class GameState {
 
     int clearArea(Position center, int radius) {
         var removed = 0;
-        for (var position : center.spanArea(radius)) {
+        for (var position : geometry.spanArea(center, radius)) {
             for (var go : getThingsAt(position)) {
                 if (go instanceof Entity) {
-                    ((Entity)go).disable();
+                    ((Entity)go).disable(disableDuration);
                 }
                 else if (go instanceof Block) {
                     removed++;
@@ -607,10 +832,10 @@ class GameState {
         var requirements = new HashMap<Position, String>();
         var blockList = new ArrayList<>(blockTypes);
         Position lastPosition = Position.of(0, 1);
-        requirements.put(lastPosition, blockList.get(RNG.nextInt(blockList.size())));
+        requirements.put(lastPosition, blockList.get(taskRng.nextInt(blockList.size())));
         for (int i = 0; i < size - 1; i++) {
-            int index = RNG.nextInt(blockTypes.size());
-            double direction = RNG.nextDouble();
+            int index = taskRng.nextInt(blockTypes.size());
+            double direction = taskRng.nextDouble();
             if (direction <= .3) {
                 lastPosition = Position.of(lastPosition.x - 1, lastPosition.y);
             }
@@ -622,14 +847,16 @@ class GameState {
             }
             requirements.put(lastPosition, blockList.get(index));
         }
-        Task t = new Task(name, step + duration, requirements, RNG.betweenClosed(this.taskRewardDecayMin, this.taskRewardDecayMax));
+        Task t = new Task(name, step + duration, requirements,
+                taskRng.betweenClosed(this.taskRewardDecayMin, this.taskRewardDecayMax), lowerRewardLimit);
         tasks.put(t.getName(), t);
         return t;
     }
 
     Task createTask(String name, int duration, Map<Position, String> requirements) {
         if (requirements.size() == 0) return null;
-        Task t = new Task(name, step + duration, requirements, RNG.betweenClosed(this.taskRewardDecayMin, this.taskRewardDecayMax));
+        Task t = new Task(name, step + duration, requirements,
+                taskRng.betweenClosed(this.taskRewardDecayMin, this.taskRewardDecayMax), lowerRewardLimit);
         tasks.put(t.getName(), t);
         return t;
     }
@@ -641,7 +868,7 @@ class GameState {
     }
 
     private Entity createEntity(Position xy, String name, String teamName) {
-        Entity e = grid.createEntity(xy, name, teamName);
+        Entity e = grid.createEntity(xy, name, teamName, maxEnergy);
         registerGameObject(e);
         agentToEntity.put(name, e);
         entityToAgent.put(e, name);
@@ -659,9 +886,10 @@ class GameState {
         if (!blockTypes.contains(blockType)) return false;
         if (!grid.isUnblocked(xy)) return false;
         if (dispensers.get(xy) != null) return false;
-        Dispenser d = new Dispenser(xy, blockType);
+        Dispenser d = new Dispenser(grid.nextObjectId(), xy, blockType);
         registerGameObject(d);
         dispensers.put(xy, d);
+        grid.markDirty(xy);
         Log.log(Log.Level.NORMAL, "Created " + d);
         return true;
     }
@@ -669,9 +897,10 @@ class GameState {
     boolean createTaskboard(Position xy) {
         if (!grid.isUnblocked(xy)) return false;
         if (taskboards.get(xy) != null) return false;
-        TaskBoard tb = new TaskBoard(xy);
+        TaskBoard tb = new TaskBoard(grid.nextObjectId(), xy);
         registerGameObject(tb);
         taskboards.put(xy, tb);
+        grid.markDirty(xy);
         Log.log(Log.Level.NORMAL, "Created " + tb);
         return true;
     }
@@ -688,7 +917,7 @@ class GameState {
     }
 
     private Set<Attachable> getAttachables(Position position) {
-        return getThingsAt(position).stream()
+        return grid.getThingsView(position).stream()
                 .filter(go -> go instanceof Attachable)
                 .map(go -> (Attachable)go)
                 .collect(Collectors.toSet());
@@ -699,7 +928,7 @@ class GameState {
     }
 
     private boolean attachedToOpponent(Attachable a, Entity entity) {
-        return a.collectAllAttachments().stream().anyMatch(other -> other instanceof Entity && ofDifferentTeams((Entity) other, entity));
+        return a.getConnected().stream().anyMatch(other -> other instanceof Entity && ofDifferentTeams((Entity) other, entity));
     }
 
     private boolean ofDifferentTeams(Entity e1, Entity e2) {
@@ -707,22 +936,39 @@ class GameState {
     }
 
     JSONObject takeStatusSnapshot() {
-        JSONObject snapshot = new JSONObject();
-        snapshot.put("step", step);
-        JSONArray entityArr = new JSONArray();
-        snapshot.put("entities", entityArr);
+        JSONObject snapshot = newStatusSnapshot();
+        JSONArray entityArr = snapshot.getJSONArray("entities");
         for (Entity o : agentToEntity.values()) {
-            JSONObject obj = new JSONObject();
-            obj.put("name", o.getAgentName());
-            obj.put("team", o.getTeamName());
-            obj.put("action", Actions.ALL_ACTIONS.contains(o.getLastAction()) ? "HIDDEN" : o.getLastAction());
-            obj.put("actionResult", o.getLastActionResult());
-            entityArr.put(obj);
+            entityArr.put(entityStatusToJSON(o));
         }
         return snapshot;
     }
 
-    JSONObject takeSnapshot() {
+    /**
+     * @return a status snapshot without entities (they are added by the world snapshots, see
+     * {@link #takeSnapshot(JSONObject)})
+     */
+    JSONObject newStatusSnapshot() {
+        JSONObject snapshot = new JSONObject();
+        snapshot.put("step", step);
+        snapshot.put("entities", new JSONArray());
+        return snapshot;
+    }
+
+    private JSONObject entityStatusToJSON(Entity o) {
+        JSONObject obj = new JSONObject();
+        obj.put("name", o.getAgentName());
+        obj.put("team", o.getTeamName());
+        obj.put("action", Actions.ALL_ACTIONS.contains(o.getLastAction()) ? "HIDDEN" : o.getLastAction());
+        obj.put("actionResult", o.getLastActionResult());
+        return obj;
+    }
+
+    /**
+     * Takes a complete snapshot of the world and starts tracking changes for {@link #takeSnapshotDelta(JSONObject)}.
+     * @param status a snapshot from {@link #newStatusSnapshot()} to add the entities to in the same pass, or null
+     */
+    JSONObject takeSnapshot(JSONObject status) {
         JSONObject snapshot = new JSONObject();
         snapshot.put("step", step);
         JSONArray entities = new JSONArray();
@@ -733,60 +979,128 @@ class GameState {
         snapshot.put("dispensers", dispensers);
         JSONArray taskboardsArr = new JSONArray();
         snapshot.put("taskboards", taskboardsArr);
-        JSONArray taskArr = new JSONArray();
-        snapshot.put("tasks", taskArr);
+        snapshot.put("tasks", tasksToJSON());
         JSONArray cells = new JSONArray();
         snapshot.put("cells", cells);
-        JSONArray clear = new JSONArray();
-        snapshot.put("clear", clear);
-        JSONObject scores = new JSONObject();
-        snapshot.put("scores", scores);
+        snapshot.put("clear", clearEventsToJSON());
+        snapshot.put("scores", scoresToJSON());
         for (int y = 0; y < grid.getDimY(); y++) {
             JSONArray row = new JSONArray();
             for (int x = 0; x < grid.getDimX(); x++) {
-                row.put(grid.getTerrain(Position.of(x, y)).id);
+                row.put(grid.getTerrain(x, y).id);
             }
             cells.put(row);
         }
+        snapshotObjects = new HashSet<>();
+        snapshotAttached = new HashSet<>();
         for (GameObject o : gameObjects.values()) {
-            JSONObject obj = new JSONObject();
-            if (o instanceof Positionable) {
-                obj.put("x", ((Positionable) o).getPosition().x);
-                obj.put("y", ((Positionable) o).getPosition().y);
+            snapshotObjects.add(o.getID());
+            if (o instanceof Attachable && ((Attachable) o).hasAttachments()) snapshotAttached.add(o.getID());
+            putObject(snapshot, o, status);
+        }
+        snapshot.put("events", logEvents);
+        grid.clearSnapshotChanges();
+        return snapshot;
+    }
+
+    /**
+     * Takes a snapshot of what changed since the previous snapshot (or a complete one if there was none):
+     * <ul>
+     *     <li>"cells": the changed terrain as [x, y, terrain] triples</li>
+     *     <li>"entities", "blocks", "dispensers", "taskboards": objects that were created or changed
+     *     (entities are always included)</li>
+     *     <li>"removed": the ids of all objects that were removed</li>
+     *     <li>"tasks", "clear", "scores" and "events" as in complete snapshots</li>
+     * </ul>
+     * Deltas have "delta": true and can be applied with massim.monitor.SnapshotDelta.
+     * @param status a snapshot from {@link #newStatusSnapshot()} to add the entities to in the same pass, or null
+     */
+    JSONObject takeSnapshotDelta(JSONObject status) {
+        if (snapshotObjects == null) return takeSnapshot(status);
+        JSONObject snapshot = new JSONObject();
+        snapshot.put("step", step);
+        snapshot.put("delta", true);
+        snapshot.put("entities", new JSONArray());
+        snapshot.put("blocks", new JSONArray());
+        snapshot.put("dispensers", new JSONArray());
+        snapshot.put("taskboards", new JSONArray());
+        snapshot.put("tasks", tasksToJSON());
+        JSONArray cells = new JSONArray();
+        snapshot.put("cells", cells);
+        snapshot.put("clear", clearEventsToJSON());
+        snapshot.put("scores", scoresToJSON());
+        for (Position pos : grid.getTerrainChangesSinceSnapshot()) {
+            cells.put(new JSONArray().put(pos.x).put(pos.y).put(grid.getTerrain(pos).id));
+        }
+        var removed = new HashSet<>(snapshotObjects);
+        var attached = new HashSet<Integer>();
+        for (GameObject o : gameObjects.values()) {
+            var id = o.getID();
+            var known = removed.remove(id);
+            var hasAttachments = o instanceof Attachable && ((Attachable) o).hasAttachments();
+            if (hasAttachments) attached.add(id);
+            // attachments of an object can change without it or anything in its cell being moved
+            if (!known || o instanceof Entity || hasAttachments || snapshotAttached.contains(id)
+                    || (o instanceof Positionable && grid.changedSinceSnapshot(((Positionable) o).getPosition()))) {
+                putObject(snapshot, o, status);
             }
-            if (o instanceof Attachable) {
-                JSONArray arr = new JSONArray();
-                ((Attachable) o).collectAllAttachments().stream().filter(a -> a != o).forEach(a -> {
+        }
+        snapshot.put("removed", new JSONArray(removed));
+        snapshotObjects.removeAll(removed);
+        gameObjects.keySet().forEach(snapshotObjects::add);
+        snapshotAttached = attached;
+        snapshot.put("events", logEvents);
+        grid.clearSnapshotChanges();
+        return snapshot;
+    }
+
+    /**
+     * Adds the object to the snapshot array of its kind (and entities to the status snapshot if there is one).
+     */
+    private void putObject(JSONObject snapshot, GameObject o, JSONObject status) {
+        JSONObject obj = new JSONObject();
+        if (o instanceof Positionable) {
+            obj.put("x", ((Positionable) o).getPosition().x);
+            obj.put("y", ((Positionable) o).getPosition().y);
+        }
+        if (o instanceof Attachable) {
+            JSONArray arr = new JSONArray();
+            if (((Attachable) o).hasAttachments()) {
+                ((Attachable) o).getConnected().stream().filter(a -> a != o).forEach(a -> {
                     JSONObject pos = new JSONObject();
                     pos.put("x", a.getPosition().x);
                     pos.put("y", a.getPosition().y);
                     arr.put(pos);
                 });
-                if (!arr.isEmpty()) obj.put("attached", arr);
-            }
-            if (o instanceof Entity) {
-                obj.put("id", o.getID());
-                obj.put("name", ((Entity) o).getAgentName());
-                obj.put("team", ((Entity) o).getTeamName());
-                obj.put("energy", ((Entity) o).getEnergy());
-                obj.put("vision", ((Entity) o).getVision());
-                obj.put("action", ((Entity) o).getLastAction());
-                obj.put("actionParams", ((Entity) o).getLastActionParams());
-                obj.put("actionResult", ((Entity) o).getLastActionResult());
-                obj.put("acceptedTask", ((Entity) o).getTask());
-                if (((Entity) o).isDisabled()) obj.put("disabled", true);
-                entities.put(obj);
-            } else if (o instanceof Block) {
-                obj.put("type", ((Block) o).getBlockType());
-                blocks.put(obj);
-            } else if (o instanceof Dispenser) {
-                obj.put("id", o.getID());
-                obj.put("type", ((Dispenser) o).getBlockType());
-                dispensers.put(obj);
-            } else if (o instanceof TaskBoard) {
-                taskboardsArr.put(obj);
             }
+            if (!arr.isEmpty()) obj.put("attached", arr);
+        }
+        obj.put("id", o.getID());
+        if (o instanceof Entity) {
+            obj.put("name", ((Entity) o).getAgentName());
+            obj.put("team", ((Entity) o).getTeamName());
+            obj.put("energy", ((Entity) o).getEnergy());
+            obj.put("vision", ((Entity) o).getVision());
+            obj.put("action", ((Entity) o).getLastAction());
+            obj.put("actionParams", ((Entity) o).getLastActionParams());
+            obj.put("actionResult", ((Entity) o).getLastActionResult());
+            obj.put("acceptedTask", ((Entity) o).getTask());
+            if (((Entity) o).isDisabled()) obj.put("disabled", true);
+            snapshot.getJSONArray("entities").put(obj);
+            if (status != null) status.getJSONArray("entities").put(entityStatusToJSON((Entity) o));
+        } else if (o instanceof Block) {
+            obj.put("type", ((Block) o).getBlockType());
+            snapshot.getJSONArray("blocks").put(obj);
+        } else if (o instanceof Dispenser) {
+            obj.put("type", ((Dispenser) o).getBlockType());
+            snapshot.getJSONArray("dispensers").put(obj);
+        } else if (o instanceof TaskBoard) {
+            snapshot.getJSONArray("taskboards").put(obj);
         }
+    }
+
+    private JSONArray clearEventsToJSON() {
+        JSONArray clear = new JSONArray();
         for (ClearEvent e : clearEvents) {
             JSONObject event = new JSONObject();
             event.put("x", e.getPosition().x);
@@ -794,6 +1108,11 @@ class GameState {
             event.put("radius", e.getRadius());
             clear.put(event);
         }
+        return clear;
+    }
+
+    private JSONArray tasksToJSON() {
+        JSONArray taskArr = new JSONArray();
         tasks.values().stream().filter(t -> !t.isCompleted() && step <= t.getDeadline()).sorted(Comparator.comparing(t -> t.getDeadline())).forEach(t -> {
             JSONObject task  = new JSONObject();
             task.put("name", t.getName());
@@ -810,9 +1129,13 @@ class GameState {
             });
             taskArr.put(task);
         });
+        return taskArr;
+    }
+
+    private JSONObject scoresToJSON() {
+        JSONObject scores = new JSONObject();
         teams.values().forEach(t -> scores.put(t.getName(), t.getScore()));
-        snapshot.put("events", logEvents);
-        return snapshot;
+        return scores;
     }
 
     JSONObject getResult() {
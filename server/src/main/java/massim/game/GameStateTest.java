@@ -2,7 +2,10 @@ package massim.game;
 
 import massim.config.TeamConfig;
 import massim.game.environment.Block;
+import massim.game.environment.Direction;
+import massim.game.environment.Rotation;
 import massim.game.environment.Terrain;
+import massim.protocol.data.GridGeometry;
 import massim.protocol.data.Position;
 import massim.protocol.data.Thing;
 import massim.protocol.messages.scenario.Actions;
@@ -64,14 +67,14 @@ public class GameStateTest {
             "    }");
 
     private GameState state;
+    private GridGeometry geometry;
 
     @org.junit.Before
     public void setUp() {
-        RNG.initialize(17);
-
         var team = new TeamConfig("A");
         for (var i = 1; i <= 10; i++) team.addAgent("A" + i, "1");
-        state = new GameState(CONFIG, Set.of(team));
+        state = new GameState(CONFIG, Set.of(team), new RNG(17));
+        geometry = state.getGrid().getGeometry();
     }
 
     @org.junit.Test
@@ -81,21 +84,21 @@ public class GameStateTest {
         Entity a1 = state.getEntityByName("A1");
         assert a1 != null;
         assert state.createDispenser(dispenserPos, blockTypes.iterator().next());
-        assert state.teleport("A1", dispenserPos.moved("s", 2));
+        assert state.teleport("A1", Direction.S.from(geometry, dispenserPos, 2));
 
         // too far away -> fail
-        assert state.handleRequestAction(a1, "n").equals(Actions.RESULT_F_TARGET);
+        assert state.handleRequestAction(a1, Direction.N).equals(Actions.RESULT_F_TARGET);
         //move closer
-        assert state.handleMoveAction(a1, "n").equals(Actions.RESULT_SUCCESS);
+        assert state.handleMoveAction(a1, Direction.N).equals(Actions.RESULT_SUCCESS);
         // wrong param -> fail
-        assert state.handleRequestAction(a1, "w").equals(Actions.RESULT_F_TARGET);
+        assert state.handleRequestAction(a1, Direction.W).equals(Actions.RESULT_F_TARGET);
         // everything correct -> success
-        assert state.handleRequestAction(a1, "n").equals(Actions.RESULT_SUCCESS);
+        assert state.handleRequestAction(a1, Direction.N).equals(Actions.RESULT_SUCCESS);
         // repeat -> fail
-        assert state.handleRequestAction(a1, "n").equals(Actions.RESULT_F_BLOCKED);
+        assert state.handleRequestAction(a1, Direction.N).equals(Actions.RESULT_F_BLOCKED);
         // another try
-        assert state.createDispenser(a1.getPosition().moved("e", 1), blockTypes.iterator().next());
-        assert state.handleRequestAction(a1, "e").equals(Actions.RESULT_SUCCESS);
+        assert state.createDispenser(Direction.E.from(geometry, a1.getPosition(), 1), blockTypes.iterator().next());
+        assert state.handleRequestAction(a1, Direction.E).equals(Actions.RESULT_SUCCESS);
     }
 
     @org.junit.Test
@@ -158,8 +161,8 @@ public class GameStateTest {
         state.attach(a2.getPosition(), block.getPosition());
 
         var percept = new StepPercept(state.getStepPercepts().get("A1").toJson().getJSONObject("content"));
-        assert(percept.attachedThings.contains(a2.getPosition().relativeTo(a1.getPosition())));
-        assert(percept.attachedThings.contains(block.getPosition().relativeTo(a1.getPosition())));
+        assert(percept.attachedThings.contains(geometry.relativeTo(a2.getPosition(), a1.getPosition())));
+        assert(percept.attachedThings.contains(geometry.relativeTo(block.getPosition(), a1.getPosition())));
     }
 
     @org.junit.Test
@@ -203,7 +206,7 @@ public class GameStateTest {
         assert(state.handleClearAction(a1, Position.of(2, 0)).equals(Actions.RESULT_SUCCESS));
         assert(!state.getThingsAt(block.getPosition()).contains(block));
         assert(a2.isDisabled());
-        for (var j = 0; j < Entity.disableDuration; j++) {
+        for (var j = 0; j < state.disableDuration; j++) {
             assert(a2.isDisabled());
             state.prepareStep(i + j);
         }
@@ -228,7 +231,7 @@ public class GameStateTest {
         assert b3.collectAllAttachments().contains(b2);
 
         state.handleDisconnectAction(a1,
-                b2.getPosition().relativeTo(a1.getPosition()), b3.getPosition().relativeTo(a1.getPosition()));
+                geometry.relativeTo(b2.getPosition(), a1.getPosition()), geometry.relativeTo(b3.getPosition(), a1.getPosition()));
 
         assert !b2.collectAllAttachments().contains(b3);
         assert !b3.collectAllAttachments().contains(b2);
@@ -236,7 +239,7 @@ public class GameStateTest {
 
     @org.junit.Test
     public void testArea() {
-        var area = Position.of(10, 10).spanArea(2);
+        var area = geometry.spanArea(Position.of(10, 10), 2);
         assert(area.size() == 13);
         assert(area.contains(Position.of(10, 10)));
         assert(area.contains(Position.of(10, 11)));
@@ -252,9 +255,9 @@ public class GameStateTest {
         assert(area.contains(Position.of(11, 11)));
         assert(area.contains(Position.of(11, 9)));
 
-        assert(Position.of(0,0).spanArea(3).size() == 25);
-        assert(Position.of(0,0).spanArea(1).size() == 5);
-        assert(Position.of(0,0).spanArea(0).size() == 1);
+        assert(geometry.spanArea(Position.of(0,0), 3).size() == 25);
+        assert(geometry.spanArea(Position.of(0,0), 1).size() == 5);
+        assert(geometry.spanArea(Position.of(0,0), 0).size() == 1);
     }
 
     @org.junit.Test
@@ -262,10 +265,10 @@ public class GameStateTest {
         var grid = state.getGrid();
 
         //test basics
-        var pos1 = Position.wrapped(-1, -1);
+        var pos1 = geometry.wrapped(-1, -1);
         assert(pos1.equals(Position.of(grid.getDimX() - 1, grid.getDimY() - 1)));
 
-        var area = Position.of(0,0).spanArea(1);
+        var area = geometry.spanArea(Position.of(0,0), 1);
         assert area.contains(Position.of(0,0));
         assert area.contains(Position.of(1,0));
         assert area.contains(Position.of(0,1));
@@ -275,9 +278,9 @@ public class GameStateTest {
         // test moving
         var a1 = state.getEntityByName("A1");
         state.teleport("A1", Position.of(0, 0));
-        state.handleMoveAction(a1, "w");
+        state.handleMoveAction(a1, Direction.W);
         assert(a1.getPosition().equals(Position.of(grid.getDimX() - 1, 0)));
-        state.handleMoveAction(a1, "n");
+        state.handleMoveAction(a1, Direction.N);
         assert(a1.getPosition().equals(Position.of(grid.getDimX() - 1, grid.getDimY() - 1)));
 
         // test clear across boundaries
@@ -289,7 +292,7 @@ public class GameStateTest {
         }
         assert state.getTerrain(Position.of(0, 0)) == Terrain.EMPTY;
 
-        state.handleMoveAction(a1, "s");
+        state.handleMoveAction(a1, Direction.S);
         assert a1.getPosition().equals(Position.of(grid.getDimX() - 1, 0));
 
         // rotate some blocks across the map boundaries
@@ -298,12 +301,12 @@ public class GameStateTest {
         var b2 = state.createBlock(Position.of(0, grid.getDimY() - 1), blockType);
         var b3 = state.createBlock(Position.of(grid.getDimX() - 1, grid.getDimY() - 1), blockType);
         var b4 = state.createBlock(Position.of(0, grid.getDimY() - 2), blockType);
-        assert state.handleAttachAction(a1, "e").equals(Actions.RESULT_SUCCESS);
+        assert state.handleAttachAction(a1, Direction.E).equals(Actions.RESULT_SUCCESS);
         assert state.attach(block.getPosition(), b2.getPosition());
         assert state.attach(b2.getPosition(), b3.getPosition());
         assert state.attach(b2.getPosition(), b4.getPosition());
 
-        assert state.handleRotateAction(a1, false).equals(Actions.RESULT_SUCCESS);
+        assert state.handleRotateAction(a1, Rotation.CCW).equals(Actions.RESULT_SUCCESS);
         assert block.getPosition().equals(Position.of(grid.getDimX() - 1, grid.getDimY() - 1));
 
         var blocks = Arrays.asList(block, b2, b3, b4);
@@ -311,10 +314,10 @@ public class GameStateTest {
         for (var b: blocks) positions.put(b, b.getPosition());
 
         for (var i = 0; i < 3; i++) {
-            assert state.handleRotateAction(a1, true).equals(Actions.RESULT_SUCCESS);
+            assert state.handleRotateAction(a1, Rotation.CW).equals(Actions.RESULT_SUCCESS);
             for (var b: blocks) assert !b.getPosition().equals(positions.get(b));
         }
-        assert state.handleRotateAction(a1, true).equals(Actions.RESULT_SUCCESS);
+        assert state.handleRotateAction(a1, Rotation.CW).equals(Actions.RESULT_SUCCESS);
         for (var b: blocks) assert b.getPosition().equals(positions.get(b));
     }
 
@@ -0,0 +1,74 @@
+package massim.game;
+
+import massim.game.environment.Attachable;
+import massim.protocol.data.Position;
+import massim.protocol.data.Thing;
+
+/**
+ * The percept contents of the cells an entity saw when its last step percept was built, so that the next percept
+ * only has to look up the cells that changed in the meantime (and translate the others if the entity moved).
+ */
+class PerceptCache {
+
+    /**
+     * The percept contents of a single cell, relative to the position of the entity when they were recorded.
+     */
+    static class Cell {
+
+        static final Cell EMPTY = new Cell(new Thing[0], new Attachable[0], null);
+
+        /** percepts of the things, dispenser and task board in the cell (must not be modified, as they are shared) */
+        final Thing[] things;
+        /**
+         * the attachables in the cell other than the entity itself
+         * (they can be attached or detached without the cell changing, so they are checked for each percept)
+         */
+        final Attachable[] attachables;
+        /** name of the cell's terrain or null if it is empty */
+        final String terrain;
+
+        Cell(Thing[] things, Attachable[] attachables, String terrain) {
+            this.things = things;
+            this.attachables = attachables;
+            this.terrain = terrain;
+        }
+
+        /**
+         * @return the same contents as seen from the given relative position
+         */
+        Cell movedTo(Position relative) {
+            if (things.length == 0) return this;
+            var moved = new Thing[things.length];
+            for (var i = 0; i < things.length; i++) {
+                moved[i] = new Thing(relative.x, relative.y, things[i].type, things[i].details);
+            }
+            return new Cell(moved, attachables, terrain);
+        }
+    }
+
+    /** position of the entity when the cells were recorded */
+    Position center;
+    int vision;
+    /** the percept generation in which the cells were recorded */
+    int generation = -1;
+    /** the visible cells in the order of {@link massim.game.environment.Grid#forEachCellInArea} */
+    Cell[] cells;
+    /** the cells of the percept before, to be overwritten by the next percept */
+    private Cell[] spare;
+
+    /**
+     * @return an array to record the cells of the next percept in (never the same as {@link #cells})
+     */
+    Cell[] nextCells(int size) {
+        if (spare == null || spare.length != size) spare = new Cell[size];
+        return spare;
+    }
+
+    void update(Position center, int vision, int generation, Cell[] cells) {
+        this.spare = this.cells;
+        this.center = center;
+        this.vision = vision;
+        this.generation = generation;
+        this.cells = cells;
+    }
+}
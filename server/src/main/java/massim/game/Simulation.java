@@ -1,33 +1,84 @@
 package massim.game;
 
+import massim.config.ServerConfig;
 import massim.config.TeamConfig;
 import massim.protocol.data.Position;
-import massim.protocol.messages.ActionMessage;
 import massim.protocol.messages.RequestActionMessage;
 import massim.protocol.messages.SimEndMessage;
 import massim.protocol.messages.SimStartMessage;
-import massim.game.environment.Grid;
+import massim.util.Log;
 import massim.util.RNG;
-import massim.util.Util;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 import static massim.protocol.messages.scenario.Actions.*;
 
 public class Simulation {
 
+    /** the number of snapshot deltas after which a complete snapshot is taken again */
+    public static final int FULL_SNAPSHOT_INTERVAL = 20;
+
     private String name;
     private GameState state;
     private int steps;
+    private int perceptThreads = 1;
+    private final long randomSeed;
+    private final RNG rng;
+    private int snapshotsSinceFull = 0;
+    /** decides the order and failure of actions */
+    private final RNG actionRng;
+    /** one of the ServerConfig.ACTIONS_ constants */
+    private String actionResolution = ServerConfig.ACTIONS_SEQUENTIAL;
+    /** the same simulation with sequential action resolution (only in compare mode) */
+    private Simulation reference;
+    private int mismatches = 0;
+    /** the handler of each action type */
+    private final Map<GameAction.Type, ActionHandler> handlers = new EnumMap<>(GameAction.Type.class);
+    /** the planner of each action type that can be planned (see {@link #handleActions}) */
+    private final Map<GameAction.Type, ActionPlanner> planners = new EnumMap<>(GameAction.Type.class);
+
+    /**
+     * @param randomSeed the seed of all random decisions in the simulation
+     */
+    public Simulation(long randomSeed) {
+        this.randomSeed = randomSeed;
+        this.rng = new RNG(randomSeed);
+        this.actionRng = rng.stream("actions");
+        initActionTables();
+    }
+
+    /**
+     * @param perceptThreads the number of threads to build step percepts with (has to be set before {@link #init})
+     */
+    public void setPerceptThreads(int perceptThreads) {
+        this.perceptThreads = perceptThreads;
+    }
+
+    /**
+     * @param actionResolution how actions are executed, one of the ServerConfig.ACTIONS_ constants
+     *                         (has to be set before {@link #init})
+     */
+    public void setActionResolution(String actionResolution) {
+        this.actionResolution = actionResolution;
+    }
 
     public Map<String, SimStartMessage> init(int steps, JSONObject config, Set<TeamConfig> matchTeams) {
+        if (actionResolution.equals(ServerConfig.ACTIONS_COMPARE)) {
+            reference = new Simulation(randomSeed);
+            reference.setActionResolution(ServerConfig.ACTIONS_SEQUENTIAL);
+            reference.init(steps, config, matchTeams);
+        }
         this.steps = steps;
-        this.state = new GameState(config, matchTeams);
+        this.state = new GameState(config, matchTeams, rng);
+        this.state.setPerceptThreads(perceptThreads);
         this.name = System.currentTimeMillis() + "_" + matchTeams.stream()
                 .map(TeamConfig::getName)
                 .collect(Collectors.joining("_"));
@@ -35,17 +86,45 @@ public class Simulation {
     }
 
     public Map<String, RequestActionMessage> preStep(int step) {
+        if (reference != null) reference.preStep(step);
         return state.prepareStep(step);
     }
 
-    public void step(int stepNo, Map<String, ActionMessage> actionMap) {
+    public void step(int stepNo, Map<String, GameAction> actionMap) {
         handleActions(actionMap);
+        if (reference != null) {
+            reference.step(stepNo, actionMap);
+            compareWithReference(stepNo);
+        }
     }
 
     public Map<String, SimEndMessage> finish() {
+        if (reference != null) {
+            reference.finish();
+            Log.log(mismatches == 0? Log.Level.NORMAL : Log.Level.ERROR,
+                    "Batched and sequential action resolution differed " + mismatches + " times.");
+        }
+        state.close();
         return state.getFinalPercepts();
     }
 
+    /**
+     * @return the number of entity states that differed from sequential action resolution (in compare mode)
+     */
+    public int getMismatches() {
+        return mismatches;
+    }
+
+    private void compareWithReference(int stepNo) {
+        var expected = reference.state.describeEntities();
+        state.describeEntities().forEach((agent, actual) -> {
+            if (actual.equals(expected.get(agent))) return;
+            mismatches++;
+            Log.log(Log.Level.ERROR, String.format("Step %d, %s: batched %s, sequential %s",
+                    stepNo, agent, actual, expected.get(agent)));
+        });
+    }
+
     public JSONObject getResult() {
         return state.getResult();
     }
@@ -55,7 +134,26 @@ public class Simulation {
     }
 
     public JSONObject getSnapshot() {
-        return state.takeSnapshot();
+        return getSnapshot(null);
+    }
+
+    /**
+     * @param status a status snapshot from {@link #newStatusSnapshot()} to fill in the same pass, or null
+     * @return a complete snapshot of the world
+     */
+    public JSONObject getSnapshot(JSONObject status) {
+        snapshotsSinceFull = 0;
+        return state.takeSnapshot(status);
+    }
+
+    /**
+     * @param status a status snapshot from {@link #newStatusSnapshot()} to fill in the same pass, or null
+     * @return a snapshot of the changes since the previous snapshot, or a complete snapshot
+     * every {@link #FULL_SNAPSHOT_INTERVAL} snapshots (see GameState#takeSnapshotDelta)
+     */
+    public JSONObject getSnapshotDelta(JSONObject status) {
+        if (++snapshotsSinceFull >= FULL_SNAPSHOT_INTERVAL) return getSnapshot(status);
+        return state.takeSnapshotDelta(status);
     }
 
     public JSONObject getStatusSnapshot() {
@@ -65,6 +163,17 @@ public class Simulation {
         return snapshot;
     }
 
+    /**
+     * @return a status snapshot whose entities are still missing, to be passed to {@link #getSnapshot(JSONObject)}
+     * or {@link #getSnapshotDelta(JSONObject)}
+     */
+    public JSONObject newStatusSnapshot() {
+        JSONObject snapshot = state.newStatusSnapshot();
+        snapshot.put("sim", name);
+        snapshot.put("steps", steps);
+        return snapshot;
+    }
+
     public JSONObject getStaticData() {
         var grid = new JSONObject();
         grid.put("width", this.state.getGrid().getDimX());
@@ -95,160 +204,147 @@ public class Simulation {
 
     /**
      * Executes all actions in random order.
+     * In batched mode, moves, rotations and attachments are first planned for all entities at once (in parallel if
+     * there are percept threads) without changing the game state. Then all actions are executed in the same order
+     * as in sequential mode, committing the plans of those actions whose plans are still valid, i.e. nothing they
+     * depend on was changed by an action executed before them. Thus, the results are the same in both modes.
      */
-    private void handleActions(Map<String, ActionMessage> actions) {
+    private void handleActions(Map<String, GameAction> actions) {
         var entities = actions.keySet().stream().map(ag -> state.getEntityByName(ag)).collect(Collectors.toList());
-        RNG.shuffle(entities);
+        actionRng.shuffle(entities);
         for (Entity entity : entities) {
             var action = actions.get(entity.getAgentName());
             entity.setNewAction(action);
             if (entity.isDisabled()) {
                 entity.setLastActionResult(RESULT_F_STATUS);
             }
-            else if (RNG.nextInt(100) < state.getRandomFail()) {
+            else if (actionRng.nextInt(100) < state.getRandomFail()) {
                 entity.setLastActionResult(RESULT_F_RANDOM);
             }
         }
-        for (Entity entity : entities) {
+        var plans = actionResolution.equals(ServerConfig.ACTIONS_SEQUENTIAL)? null : planActions(entities);
+        var planned = 0;
+        var committed = 0;
+        state.getGrid().startActionTracking();
+        for (var i = 0; i < entities.size(); i++) {
+            var entity = entities.get(i);
             if (!entity.getLastActionResult().equals(RESULT_UNPROCESSED)) continue;
-            var params = entity.getLastActionParams();
-            switch(entity.getLastAction()) {
-
-                case NO_ACTION:
-                case SKIP:
-                    entity.setLastActionResult(RESULT_SUCCESS);
-                    continue;
-
-                case MOVE:
-                    var direction = getStringParam(params, 0);
-                    if (!Grid.DIRECTIONS.contains(direction)) {
-                        entity.setLastActionResult(RESULT_F_PARAMETER);
-                    } else {
-                        entity.setLastActionResult(state.handleMoveAction(entity, direction));
-                    }
-                    continue;
-
-                case ATTACH:
-                    direction = getStringParam(params, 0);
-                    if (!Grid.DIRECTIONS.contains(direction)) {
-                        entity.setLastActionResult(RESULT_F_PARAMETER);
-                    } else {
-                        entity.setLastActionResult(state.handleAttachAction(entity, direction));
-                    }
-                    continue;
-
-                case DETACH:
-                    direction = getStringParam(params, 0);
-                    if (!Grid.DIRECTIONS.contains(direction)) {
-                        entity.setLastActionResult(RESULT_F_PARAMETER);
-                    } else {
-                        entity.setLastActionResult(state.handleDetachAction(entity, direction));
-                    }
-                    continue;
-
-                case ROTATE:
-                    direction = getStringParam(params, 0);
-                    if (!Grid.ROTATION_DIRECTIONS.contains(direction)) {
-                        entity.setLastActionResult(RESULT_F_PARAMETER);
-                        continue;
-                    }
-                    entity.setLastActionResult(state.handleRotateAction(entity, "cw".equals(direction)));
-                    continue;
-
-                case CONNECT:
-                    var partnerEntityName = getStringParam(params, 0);
-                    var partnerEntity = state.getEntityByName(partnerEntityName);
-                    var x = getIntParam(params, 1);
-                    var y = getIntParam(params, 2);
-                    if (partnerEntity == null || x == null || y == null) {
-                        entity.setLastActionResult(RESULT_F_PARAMETER);
-                        continue;
-                    }
-                    var partnerAction = actions.get(partnerEntityName);
-                    if (partnerAction == null) {
-                        entity.setLastActionResult(RESULT_F_PARTNER);
-                        continue;
-                    }
-                    var partnerParams = partnerAction.getParams();
-                    var px = getIntParam(partnerParams, 1);
-                    var py = getIntParam(partnerParams, 2);
-                    if (!partnerEntity.getLastAction().equals(CONNECT)
-                            || !partnerEntity.getLastActionResult().equals(RESULT_UNPROCESSED)
-                            || !entity.getAgentName().equals(getStringParam(partnerParams, 0))) {
-                        entity.setLastActionResult(RESULT_F_PARTNER);
-                        continue;
-                    }
-                    if (px == null || py == null) {
-                        entity.setLastActionResult(RESULT_F_PARTNER);
-                        partnerEntity.setLastActionResult(RESULT_F_PARAMETER);
-                        continue;
-                    }
-                    var result = state.handleConnectAction(entity, Position.of(x, y), partnerEntity, Position.of(px, py));
-                    entity.setLastActionResult(result);
-                    partnerEntity.setLastActionResult(result);
-                    continue;
-
-                case REQUEST:
-                    direction = getStringParam(params, 0);
-                    if (!Grid.DIRECTIONS.contains(direction)) {
-                        entity.setLastActionResult(RESULT_F_PARAMETER);
-                    } else {
-                        entity.setLastActionResult(state.handleRequestAction(entity, direction));
-                    }
+            var plan = plans != null? plans.get(i) : null;
+            if (plan != null) {
+                planned++;
+                if (plan.isValid(state.getGrid())) {
+                    entity.setLastActionResult(plan.commit());
+                    committed++;
                     continue;
+                }
+            }
+            executeAction(entity, actions);
+        }
+        if (planned > 0) Log.log(Log.Level.DEBUG, String.format("Actions: %d of %d plans committed", committed, planned));
+    }
 
-                case SUBMIT:
-                    var taskName = getStringParam(params, 0);
-                    entity.setLastActionResult(state.handleSubmitAction(entity, taskName));
-                    continue;
+    /**
+     * Plans the moves, rotations and attachments of the entities (without changing the game state).
+     * @return the plan for each entity (in the same order) or null if its action cannot be planned
+     */
+    private List<ActionPlan> planActions(List<Entity> entities) {
+        var jobs = new ArrayList<Callable<ActionPlan>>(entities.size());
+        for (var entity : entities) jobs.add(() -> planAction(entity));
+        return state.readInParallel(jobs);
+    }
 
-                case CLEAR:
-                    x = getIntParam(params, 0);
-                    y = getIntParam(params, 1);
-                    if (x == null || y == null) entity.setLastActionResult(RESULT_F_PARAMETER);
-                    else {
-                        entity.setLastActionResult(state.handleClearAction(entity, Position.of(x, y)));
-                    }
-                    continue;
+    private ActionPlan planAction(Entity entity) {
+        if (!entity.getLastActionResult().equals(RESULT_UNPROCESSED)) return null;
+        var action = entity.getAction();
+        var planner = planners.get(action.getType());
+        return planner != null? planner.plan(entity, action) : null;
+    }
 
-                case DISCONNECT:
-                    var x1 = getIntParam(params, 0);
-                    var y1 = getIntParam(params, 1);
-                    var x2 = getIntParam(params, 2);
-                    var y2 = getIntParam(params, 3);
-                    if (x1 == null || y1 == null || x2 == null || y2 == null) {
-                        entity.setLastActionResult(RESULT_F_PARAMETER);
-                        continue;
-                    }
-                    entity.setLastActionResult(
-                            state.handleDisconnectAction(entity, Position.of(x1, y1), Position.of(x2, y2)));
-                    continue;
+    /**
+     * Executes the action of a single entity.
+     * @param actions the actions of all entities (for actions involving other entities)
+     */
+    private void executeAction(Entity entity, Map<String, GameAction> actions) {
+        var action = entity.getAction();
+        entity.setLastActionResult(handlers.get(action.getType()).execute(entity, action, actions));
+    }
 
-                case ACCEPT:
-                    var task = getStringParam(params, 0);
-                    entity.setLastActionResult(state.handleAcceptAction(entity, task));
-                    continue;
+    /**
+     * Fills the dispatch tables with the handler (and planner, if any) of each action type.
+     */
+    private void initActionTables() {
+        handlers.put(GameAction.Type.NO_ACTION, (entity, action, actions) -> RESULT_SUCCESS);
+        handlers.put(GameAction.Type.SKIP, (entity, action, actions) -> RESULT_SUCCESS);
+        handlers.put(GameAction.Type.MOVE, (entity, action, actions) -> action.getDirection() == null?
+                RESULT_F_PARAMETER : state.handleMoveAction(entity, action.getDirection()));
+        handlers.put(GameAction.Type.ATTACH, (entity, action, actions) -> action.getDirection() == null?
+                RESULT_F_PARAMETER : state.handleAttachAction(entity, action.getDirection()));
+        handlers.put(GameAction.Type.DETACH, (entity, action, actions) -> action.getDirection() == null?
+                RESULT_F_PARAMETER : state.handleDetachAction(entity, action.getDirection()));
+        handlers.put(GameAction.Type.ROTATE, (entity, action, actions) -> action.getRotation() == null?
+                RESULT_F_PARAMETER : state.handleRotateAction(entity, action.getRotation()));
+        handlers.put(GameAction.Type.CONNECT, this::handleConnect);
+        handlers.put(GameAction.Type.REQUEST, (entity, action, actions) -> action.getDirection() == null?
+                RESULT_F_PARAMETER : state.handleRequestAction(entity, action.getDirection()));
+        handlers.put(GameAction.Type.SUBMIT,
+                (entity, action, actions) -> state.handleSubmitAction(entity, action.getParam(0)));
+        handlers.put(GameAction.Type.CLEAR, (entity, action, actions) -> !action.hasIntParams(0, 1)?
+                RESULT_F_PARAMETER : state.handleClearAction(entity,
+                        Position.of(action.getIntParam(0), action.getIntParam(1))));
+        handlers.put(GameAction.Type.DISCONNECT, (entity, action, actions) -> !action.hasIntParams(0, 1, 2, 3)?
+                RESULT_F_PARAMETER : state.handleDisconnectAction(entity,
+                        Position.of(action.getIntParam(0), action.getIntParam(1)),
+                        Position.of(action.getIntParam(2), action.getIntParam(3))));
+        handlers.put(GameAction.Type.ACCEPT,
+                (entity, action, actions) -> state.handleAcceptAction(entity, action.getParam(0)));
+        handlers.put(GameAction.Type.UNKNOWN, (entity, action, actions) -> UNKNOWN_ACTION);
+
+        planners.put(GameAction.Type.MOVE, (entity, action) -> action.getDirection() == null?
+                null : state.planMoveAction(entity, action.getDirection()));
+        planners.put(GameAction.Type.ROTATE, (entity, action) -> action.getRotation() == null?
+                null : state.planRotateAction(entity, action.getRotation()));
+        planners.put(GameAction.Type.ATTACH, (entity, action) -> action.getDirection() == null?
+                null : state.planAttachAction(entity, action.getDirection()));
+    }
 
-                default:
-                    entity.setLastActionResult(UNKNOWN_ACTION);
-            }
+    /**
+     * Connects blocks of two entities if both of them want to. Also sets the result of the partner's action.
+     */
+    private String handleConnect(Entity entity, GameAction action, Map<String, GameAction> actions) {
+        var partnerEntityName = action.getParam(0);
+        var partnerEntity = state.getEntityByName(partnerEntityName);
+        if (partnerEntity == null || !action.hasIntParams(1, 2)) return RESULT_F_PARAMETER;
+        var partnerAction = actions.get(partnerEntityName);
+        if (partnerAction == null) return RESULT_F_PARTNER;
+        if (partnerAction.getType() != GameAction.Type.CONNECT
+                || !partnerEntity.getLastActionResult().equals(RESULT_UNPROCESSED)
+                || !entity.getAgentName().equals(partnerAction.getParam(0))) {
+            return RESULT_F_PARTNER;
         }
+        if (!partnerAction.hasIntParams(1, 2)) {
+            partnerEntity.setLastActionResult(RESULT_F_PARAMETER);
+            return RESULT_F_PARTNER;
+        }
+        var result = state.handleConnectAction(entity, Position.of(action.getIntParam(1), action.getIntParam(2)),
+                partnerEntity, Position.of(partnerAction.getIntParam(1), partnerAction.getIntParam(2)));
+        partnerEntity.setLastActionResult(result);
+        return result;
     }
 
-    private Integer getIntParam(List<String> params, int index) {
-        if (index >= params.size()) return null;
-        return Util.tryParseInt(params.get(index));
+    /**
+     * Executes an action and returns its result.
+     */
+    private interface ActionHandler {
+        String execute(Entity entity, GameAction action, Map<String, GameAction> actions);
     }
 
     /**
-     * @return the string parameter at the given index or null if there is no such parameter
+     * Plans an action (see {@link ActionPlan}).
      */
-    private String getStringParam(List<String> params, int index) {
-        if (index >= params.size()) return null;
-        try {
-            return params.get(index);
-        } catch (IndexOutOfBoundsException e) {
-            return null;
-        }
+    private interface ActionPlanner {
+        /**
+         * @return the plan or null if the action cannot be planned
+         */
+        ActionPlan plan(Entity entity, GameAction action);
     }
 }
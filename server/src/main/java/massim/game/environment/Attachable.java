@@ -3,30 +3,45 @@ package massim.game.environment;
 import massim.game.Entity;
 import massim.protocol.data.Position;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class Attachable extends Positionable {
 
     private Set<Attachable> attachments = new HashSet<>();
+    /** all attachables connected to this one (shared by them) */
+    private Component component = new Component();
 
-    public Attachable(Position position) {
-        super(position);
+    public Attachable(int id, Position position) {
+        super(id, position);
+        component.add(this);
     }
 
     void attach(Attachable other) {
         attachments.add(other);
         other.requestAttachment(this);
+        if (component != other.component) Component.merge(component, other.component);
     }
 
     void detach(Attachable other) {
-        attachments.remove(other);
+        if (!attachments.remove(other)) return;
         other.requestDetachment(this);
+        Component.split(this, other);
     }
 
+    public boolean hasAttachments() {
+        return !attachments.isEmpty();
+    }
+
+    /**
+     * @return an unmodifiable view of the directly attached attachables
+     */
     Set<Attachable> getAttachments() {
-        return new HashSet<>(attachments);
+        return Collections.unmodifiableSet(attachments);
     }
 
     public void detachAll() {
@@ -46,22 +61,92 @@ public abstract class Attachable extends Positionable {
      * including this Attachable
      */
     public Set<Attachable> collectAllAttachments() {
-        var attachables = new HashSet<Attachable>();
-        attachables.add(this);
-        Set<Attachable> newAttachables = new HashSet<>(attachables);
-        while (!newAttachables.isEmpty()) {
-            var tempAttachables = new HashSet<Attachable>();
-            for (Attachable a : newAttachables) {
-                for (Attachable a2 : a.getAttachments()) {
-                    if (attachables.add(a2)) tempAttachables.add(a2);
-                }
-            }
-            newAttachables = tempAttachables;
-        }
-        return attachables;
+        return new HashSet<>(component.members);
+    }
+
+    /**
+     * @return an unmodifiable view of the same attachables as {@link #collectAllAttachments()} without copying them.
+     * The view must not be used after anything is attached or detached.
+     */
+    public Set<Attachable> getConnected() {
+        return component.view;
+    }
+
+    /**
+     * @return the number of attachables connected to this one (including itself)
+     */
+    public int getConnectedCount() {
+        return component.members.size();
+    }
+
+    /**
+     * @return whether the other attachable is attached to this one (directly or indirectly)
+     */
+    public boolean isConnected(Attachable other) {
+        return other != null && component == other.component;
     }
 
     public boolean isAttachedToAnotherEntity() {
-        return collectAllAttachments().stream().anyMatch(a -> a instanceof Entity && a != this);
+        return component.entities > (this instanceof Entity? 1 : 0);
+    }
+
+    /**
+     * @return a number that changes whenever the set of connected attachables changes
+     * (so that results depending on it can be reused as long as it stays the same)
+     */
+    public long getComponentVersion() {
+        return component.version;
+    }
+
+    /**
+     * A set of attachables connected to each other. Attaching merges the components of both attachables,
+     * detaching may split a component in two. Thus, no queries have to search the attachments.
+     */
+    private static class Component {
+        private static final AtomicLong versions = new AtomicLong();
+
+        private final Set<Attachable> members = new HashSet<>();
+        private final Set<Attachable> view = Collections.unmodifiableSet(members);
+        private int entities = 0;
+        private long version = versions.incrementAndGet();
+
+        private void add(Attachable a) {
+            members.add(a);
+            a.component = this;
+            if (a instanceof Entity) entities++;
+        }
+
+        /**
+         * Moves the members of the smaller component to the larger one.
+         */
+        private static void merge(Component c1, Component c2) {
+            var larger = c1.members.size() >= c2.members.size()? c1 : c2;
+            var smaller = larger == c1? c2 : c1;
+            smaller.members.forEach(larger::add);
+            larger.version = versions.incrementAndGet();
+        }
+
+        /**
+         * Creates separate components if the attachables are no longer connected after being detached.
+         */
+        private static void split(Attachable a1, Attachable a2) {
+            var reached = new HashSet<Attachable>();
+            var queue = new ArrayDeque<Attachable>();
+            reached.add(a1);
+            queue.add(a1);
+            while (!queue.isEmpty()) {
+                for (var next : queue.poll().attachments) {
+                    if (next == a2) return; // still connected
+                    if (reached.add(next)) queue.add(next);
+                }
+            }
+            var old = a1.component;
+            var first = new Component();
+            var second = new Component();
+            for (var a : old.members) {
+                if (reached.contains(a)) first.add(a);
+                else second.add(a);
+            }
+        }
     }
 }
@@ -7,8 +7,8 @@ public class Block extends Attachable {
 
     private String blockType;
 
-    public Block(Position xy, String blockType) {
-        super(xy);
+    public Block(int id, Position xy, String blockType) {
+        super(id, xy);
         this.blockType = blockType;
     }
 
@@ -17,8 +17,7 @@ public class Block extends Attachable {
     }
 
     @Override
-    public Thing toPercept(Position entityPosition) {
-        Position relativePosition = getPosition().relativeTo(entityPosition);
+    public Thing toPercept(Position relativePosition) {
         return new Thing(relativePosition.x, relativePosition.y, Thing.TYPE_BLOCK, blockType);
     }
 }
\ No newline at end of file
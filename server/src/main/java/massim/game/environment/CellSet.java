@@ -0,0 +1,58 @@
+package massim.game.environment;
+
+import java.util.Arrays;
+
+/**
+ * A set of grid cells (by id, see {@link ThingIndex#cellOf(int, int)}) that can be indexed,
+ * so that a random cell can be picked in constant time. Adding and removing cells also takes constant time
+ * (removing moves the last cell into the gap, so the order of the cells depends on the history of the set).
+ */
+class CellSet {
+
+    private final int[] cells;
+    /** the index of each cell in {@link #cells} or -1 if it is not in the set */
+    private final int[] indexOf;
+    private int size = 0;
+
+    CellSet(int cellCount) {
+        cells = new int[cellCount];
+        indexOf = new int[cellCount];
+        Arrays.fill(indexOf, -1);
+    }
+
+    boolean contains(int cell) {
+        return indexOf[cell] >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the cell at the given index (between 0 and {@link #size()} - 1)
+     */
+    int get(int index) {
+        return cells[index];
+    }
+
+    void set(int cell, boolean contained) {
+        if (contained) add(cell);
+        else remove(cell);
+    }
+
+    void add(int cell) {
+        if (indexOf[cell] >= 0) return;
+        cells[size] = cell;
+        indexOf[cell] = size;
+        size++;
+    }
+
+    void remove(int cell) {
+        var index = indexOf[cell];
+        if (index < 0) return;
+        var last = cells[--size];
+        cells[index] = last;
+        indexOf[last] = index;
+        indexOf[cell] = -1;
+    }
+}
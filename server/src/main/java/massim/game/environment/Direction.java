@@ -0,0 +1,46 @@
+package massim.game.environment;
+
+import massim.protocol.data.GridGeometry;
+import massim.protocol.data.Position;
+
+/**
+ * The directions things can move in (as given in action parameters).
+ */
+public enum Direction {
+
+    N("n", 0, -1),
+    S("s", 0, 1),
+    E("e", 1, 0),
+    W("w", -1, 0);
+
+    public final String name;
+    public final int dx;
+    public final int dy;
+
+    Direction(String name, int dx, int dy) {
+        this.name = name;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    /**
+     * @return the position reached by going the given distance from pos in this direction
+     */
+    public Position from(GridGeometry geometry, Position pos, int distance) {
+        return geometry.wrapped(pos.x + dx * distance, pos.y + dy * distance);
+    }
+
+    /**
+     * @return the direction with the given name or null if there is no such direction
+     */
+    public static Direction parse(String name) {
+        if (name == null) return null;
+        switch (name) {
+            case "n": return N;
+            case "s": return S;
+            case "e": return E;
+            case "w": return W;
+            default: return null;
+        }
+    }
+}
@@ -3,12 +3,17 @@ package massim.game.environment;
 import massim.protocol.data.Position;
 import massim.protocol.data.Thing;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class Dispenser extends Positionable {
 
     private String blockType;
+    /** percepts only depend on the relative position, so they (and their JSON) are shared by all entities */
+    private final Map<Position, Thing> percepts = new ConcurrentHashMap<>();
 
-    public Dispenser(Position position, String blockType) {
-        super(position);
+    public Dispenser(int id, Position position, String blockType) {
+        super(id, position);
         this.blockType = blockType;
     }
 
@@ -17,9 +22,8 @@ public class Dispenser extends Positionable {
     }
 
     @Override
-    public Thing toPercept(Position entityPosition) {
-        Position local = getPosition().relativeTo(entityPosition);
-        return new Thing(local.x, local.y, Thing.TYPE_DISPENSER, blockType);
+    public Thing toPercept(Position relativePosition) {
+        return percepts.computeIfAbsent(relativePosition, l -> Thing.immutable(l.x, l.y, Thing.TYPE_DISPENSER, blockType)).copy();
     }
 
     @Override
@@ -3,17 +3,23 @@ package massim.game.environment;
 import massim.protocol.data.Position;
 import massim.protocol.data.Thing;
 
-import java.util.concurrent.atomic.AtomicInteger;
-
 public abstract class GameObject {
 
-    private static AtomicInteger lastId = new AtomicInteger();
+    private final int id;
 
-    private final int id = lastId.incrementAndGet();
+    /**
+     * @param id the object's id, unique within its simulation (see {@link Grid#nextObjectId()})
+     */
+    public GameObject(int id) {
+        this.id = id;
+    }
 
     public final int getID() {
         return id;
     }
 
-    public abstract Thing toPercept(Position relativeTo);
+    /**
+     * @param relativePosition the object's position relative to the perceiving entity
+     */
+    public abstract Thing toPercept(Position relativePosition);
 }
@@ -1,6 +1,7 @@
 package massim.game.environment;
 
 import massim.game.Entity;
+import massim.protocol.data.GridGeometry;
 import massim.protocol.data.Position;
 import massim.util.Log;
 import massim.util.RNG;
@@ -13,30 +14,137 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Grid {
 
-    public static final Set<String> DIRECTIONS = Set.of("n", "s", "e", "w");
-    public static final Set<String> ROTATION_DIRECTIONS = Set.of("cw", "ccw");
     private static Map<Integer, Terrain> terrainColors =
             Map.of(-16777216, Terrain.OBSTACLE, -1, Terrain.EMPTY, -65536, Terrain.GOAL);
+    private static final Terrain[] TERRAIN_BY_ID = new Terrain[Terrain.values().length];
+    static {
+        for (var t : Terrain.values()) TERRAIN_BY_ID[t.id] = t;
+    }
+    private static final byte EMPTY = (byte) Terrain.EMPTY.id;
+    private static final byte OBSTACLE = (byte) Terrain.OBSTACLE.id;
 
     private int dimX;
     private int dimY;
+    private final GridGeometry geometry;
+    private final RNG rng;
+    private int lastObjectId = 0;
     private int attachLimit;
-    private Map<Position, Set<Positionable>> thingsMap;
-    private Terrain[][] terrainMap;
+    private ThingIndex thingIndex;
+    private final int cellCount;
+    /** the terrain id of each cell (see {@link Terrain#id}) */
+    private byte[] terrain;
+    /** cells that are blocked by an obstacle or an attachable thing (cf. {@link #isUnblocked(Position)}) */
+    private final BitSet blocked;
+    /** cells that are neither blocked nor of other than empty terrain, i.e. can take new things */
+    private final CellSet freeCells;
+    /**
+     * the number of cells with empty terrain in each column above each row (see {@link #countEmptyCells}),
+     * built when needed and dropped when the terrain changes
+     */
+    private int[] emptyCellsAbove;
     private List<Marker> markers = new ArrayList<>();
     private Map<String,Boolean> blockedForTaskBoards = new HashMap<>();
+    /** offsets of the areas by radius (read without locking, as percepts are built on several threads) */
+    private final Map<Integer, AreaOffsets> areaOffsets = new ConcurrentHashMap<>();
+    /** Cells whose things or terrain changed since the last call to {@link #clearDirtyCells()} */
+    private BitSet dirtyCells;
+    private int dirtyCellCount;
+    /** Cells whose things or terrain changed since the last call to {@link #clearSnapshotChanges()} */
+    private BitSet snapshotCells;
+    /** Cells whose terrain changed since the last call to {@link #clearSnapshotChanges()} */
+    private BitSet snapshotTerrain;
+    /** Cells whose things or terrain changed since the last call to {@link #startActionTracking()} */
+    private BitSet actionCells;
+
+    /**
+     * Callback for visiting all cells of an area.
+     * @see #forEachCellInArea(Position, int, CellVisitor)
+     */
+    @FunctionalInterface
+    public interface CellVisitor {
+        /**
+         * @param index the index of the cell within the area (cells of an area are always visited in the same order)
+         * @param x the (wrapped) x coordinate of the cell
+         * @param y the (wrapped) y coordinate of the cell
+         * @param relative the cell's position relative to the area's center
+         */
+        void visit(int index, int x, int y, Position relative);
+    }
 
-    public Grid(JSONObject gridConf, int attachLimit, int distanceToTaskboards) {
+    /**
+     * The cells of an area of a given radius, as offsets from its center (in the order of {@link GridGeometry#spanArea}).
+     */
+    public static final class AreaOffsets {
+        final int radius;
+        final int[] dx;
+        final int[] dy;
+        final Position[] relative;
+        /** index of each offset in the bounding square of the area (or -1 if it is not part of the area) */
+        final int[] indexOfOffset;
+
+        AreaOffsets(int radius) {
+            this.radius = radius;
+            var size = 2 * radius * (radius + 1) + 1;
+            dx = new int[size];
+            dy = new int[size];
+            relative = new Position[size];
+            indexOfOffset = new int[(2 * radius + 1) * (2 * radius + 1)];
+            Arrays.fill(indexOfOffset, -1);
+            var i = 0;
+            for (var x = -radius; x <= radius; x++) {
+                var yRange = radius - Math.abs(x);
+                for (var y = -yRange; y <= yRange; y++) {
+                    dx[i] = x;
+                    dy[i] = y;
+                    relative[i] = Position.of(x, y);
+                    indexOfOffset[(y + radius) * (2 * radius + 1) + x + radius] = i;
+                    i++;
+                }
+            }
+        }
+
+        /**
+         * @return the number of cells in the area (i.e. the number of visits of
+         * {@link Grid#forEachCellInArea(Position, int, CellVisitor)})
+         */
+        public int size() {
+            return dx.length;
+        }
+
+        /**
+         * @return the index the visitor gets for the cell at the given offset from the center of the area
+         * or -1 if the cell is not part of the area
+         */
+        public int indexOf(int x, int y) {
+            if (Math.abs(x) + Math.abs(y) > radius) return -1;
+            return indexOfOffset[(y + radius) * (2 * radius + 1) + x + radius];
+        }
+    }
+
+    /**
+     * @param rng the random numbers to generate the map and to place things with
+     */
+    public Grid(JSONObject gridConf, int attachLimit, int distanceToTaskboards, RNG rng) {
         this.attachLimit = attachLimit;
+        this.rng = rng;
         dimX = gridConf.getInt("width");
         dimY = gridConf.getInt("height");
-        Position.setGridDimensions(dimX, dimY);
-        thingsMap = new HashMap<>();
-        terrainMap = new Terrain[dimX][dimY];
-        for (Terrain[] col : terrainMap) Arrays.fill(col, Terrain.EMPTY);
+        geometry = new GridGeometry(dimX, dimY);
+        thingIndex = new ThingIndex(dimX, dimY);
+        dirtyCells = new BitSet(dimX * dimY);
+        snapshotCells = new BitSet(dimX * dimY);
+        snapshotTerrain = new BitSet(dimX * dimY);
+        actionCells = new BitSet(dimX * dimY);
+        cellCount = dimX * dimY;
+        terrain = new byte[cellCount];
+        Arrays.fill(terrain, EMPTY);
+        blocked = new BitSet(cellCount);
+        freeCells = new CellSet(cellCount);
+        for (var cell = 0; cell < cellCount; cell++) freeCells.add(cell);
 
         // terrain from bitmap
         String mapFilePath = gridConf.optString("file");
@@ -48,7 +156,7 @@ public class Grid {
                     var width = Math.min(dimX, img.getWidth());
                     var height = Math.min(dimY, img.getHeight());
                     for (int x = 0; x < width; x++) { for (int y = 0; y < height; y++) {
-                        setTerrain(Position.of(x, y), terrainColors.getOrDefault(img.getRGB(x, y), Terrain.EMPTY));
+                        setTerrain(geometry.of(x, y), terrainColors.getOrDefault(img.getRGB(x, y), Terrain.EMPTY));
                     }}
                 } catch (IOException e) {
                     e.printStackTrace();
@@ -74,7 +182,7 @@ public class Grid {
                 case "cave":
                     var chanceAlive = instruction.getDouble(1);
                     for (int x = 0; x < dimX; x++) { for (int y = 0; y < dimY; y++) {
-                        if (RNG.nextDouble() < chanceAlive) terrainMap[x][y] = Terrain.OBSTACLE;
+                        if (rng.nextDouble() < chanceAlive) putTerrain(thingIndex.cellOf(x, y), OBSTACLE);
                     }}
                     var iterations = instruction.getInt(2);
                     var createLimit = instruction.getInt(3);
@@ -94,10 +202,10 @@ public class Grid {
         var goalSizeMax = goalSize.getInt(1);
         for (var i = 0; i < goalNumber; i++) {
             var centerPos = findRandomFreePosition();
-            var size = RNG.betweenClosed(goalSizeMin, goalSizeMax);
-            for (var pos : centerPos.spanArea(size)) setTerrain(pos, Terrain.GOAL);
+            var size = rng.betweenClosed(goalSizeMin, goalSizeMax);
+            for (var pos : geometry.spanArea(centerPos, size)) setTerrain(pos, Terrain.GOAL);
 
-            for (var pos : centerPos.spanArea(size + distanceToTaskboards))
+            for (var pos : geometry.spanArea(centerPos, size + distanceToTaskboards))
                 blockedForTaskBoards.put(pos.toString(), true);
         }
     }
@@ -115,7 +223,7 @@ public class Grid {
                     y = 0;
                 }
             }
-            pos = Position.of(x,y);
+            pos = geometry.of(x,y);
             if (pos.equals(start)) {
                 Log.log(Log.Level.ERROR, "Grid too small to place all things.");
                 return null;
@@ -124,34 +232,38 @@ public class Grid {
         return pos;
     }
 
+    /**
+     * Lets obstacles grow or shrink depending on their number of neighbours. The neighbours are counted with sums of
+     * three vertically adjacent cells, so that each cell is only read a few times.
+     */
     private void doCaveIteration(int createLimit, int destroyLimit) {
-        var newTerrain = new Terrain[dimX][dimY];
-        for (var x = 0; x < dimX; x++) { for (var y = 0; y < dimY; y++) {
-            var n = countObstacleNeighbours(x,y);
-            if (terrainMap[x][y] == Terrain.OBSTACLE) {
-                if (n < destroyLimit) newTerrain[x][y] = Terrain.EMPTY;
-                else newTerrain[x][y] = Terrain.OBSTACLE;
-            }
-            else if (terrainMap[x][y] == Terrain.EMPTY) {
-                if (n > createLimit) newTerrain[x][y] = Terrain.OBSTACLE;
-                else newTerrain[x][y] = Terrain.EMPTY;
+        var newTerrain = terrain.clone();
+        var columnSums = new int[dimX];
+        for (var y = 0; y < dimY; y++) {
+            var above = Math.floorMod(y - 1, dimY) * dimX;
+            var row = y * dimX;
+            var below = Math.floorMod(y + 1, dimY) * dimX;
+            for (var x = 0; x < dimX; x++) {
+                columnSums[x] = obstacleAt(above + x) + obstacleAt(row + x) + obstacleAt(below + x);
             }
-            else {
-                newTerrain[x][y] = terrainMap[x][y];
+            for (var x = 0; x < dimX; x++) {
+                var n = columnSums[Math.floorMod(x - 1, dimX)] + columnSums[x] + columnSums[(x + 1) % dimX]
+                        - obstacleAt(row + x);
+                if (terrain[row + x] == OBSTACLE) {
+                    if (n < destroyLimit) newTerrain[row + x] = EMPTY;
+                }
+                else if (terrain[row + x] == EMPTY) {
+                    if (n > createLimit) newTerrain[row + x] = OBSTACLE;
+                }
             }
-        }}
-        terrainMap = newTerrain;
+        }
+        terrain = newTerrain;
+        emptyCellsAbove = null;
+        for (var cell = 0; cell < cellCount; cell++) updateBlocked(cell);
     }
 
-    private int countObstacleNeighbours(int cx, int cy) {
-        var count = 0;
-        for (var x = cx - 1; x <= cx + 1; x++) { for (var y = cy - 1; y <= cy + 1; y++) {
-            if (x != cx || y != cy) {
-                var pos = Position.wrapped(x, y);
-                if (terrainMap[pos.x][pos.y] == Terrain.OBSTACLE) count++;
-            }
-        }}
-        return count;
+    private int obstacleAt(int cell) {
+        return terrain[cell] == OBSTACLE? 1 : 0;
     }
 
     /**
@@ -159,35 +271,35 @@ public class Grid {
      */
     private void createLineBorder(int offset) {
         for (int x = offset; x < dimX - offset; x++) {
-            terrainMap[x][offset] = Terrain.OBSTACLE;
-            terrainMap[x][dimY - (offset + 1)] = Terrain.OBSTACLE;
+            putTerrain(thingIndex.cellOf(x, offset), OBSTACLE);
+            putTerrain(thingIndex.cellOf(x, dimY - (offset + 1)), OBSTACLE);
         }
         for (int y = offset; y < dimY - offset; y++) {
-            terrainMap[offset][y] = Terrain.OBSTACLE;
-            terrainMap[dimX - (offset + 1)][y] = Terrain.OBSTACLE;
+            putTerrain(thingIndex.cellOf(offset, y), OBSTACLE);
+            putTerrain(thingIndex.cellOf(dimX - (offset + 1), y), OBSTACLE);
         }
     }
 
     private void createRaggedBorder(int width) {
         var currentWidth = width;
         for (var x = 0; x < dimX; x++) {
-            currentWidth = Math.max(currentWidth - 1 + RNG.nextInt(3), 1);
-            for (var i = 0; i < currentWidth; i++) terrainMap[x][i] = Terrain.OBSTACLE;
+            currentWidth = Math.max(currentWidth - 1 + rng.nextInt(3), 1);
+            for (var i = 0; i < currentWidth; i++) putTerrain(thingIndex.cellOf(x, i), OBSTACLE);
         }
         currentWidth = width;
         for (var x = 0; x < dimX; x++) {
-            currentWidth = Math.max(currentWidth - 1 + RNG.nextInt(3), 1);
-            for (var i = 0; i < currentWidth; i++) terrainMap[x][dimY - (i + 1)] = Terrain.OBSTACLE;
+            currentWidth = Math.max(currentWidth - 1 + rng.nextInt(3), 1);
+            for (var i = 0; i < currentWidth; i++) putTerrain(thingIndex.cellOf(x, dimY - (i + 1)), OBSTACLE);
         }
         currentWidth = width;
         for (var y = 0; y < dimY; y++) {
-            currentWidth = Math.max(currentWidth - 1 + RNG.nextInt(3), 1);
-            for (var i = 0; i < currentWidth; i++) terrainMap[i][y] = Terrain.OBSTACLE;
+            currentWidth = Math.max(currentWidth - 1 + rng.nextInt(3), 1);
+            for (var i = 0; i < currentWidth; i++) putTerrain(thingIndex.cellOf(i, y), OBSTACLE);
         }
         currentWidth = width;
         for (var y = 0; y < dimY; y++) {
-            currentWidth = Math.max(currentWidth - 1 + RNG.nextInt(3), 1);
-            for (var i = 0; i < currentWidth; i++) terrainMap[dimX - (i + 1)][y] = Terrain.OBSTACLE;
+            currentWidth = Math.max(currentWidth - 1 + rng.nextInt(3), 1);
+            for (var i = 0; i < currentWidth; i++) putTerrain(thingIndex.cellOf(dimX - (i + 1), y), OBSTACLE);
         }
     }
 
@@ -199,15 +311,29 @@ public class Grid {
         return dimY;
     }
 
-    public Entity createEntity(Position xy, String agentName, String teamName) {
-        var e = new Entity(xy, agentName, teamName);
+    /**
+     * @return the geometry of this grid (for all calculations with positions in it)
+     */
+    public GridGeometry getGeometry() {
+        return geometry;
+    }
+
+    /**
+     * @return a new id for a game object of the simulation (ids do not depend on other simulations)
+     */
+    public int nextObjectId() {
+        return ++lastObjectId;
+    }
+
+    public Entity createEntity(Position xy, String agentName, String teamName, int maxEnergy) {
+        var e = new Entity(nextObjectId(), xy, agentName, teamName, maxEnergy);
         insertThing(e);
         return e;
     }
 
     public Block createBlock(Position xy, String type) {
         if(!isUnblocked(xy)) return null;
-        var b = new Block(xy, type);
+        var b = new Block(nextObjectId(), xy, type);
         insertThing(b);
         return b;
     }
@@ -215,23 +341,189 @@ public class Grid {
     public void destroyThing(Positionable a) {
         if (a == null) return;
         if (a instanceof Attachable) ((Attachable) a).detachAll();
-        var things = thingsMap.get(a.getPosition());
-        if (things != null) things.remove(a);
+        removeThing(a);
     }
 
     /**
      * @return a copy of the set of things at the given position
      */
     public Set<Positionable> getThings(Position pos) {
-        return new HashSet<>(thingsMap.computeIfAbsent(pos, kPos -> new HashSet<>()));
+        return new HashSet<>(getThingsView(pos));
+    }
+
+    /**
+     * @return an unmodifiable view of the things at the given position (reflects later changes to the grid,
+     * so it must not be iterated while things are moved or destroyed)
+     */
+    public List<Positionable> getThingsView(Position pos) {
+        if (outOfBounds(pos)) pos = geometry.wrapped(pos);
+        return thingIndex.view(thingIndex.cellOf(pos.x, pos.y));
+    }
+
+    /**
+     * @return an unmodifiable view of the things in the given cell (cf. {@link #getThingsView(Position)})
+     */
+    public List<Positionable> getThingsView(int x, int y) {
+        return thingIndex.view(thingIndex.cellOf(geometry.wrappedX(x), geometry.wrappedY(y)));
+    }
+
+    /**
+     * Calls the visitor for each cell of the area around the center within the given radius
+     * (same cells as {@link GridGeometry#spanArea(Position, int)}) without creating any positions.
+     */
+    public void forEachCellInArea(Position center, int radius, CellVisitor visitor) {
+        var area = getAreaOffsets(radius);
+        var cx = geometry.wrappedX(center.x);
+        var cy = geometry.wrappedY(center.y);
+        // offsets are only the same as the relative positions if the area does not wrap around on itself
+        var offsetsAreRelative = 2 * radius < dimX && 2 * radius < dimY;
+        for (var i = 0; i < area.dx.length; i++) {
+            var x = cx + area.dx[i];
+            var y = cy + area.dy[i];
+            if (offsetsAreRelative) {
+                if (x < 0) x += dimX;
+                else if (x >= dimX) x -= dimX;
+                if (y < 0) y += dimY;
+                else if (y >= dimY) y -= dimY;
+                visitor.visit(i, x, y, area.relative[i]);
+            }
+            else {
+                x = geometry.wrappedX(x);
+                y = geometry.wrappedY(y);
+                visitor.visit(i, x, y, geometry.relativeTo(geometry.of(x, y), center));
+            }
+        }
+    }
+
+    /**
+     * @return the offsets of the area of the given radius (can be kept to look up many cells without going
+     * through the grid each time)
+     */
+    public AreaOffsets getAreaOffsets(int radius) {
+        return areaOffsets.computeIfAbsent(radius, AreaOffsets::new);
     }
 
     private boolean insertThing(Positionable thing) {
-        if (outOfBounds(thing.getPosition())) return false;
-        thingsMap.computeIfAbsent(thing.getPosition(), pos -> new HashSet<>()).add(thing);
+        var pos = thing.getPosition();
+        if (outOfBounds(pos)) return false;
+        var cell = thingIndex.cellOf(pos.x, pos.y);
+        thingIndex.add(cell, thing);
+        if (thing instanceof Attachable) {
+            blocked.set(cell);
+            freeCells.remove(cell);
+        }
+        markDirty(cell);
         return true;
     }
 
+    private void removeThing(Positionable thing) {
+        var pos = thing.getPosition();
+        if (outOfBounds(pos)) return;
+        var cell = thingIndex.cellOf(pos.x, pos.y);
+        if (thingIndex.remove(cell, thing)) {
+            if (thing instanceof Attachable) updateBlocked(cell);
+            markDirty(cell);
+        }
+    }
+
+    /**
+     * Updates the occupancy bits of a cell after its terrain or its attachables changed.
+     */
+    private void updateBlocked(int cell) {
+        var isBlocked = terrain[cell] == OBSTACLE;
+        for (var i = 0; !isBlocked && i < thingIndex.size(cell); i++) {
+            isBlocked = thingIndex.get(cell, i) instanceof Attachable;
+        }
+        blocked.set(cell, isBlocked);
+        freeCells.set(cell, !isBlocked && terrain[cell] == EMPTY);
+    }
+
+    /**
+     * Sets the terrain of a cell without recording it as a change (only while the map is generated).
+     */
+    private void putTerrain(int cell, byte terrainId) {
+        terrain[cell] = terrainId;
+        emptyCellsAbove = null;
+        updateBlocked(cell);
+    }
+
+    private void markDirty(int cell) {
+        snapshotCells.set(cell);
+        actionCells.set(cell);
+        if (!dirtyCells.get(cell)) {
+            dirtyCells.set(cell);
+            dirtyCellCount++;
+        }
+    }
+
+    /**
+     * Marks a cell as changed, e.g. if something that is not stored in the grid was placed there.
+     */
+    public void markDirty(Position pos) {
+        if (outOfBounds(pos)) pos = geometry.wrapped(pos);
+        markDirty(thingIndex.cellOf(pos.x, pos.y));
+    }
+
+    /**
+     * @return true if the things or the terrain of the cell changed since the last {@link #clearDirtyCells()}
+     */
+    public boolean isDirty(int x, int y) {
+        return dirtyCells.get(thingIndex.cellOf(geometry.wrappedX(x), geometry.wrappedY(y)));
+    }
+
+    /**
+     * @return the number of cells that changed since the last {@link #clearDirtyCells()}
+     */
+    public int getDirtyCellCount() {
+        return dirtyCellCount;
+    }
+
+    public void clearDirtyCells() {
+        if (dirtyCellCount == 0) return;
+        dirtyCells.clear();
+        dirtyCellCount = 0;
+    }
+
+    /**
+     * @return true if the things or the terrain at the position changed since the last {@link #clearSnapshotChanges()}
+     */
+    public boolean changedSinceSnapshot(Position pos) {
+        return snapshotCells.get(thingIndex.cellOf(geometry.wrappedX(pos.x), geometry.wrappedY(pos.y)));
+    }
+
+    /**
+     * @return all positions whose terrain changed since the last {@link #clearSnapshotChanges()}
+     */
+    public List<Position> getTerrainChangesSinceSnapshot() {
+        var positions = new ArrayList<Position>(snapshotTerrain.cardinality());
+        for (var cell = snapshotTerrain.nextSetBit(0); cell >= 0; cell = snapshotTerrain.nextSetBit(cell + 1))
+            positions.add(geometry.ofCell(cell));
+        return positions;
+    }
+
+    /**
+     * Forgets the changes for the next snapshot (independent of the dirty cells of percepts).
+     */
+    public void clearSnapshotChanges() {
+        snapshotCells.clear();
+        snapshotTerrain.clear();
+    }
+
+    /**
+     * Starts recording changed cells for {@link #changedSinceActionTracking(Position)}
+     * (independent of the dirty cells of percepts and the changes for snapshots).
+     */
+    public void startActionTracking() {
+        actionCells.clear();
+    }
+
+    /**
+     * @return true if the things or the terrain at the position changed since the last {@link #startActionTracking()}
+     */
+    public boolean changedSinceActionTracking(Position pos) {
+        return actionCells.get(thingIndex.cellOf(geometry.wrappedX(pos.x), geometry.wrappedY(pos.y)));
+    }
+
     /**
      * @return true if a position is out of the grid's bounds (it could be wrapped back in though).
      */
@@ -239,8 +531,8 @@ public class Grid {
         return pos == null || pos.x < 0 || pos.y < 0 || pos.x >= dimX || pos.y >= dimY;
     }
 
-    private void move(Set<Positionable> things, Map<Positionable, Position> newPositions) {
-        things.forEach(t -> thingsMap.getOrDefault(t.getPosition(), Collections.emptySet()).remove(t));
+    private void move(Set<? extends Positionable> things, Map<Positionable, Position> newPositions) {
+        things.forEach(this::removeThing);
         for (Positionable thing : things) {
             var newPos = newPositions.get(thing);
             thing.setPosition(newPos);
@@ -261,20 +553,25 @@ public class Grid {
     }
 
     public boolean attach(Attachable a1, Attachable a2) {
-        if (a1 == null || a2 == null) return false;
-        if (a1.getPosition().distanceTo(a2.getPosition()) != 1) return false;
-
-        var attachments = a1.collectAllAttachments();
-        attachments.addAll(a2.collectAllAttachments());
-        if (attachments.size() > attachLimit) return false;
-
+        if (!canAttach(a1, a2)) return false;
         a1.attach(a2);
         return true;
     }
 
+    /**
+     * @return whether {@link #attach(Attachable, Attachable)} would succeed (without changing anything)
+     */
+    public boolean canAttach(Attachable a1, Attachable a2) {
+        if (a1 == null || a2 == null) return false;
+        if (geometry.distance(a1.getPosition(), a2.getPosition()) != 1) return false;
+
+        var size = a1.isConnected(a2)? a1.getConnectedCount() : a1.getConnectedCount() + a2.getConnectedCount();
+        return size <= attachLimit;
+    }
+
     public boolean detachNeighbors(Attachable a1, Attachable a2) {
         if (a1 == null || a2 ==  null) return false;
-        if (a1.getPosition().distanceTo(a2.getPosition()) != 1) return false;
+        if (geometry.distance(a1.getPosition(), a2.getPosition()) != 1) return false;
         if (!a1.getAttachments().contains(a2)) return false;
         a1.detach(a2);
         return true;
@@ -284,7 +581,7 @@ public class Grid {
         var sb = new StringBuilder(dimX * dimY * 3 + dimY);
         for (int row = 0; row < dimY; row++){
             for (int col = 0; col < dimX; col++){
-                sb.append("[").append(getThings(Position.of(col, row)).size()).append("]");
+                sb.append("[").append(thingIndex.size(thingIndex.cellOf(col, row))).append("]");
             }
             sb.append("\n");
         }
@@ -294,9 +591,9 @@ public class Grid {
     /**
      * @return whether the movement succeeded
      */
-    public boolean moveWithAttached(Attachable anchor, String direction, int distance) {
-        var things = new HashSet<Positionable>(anchor.collectAllAttachments());
-        var newPositions = canMove(things, direction, distance);
+    public boolean moveWithAttached(Attachable anchor, Direction direction, int distance) {
+        var things = anchor.getConnected();
+        var newPositions = canMove(things, direction, distance, null);
         if (newPositions == null) return false;
         move(things, newPositions);
         return true;
@@ -306,99 +603,164 @@ public class Grid {
      * @return whether the rotation succeeded
      */
     public boolean rotateWithAttached(Attachable anchor, boolean clockwise) {
-        var newPositions = canRotate(anchor, clockwise);
+        var newPositions = canRotate(anchor, clockwise, null);
         if (newPositions == null) return false;
         move(newPositions.keySet(), newPositions);
         return true;
     }
 
+    /**
+     * Computes the result of {@link #moveWithAttached(Attachable, Direction, int)} without changing the grid.
+     */
+    public Movement planMove(Attachable anchor, Direction direction, int distance) {
+        var things = anchor.getConnected();
+        var readCells = new ArrayList<Position>();
+        return new Movement(things, canMove(things, direction, distance, readCells), readCells);
+    }
+
+    /**
+     * Computes the result of {@link #rotateWithAttached(Attachable, boolean)} without changing the grid.
+     */
+    public Movement planRotation(Attachable anchor, boolean clockwise) {
+        var readCells = new ArrayList<Position>();
+        var newPositions = canRotate(anchor, clockwise, readCells);
+        return new Movement(newPositions != null? newPositions.keySet() : Set.of(), newPositions, readCells);
+    }
+
+    /**
+     * Moves the things of a planned movement (which must still be possible, see {@link Movement#getReadCells()}).
+     * @return whether the movement was possible
+     */
+    public boolean apply(Movement movement) {
+        if (movement.newPositions == null) return false;
+        move(movement.things, movement.newPositions);
+        return true;
+    }
+
     /**
      * Checks if the anchor element and all attachments can rotate 90deg in the given direction.
      * Intermediate positions (the "diagonals") are also checked for all attachments.
+     * @param readCells collects all cells the result depends on (if not null)
      * @return a map from the element and all attachments to their new positions after rotation or null if anything is blocked
      */
-    private Map<Positionable, Position> canRotate(Attachable anchor, boolean clockwise) {
-        var attachments = new HashSet<Positionable>(anchor.collectAllAttachments());
-        if(attachments.stream().anyMatch(a -> a != anchor && a instanceof Entity)) return null;
+    private Map<Positionable, Position> canRotate(Attachable anchor, boolean clockwise, List<Position> readCells) {
+        if (anchor.isAttachedToAnotherEntity()) return null;
+        var attachments = anchor.getConnected();
+        if (readCells != null) attachments.forEach(a -> readCells.add(a.getPosition()));
         var newPositions = new HashMap<Positionable, Position>();
         for (Positionable a : attachments) {
-            var rotatedPos = a.getPosition().rotated90(anchor.getPosition(), clockwise);
+            var rotatedPos = geometry.rotated90(a.getPosition(), anchor.getPosition(), clockwise);
+            if (readCells != null) readCells.add(rotatedPos);
             if(!isUnblocked(rotatedPos, attachments)) return null;
             newPositions.put(a, rotatedPos);
         }
         return newPositions;
     }
 
-    private Map<Positionable, Position> canMove(Set<Positionable> things, String direction, int distance) {
+    /**
+     * @param readCells collects all cells the result depends on (if not null)
+     */
+    private Map<Positionable, Position> canMove(Set<? extends Positionable> things, Direction direction, int distance,
+                                                List<Position> readCells) {
+        if (readCells != null) things.forEach(t -> readCells.add(t.getPosition()));
         var newPositions = new HashMap<Positionable, Position>();
         for (Positionable thing : things) {
             for (int i = 1; i <= distance; i++) {
-                var newPos = thing.getPosition().moved(direction, i);
+                var newPos = direction.from(geometry, thing.getPosition(), i);
+                if (readCells != null) readCells.add(newPos);
                 if(!isUnblocked(newPos, things)) return null;
             }
-            newPositions.put(thing, thing.getPosition().moved(direction, distance));
+            newPositions.put(thing, direction.from(geometry, thing.getPosition(), distance));
         }
         return newPositions;
     }
 
+    /**
+     * @return a random cell that is not blocked and has empty terrain (or null if there is none)
+     */
     public Position findRandomFreePosition() {
-        int x = RNG.nextInt(dimX);
-        int y = RNG.nextInt(dimY);
-        final int startX = x;
-        final int startY = y;
-        while (!isUnblocked(Position.of(x,y)) || terrainMap[x][y] != Terrain.EMPTY) {
-            if (++x >= dimX) {
-                x = 0;
-                if (++y >= dimY) y = 0;
-            }
-            if (x == startX && y == startY) {
-                Log.log(Log.Level.ERROR, "No free position");
-                return null;
-            }
+        if (freeCells.size() == 0) {
+            Log.log(Log.Level.ERROR, "No free position");
+            return null;
         }
-        return Position.of(x, y);
+        return geometry.ofCell(freeCells.get(rng.nextInt(freeCells.size())));
     }
-    
+
+    /**
+     * Finds a free cell (cf. {@link #findRandomFreePosition()}) with enough cells of empty terrain around it,
+     * starting at a random free cell and trying the others after it.
+     * @return the empty cells of the cluster around the chosen cell (or null if there is no such cell)
+     */
     public ArrayList<Position> findRandomFreeClusterPosition(int clusterSize) {
         ArrayList<Position> cluster = new ArrayList<Position>();
-        int x = RNG.nextInt(dimX);
-        int y = RNG.nextInt(dimY);
         final int radius = (int) (Math.log(clusterSize)/Math.log(2)); 
-        final int startX = x;
-        final int startY = y;
-        
-        while (!isUnblocked(Position.of(x,y)) || terrainMap[x][y] != Terrain.EMPTY || !hasEnoughFreeSpots(Position.of(x,y),radius,clusterSize)) {
-            if (++x >= dimX) {
-                x = 0;
-                if (++y >= dimY) y = 0;
-            }
-            if (x == startX && y == startY) {
-                Log.log(Log.Level.ERROR, "No free position");
-                return null;
-            }
+        var candidates = freeCells.size();
+        var start = candidates > 0? rng.nextInt(candidates) : 0;
+        for (var i = 0; i < candidates; i++) {
+            var cell = freeCells.get((start + i) % candidates);
+            if (!hasEnoughFreeSpots(cell, radius, clusterSize)) continue;
+            geometry.spanArea(geometry.ofCell(cell), radius).forEach((p) -> {if(cluster.size() == clusterSize) return;  if(getTerrain(p) == Terrain.EMPTY) cluster.add(p);});
+            return cluster;
         }
-
-        Position.of(x, y).spanArea(radius).forEach((p) -> {if(cluster.size() == clusterSize) return;  if(getTerrain(p) == Terrain.EMPTY) cluster.add(p);});
-
-        return cluster;
+        Log.log(Log.Level.ERROR, "No free position");
+        return null;
     }
-    private boolean hasEnoughFreeSpots(Position origin, int radius, int numberPositionNeeded){
+
+    /**
+     * @return whether the area around the cell has at least the given number of cells with empty terrain
+     * (counted as often as they occur in {@link GridGeometry#spanArea}, i.e. one column of the area at a time)
+     */
+    private boolean hasEnoughFreeSpots(int origin, int radius, int numberPositionNeeded){
+        var x = geometry.cellX(origin);
+        var y = geometry.cellY(origin);
         int freeSpots = 0;
-        for (Position p : origin.spanArea(radius)) 
-            if (getTerrain(p) == Terrain.EMPTY)
-                freeSpots++;
+        for (var dx = -radius; dx <= radius; dx++) {
+            var dy = radius - Math.abs(dx);
+            freeSpots += countEmptyCells(geometry.wrappedX(x + dx), y - dy, 2 * dy + 1);
+        }
         return freeSpots >= numberPositionNeeded;
     }
 
-    public Position findRandomFreePosition(Position center, int maxDistance) {
+    /**
+     * Counts the cells with empty terrain in a part of a column (wrapping around, possibly more than once)
+     * from the prefix sums of the column.
+     * @param x the (wrapped) column
+     * @param fromY the first row
+     * @param length the number of rows
+     */
+    private int countEmptyCells(int x, int fromY, int length) {
+        if (emptyCellsAbove == null) {
+            emptyCellsAbove = new int[dimX * (dimY + 1)];
+            for (var col = 0; col < dimX; col++) {
+                var offset = col * (dimY + 1);
+                for (var row = 0; row < dimY; row++) {
+                    var empty = terrain[thingIndex.cellOf(col, row)] == EMPTY? 1 : 0;
+                    emptyCellsAbove[offset + row + 1] = emptyCellsAbove[offset + row] + empty;
+                }
+            }
+        }
+        var offset = x * (dimY + 1);
+        var total = emptyCellsAbove[offset + dimY];
+        var from = geometry.wrappedY(fromY);
+        var rest = length % dimY;
+        var count = (length / dimY) * total;
+        if (from + rest <= dimY) count += emptyCellsAbove[offset + from + rest] - emptyCellsAbove[offset + from];
+        else count += total - emptyCellsAbove[offset + from] + emptyCellsAbove[offset + from + rest - dimY];
+        return count;
+    }
+
+    /**
+     * @param stream the random numbers to use (instead of the ones the map was generated with)
+     */
+    public Position findRandomFreePosition(Position center, int maxDistance, RNG stream) {
         for (var i = 0; i < 50; i++) {
             int x = center.x;
             int y = center.y;
-            int dx = RNG.nextInt(maxDistance + 1);
-            int dy = RNG.nextInt(maxDistance + 1);
-            x += RNG.nextDouble() < .5? dx : -dx;
-            y += RNG.nextDouble() < .5? dy : -dy;
-            var target = Position.of(x, y);
+            int dx = stream.nextInt(maxDistance + 1);
+            int dy = stream.nextInt(maxDistance + 1);
+            x += stream.nextDouble() < .5? dx : -dx;
+            y += stream.nextDouble() < .5? dy : -dy;
+            var target = geometry.of(x, y);
             if (isUnblocked(target)) return target;
         }
         return null;
@@ -411,26 +773,48 @@ public class Grid {
         return isUnblocked(xy, Collections.emptySet());
     }
 
-    private boolean isUnblocked(Position xy, Set<Positionable> excludedObjects) {
-        if (outOfBounds(xy)) xy = xy.wrapped();
-        if (terrainMap[xy.x][xy.y] == Terrain.OBSTACLE) return false;
+    /**
+     * @return true if the cell is unblocked and has empty terrain, i.e. new things or obstacles may be placed there
+     */
+    public boolean isFree(Position xy) {
+        if (outOfBounds(xy)) xy = geometry.wrapped(xy);
+        return freeCells.contains(thingIndex.cellOf(xy.x, xy.y));
+    }
 
-        return getThings(xy).stream().noneMatch(t -> t instanceof Attachable && !excludedObjects.contains(t));
+    private boolean isUnblocked(Position xy, Set<? extends Positionable> excludedObjects) {
+        if (outOfBounds(xy)) xy = geometry.wrapped(xy);
+        var cell = thingIndex.cellOf(xy.x, xy.y);
+        if (!blocked.get(cell)) return true;
+        if (terrain[cell] == OBSTACLE || excludedObjects.isEmpty()) return false;
+
+        for (var i = 0; i < thingIndex.size(cell); i++) {
+            var thing = thingIndex.get(cell, i);
+            if (thing instanceof Attachable && !excludedObjects.contains(thing)) return false;
+        }
+        return true;
     }
 
     public void setTerrain(Position pos, Terrain terrainType) {
-        if (outOfBounds(pos)) pos = pos.wrapped();
-        terrainMap[pos.x][pos.y] = terrainType;
+        if (outOfBounds(pos)) pos = geometry.wrapped(pos);
+        var cell = thingIndex.cellOf(pos.x, pos.y);
+        if (terrain[cell] == terrainType.id) return;
+        putTerrain(cell, (byte) terrainType.id);
+        markDirty(cell);
+        snapshotTerrain.set(cell);
     }
 
     public Terrain getTerrain(Position pos) {
-        if (outOfBounds(pos)) pos = pos.wrapped();
-        return terrainMap[pos.x][pos.y];
+        if (outOfBounds(pos)) pos = geometry.wrapped(pos);
+        return TERRAIN_BY_ID[terrain[thingIndex.cellOf(pos.x, pos.y)]];
+    }
+
+    public Terrain getTerrain(int x, int y) {
+        return TERRAIN_BY_ID[terrain[thingIndex.cellOf(geometry.wrappedX(x), geometry.wrappedY(y))]];
     }
 
     public void createMarker(Position position, Marker.Type type) {
-        if (outOfBounds(position)) position = position.wrapped();
-        var marker = new Marker(position, type);
+        if (outOfBounds(position)) position = geometry.wrapped(position);
+        var marker = new Marker(nextObjectId(), position, type);
         markers.add(marker);
         insertThing(marker);
     }
@@ -440,7 +824,40 @@ public class Grid {
         markers.clear();
     }
 
-    public Position getRandomPosition() {
-        return Position.of(RNG.nextInt(dimX), RNG.nextInt(dimY));
+    /**
+     * @param stream the random numbers to use (instead of the ones the map was generated with)
+     */
+    public Position getRandomPosition(RNG stream) {
+        return geometry.of(stream.nextInt(dimX), stream.nextInt(dimY));
+    }
+
+    /**
+     * A movement of things computed without changing the grid (see {@link #planMove} and {@link #planRotation}).
+     */
+    public static final class Movement {
+        /** the things to move (in the order they are moved) */
+        private final Set<? extends Positionable> things;
+        /** the new positions or null if the movement is blocked */
+        private final Map<Positionable, Position> newPositions;
+        private final List<Position> readCells;
+
+        private Movement(Set<? extends Positionable> things, Map<Positionable, Position> newPositions,
+                         List<Position> readCells) {
+            this.things = things;
+            this.newPositions = newPositions;
+            this.readCells = readCells;
+        }
+
+        public boolean isPossible() {
+            return newPositions != null;
+        }
+
+        /**
+         * @return the cells the movement depends on: it is still valid if none of them changed and the things are
+         * still attached in the same way
+         */
+        public List<Position> getReadCells() {
+            return readCells;
+        }
     }
 }
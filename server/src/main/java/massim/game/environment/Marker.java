@@ -10,8 +10,8 @@ public class Marker extends Positionable {
 
     private Type type;
 
-    public Marker(Position pos, Type type) {
-        super(pos);
+    public Marker(int id, Position pos, Type type) {
+        super(id, pos);
         this.type = type;
     }
 
@@ -20,9 +20,8 @@ public class Marker extends Positionable {
     }
 
     @Override
-    public Thing toPercept(Position relativeTo) {
-        var pos = getPosition().relativeTo(relativeTo);
-        return new Thing(pos.x, pos.y, Thing.TYPE_MARKER, type.name);
+    public Thing toPercept(Position relativePosition) {
+        return new Thing(relativePosition.x, relativePosition.y, Thing.TYPE_MARKER, type.name);
     }
 
     @Override
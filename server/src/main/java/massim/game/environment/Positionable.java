@@ -6,7 +6,8 @@ public abstract class Positionable  extends GameObject {
 
     private Position position;
 
-    public Positionable(Position position) {
+    public Positionable(int id, Position position) {
+        super(id);
         this.position = position;
     }
 
@@ -0,0 +1,29 @@
+package massim.game.environment;
+
+/**
+ * The directions things can rotate in (as given in action parameters).
+ */
+public enum Rotation {
+
+    CW("cw"),
+    CCW("ccw");
+
+    public final String name;
+
+    Rotation(String name) {
+        this.name = name;
+    }
+
+    public boolean isClockwise() {
+        return this == CW;
+    }
+
+    /**
+     * @return the rotation with the given name or null if there is no such rotation
+     */
+    public static Rotation parse(String name) {
+        if ("cw".equals(name)) return CW;
+        if ("ccw".equals(name)) return CCW;
+        return null;
+    }
+}
@@ -11,8 +11,6 @@ import java.util.stream.Collectors;
 
 public class Task {
 
-    private static int lowerRewardLimit;
-
     private String name;
     private Map<Position, String> requirements;
     private int deadline;
@@ -21,7 +19,10 @@ public class Task {
     private int rewardDecay;
     private int minimumReward;
 
-    public Task(String name, int deadline, Map<Position, String> requirements, int rewardDecay) {
+    /**
+     * @param lowerRewardLimit the percentage of the initial reward that the reward does not decay below
+     */
+    public Task(String name, int deadline, Map<Position, String> requirements, int rewardDecay, int lowerRewardLimit) {
         this.name = name;
         this.deadline = deadline;
         this.requirements = requirements;
@@ -30,10 +31,6 @@ public class Task {
         this.minimumReward = (int) Math.ceil(reward/100. * lowerRewardLimit);
     }
 
-    public static void setLowerRewardLimit(int newLimit) {
-        lowerRewardLimit = newLimit;
-    }
-
     public String getName() {
         return name;
     }
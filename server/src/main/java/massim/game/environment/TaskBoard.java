@@ -3,16 +3,21 @@ package massim.game.environment;
 import massim.protocol.data.Position;
 import massim.protocol.data.Thing;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class TaskBoard extends Positionable {
 
-    public TaskBoard(Position position) {
-        super(position);
+    /** percepts only depend on the relative position, so they (and their JSON) are shared by all entities */
+    private final Map<Position, Thing> percepts = new ConcurrentHashMap<>();
+
+    public TaskBoard(int id, Position position) {
+        super(id, position);
     }
 
     @Override
-    public Thing toPercept(Position entity) {
-        var local = getPosition().relativeTo(entity);
-        return new Thing(local.x, local.y, Thing.TYPE_TASKBOARD, "");
+    public Thing toPercept(Position relativePosition) {
+        return percepts.computeIfAbsent(relativePosition, l -> Thing.immutable(l.x, l.y, Thing.TYPE_TASKBOARD, "")).copy();
     }
 
     @Override
@@ -0,0 +1,106 @@
+package massim.game.environment;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Flat, cell-indexed store of all things on the grid.
+ * A cell is identified by its id y * dimX + x, each cell holds a small array of things which is only
+ * allocated once something is put there.
+ */
+class ThingIndex {
+
+    private static final int INITIAL_CELL_CAPACITY = 2;
+
+    private final int dimX;
+    private final Positionable[][] things;
+    private final int[] sizes;
+
+    ThingIndex(int dimX, int dimY) {
+        this.dimX = dimX;
+        this.things = new Positionable[dimX * dimY][];
+        this.sizes = new int[dimX * dimY];
+    }
+
+    /**
+     * @return the id of the cell at the given (in-bounds) coordinates
+     */
+    int cellOf(int x, int y) {
+        return y * dimX + x;
+    }
+
+    void add(int cell, Positionable thing) {
+        var cellThings = things[cell];
+        var size = sizes[cell];
+        if (cellThings == null) {
+            cellThings = new Positionable[INITIAL_CELL_CAPACITY];
+            things[cell] = cellThings;
+        }
+        else if (size == cellThings.length) {
+            var grown = new Positionable[size * 2];
+            System.arraycopy(cellThings, 0, grown, 0, size);
+            cellThings = grown;
+            things[cell] = cellThings;
+        }
+        cellThings[size] = thing;
+        sizes[cell] = size + 1;
+    }
+
+    /**
+     * @return true if the thing was stored in the cell (and is now removed)
+     */
+    boolean remove(int cell, Positionable thing) {
+        var cellThings = things[cell];
+        var size = sizes[cell];
+        for (var i = 0; i < size; i++) {
+            if (cellThings[i] == thing) {
+                System.arraycopy(cellThings, i + 1, cellThings, i, size - i - 1);
+                cellThings[size - 1] = null;
+                sizes[cell] = size - 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of things in the cell
+     */
+    int size(int cell) {
+        return sizes[cell];
+    }
+
+    /**
+     * @return the i-th thing in the cell (no bounds check beyond the backing array)
+     */
+    Positionable get(int cell, int i) {
+        return things[cell][i];
+    }
+
+    /**
+     * @return an unmodifiable view of the cell's contents (reflects later changes, does not copy anything)
+     */
+    List<Positionable> view(int cell) {
+        return new CellView(cell);
+    }
+
+    private class CellView extends AbstractList<Positionable> {
+
+        private final int cell;
+
+        private CellView(int cell) {
+            this.cell = cell;
+        }
+
+        @Override
+        public Positionable get(int index) {
+            if (index < 0 || index >= sizes[cell]) throw new IndexOutOfBoundsException(index);
+            return things[cell][index];
+        }
+
+        @Override
+        public int size() {
+            return sizes[cell];
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package massim.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads 0-terminated frames from a stream or channel in bulk. Frames that are longer than the limit are skipped.
+ */
+public class FrameReader {
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final InputStream in;
+    private final int maxFrameLength;
+
+    private ByteBuffer buffer;
+    /** start of the current frame in the buffer */
+    private int start = 0;
+    /** next position to look for the terminator at */
+    private int scan = 0;
+    /** whether the rest of the current frame has to be skipped */
+    private boolean skipping = false;
+
+    /**
+     * @param maxFrameLength frames with more bytes than this are discarded
+     */
+    public FrameReader(InputStream in, int maxFrameLength) {
+        this.in = in;
+        this.maxFrameLength = maxFrameLength;
+        buffer = ByteBuffer.allocate(Math.max(1, Math.min(maxFrameLength + 1, INITIAL_CAPACITY)));
+        buffer.limit(0);
+    }
+
+    /**
+     * Creates a reader that is fed by {@link #read(ReadableByteChannel)}.
+     * @param maxFrameLength frames with more bytes than this are discarded
+     */
+    public FrameReader(int maxFrameLength) {
+        this(null, maxFrameLength);
+    }
+
+    /**
+     * Blocks until the next frame is complete.
+     * @return a buffer holding exactly the next frame (without the terminator) which is only valid until the
+     * next call or null if the stream ended
+     * @throws IOException if reading from the stream fails
+     */
+    public ByteBuffer next() throws IOException {
+        while (true) {
+            var frame = poll();
+            if (frame != null) return frame;
+            var end = makeSpace();
+            var read = in.read(buffer.array(), end, buffer.capacity() - end);
+            if (read < 0) return null;
+            buffer.limit(end + read);
+        }
+    }
+
+    /**
+     * Reads as many bytes as the channel has available (without blocking if the channel is non-blocking).
+     * All frames have to be taken with {@link #poll()} before reading again.
+     * @return the number of bytes read or -1 if the channel has reached end-of-stream
+     * @throws IOException if reading from the channel fails
+     */
+    public int read(ReadableByteChannel channel) throws IOException {
+        var end = makeSpace();
+        buffer.limit(buffer.capacity()).position(end);
+        var read = channel.read(buffer);
+        buffer.limit(buffer.position()).position(0);
+        return read;
+    }
+
+    /**
+     * @return a buffer holding exactly the next frame that was read completely (without the terminator) which is
+     * only valid until the next call, or null if there is none
+     */
+    public ByteBuffer poll() {
+        var data = buffer.array();
+        var end = buffer.limit();
+        for (; scan < end; scan++) {
+            if (data[scan] != 0) continue;
+            var frameStart = start;
+            var frameEnd = scan;
+            start = ++scan;
+            if (skipping) {
+                skipping = false;
+                continue;
+            }
+            return ByteBuffer.wrap(data, frameStart, frameEnd - frameStart).slice();
+        }
+        return null;
+    }
+
+    /**
+     * Drops data of complete or skipped frames and grows the buffer if necessary.
+     * @return the end of the remaining data, after which new bytes can be put
+     */
+    private int makeSpace() {
+        var data = buffer.array();
+        var end = buffer.limit();
+        if (skipping || scan - start > maxFrameLength) {
+            if (!skipping) Log.log(Log.Level.ERROR, "Skipping packet larger than " + maxFrameLength + " bytes.");
+            skipping = true;
+            start = scan = end = 0;
+        }
+        else if (start > 0) { // move the incomplete frame to the front
+            System.arraycopy(data, start, data, 0, end - start);
+            end -= start;
+            scan -= start;
+            start = 0;
+        }
+        if (end == data.length) {
+            var grown = ByteBuffer.allocate(Math.min(data.length * 2, maxFrameLength + 1));
+            grown.put(data, 0, end);
+            buffer = grown;
+        }
+        buffer.limit(end).position(0);
+        return end;
+    }
+}
@@ -6,23 +6,47 @@ import java.util.Random;
 
 /**
  * Implements the random number generation (wraps standard Java Random for now).
+ * Each simulation has its own instance, so that simulations running at the same time do not affect each other.
+ * Independent parts of a simulation draw from separate {@link #stream(String) streams}.
  */
-public abstract class RNG {
+public class RNG {
 
-    private static Random random = new Random(System.currentTimeMillis());
+    private final long seed;
+    private final Random random;
 
     /**
-     * Initializes the rng to the given seed.
+     * Creates a new rng with the given seed.
      * @param seed the seed for the rng
      */
-    public static synchronized void initialize(long seed){
+    public RNG(long seed){
+        this.seed = seed;
         random = new Random(seed);
     }
 
+    /**
+     * Derives a stream of random numbers which only depends on this rng's seed and the name.
+     * Drawing from one stream (or from this rng) never changes the numbers of another stream.
+     * @param name the purpose of the stream
+     * @return a new rng
+     */
+    public RNG stream(String name) {
+        return new RNG(mix(seed ^ mix(name.hashCode())));
+    }
+
+    /**
+     * Scrambles the bits of a value (finalizer of the SplitMix64 generator), so that similar seeds and names
+     * yield unrelated streams.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
     /**
      * @see Random#nextInt()
      */
-    public static synchronized int nextInt(){
+    public int nextInt(){
         return random.nextInt();
     }
 
@@ -30,25 +54,25 @@ public abstract class RNG {
      * (upper bound  exclusive)
      * @see Random#nextInt(int)
      */
-    public static synchronized int nextInt(int bound){
+    public int nextInt(int bound){
         return random.nextInt(bound);
     }
 
     /**
      * @see Random#nextDouble()
      */
-    public static synchronized double nextDouble(){ return random.nextDouble(); }
+    public double nextDouble(){ return random.nextDouble(); }
 
     /**
      * Shuffles a list with the internal random object.
      * @see Collections#shuffle
      * @param list the list to shuffle
      */
-    public static synchronized void shuffle(List<?> list){
+    public void shuffle(List<?> list){
         Collections.shuffle(list, random);
     }
 
-    public static synchronized int betweenClosed(int lower, int upper){
+    public int betweenClosed(int lower, int upper){
         return lower + nextInt(upper - lower + 1);
     }
 }
@@ -0,0 +1,51 @@
+package massim.game;
+
+import massim.config.ServerConfig;
+import massim.config.TeamConfig;
+import massim.protocol.messages.ActionMessage;
+import massim.util.IOUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+public class ActionResolutionTest {
+
+    private static final String[] ACTIONS = {"move", "move", "rotate", "attach", "attach", "detach", "request",
+            "connect", "clear", "skip"};
+    private static final String[] DIRECTIONS = {"n", "s", "e", "w"};
+
+    @Test
+    public void batchedResultsEqualSequentialResults() throws IOException {
+        var config = IOUtil.readJSONObjectWithImport("conf/sim/sim1.json");
+        var teams = new LinkedHashSet<TeamConfig>();
+        for (var name : List.of("A", "B")) {
+            var team = new TeamConfig(name);
+            for (var i = 1; i <= 15; i++) team.addAgent("agent" + name + i, "1");
+            teams.add(team);
+        }
+
+        var steps = 100;
+        var sim = new Simulation(5);
+        sim.setActionResolution(ServerConfig.ACTIONS_COMPARE);
+        sim.init(steps, config, teams);
+        var random = new Random(1);
+        for (var step = 0; step < steps; step++) {
+            var actions = new HashMap<String, GameAction>();
+            for (var agent : new TreeSet<>(sim.preStep(step).keySet())) {
+                var action = ACTIONS[random.nextInt(ACTIONS.length)];
+                List<String> params;
+                switch (action) {
+                    case "rotate": params = List.of(random.nextBoolean()? "cw" : "ccw"); break;
+                    case "connect": params = List.of("agent" + agent.charAt(5) + (1 + random.nextInt(15)), "0", "1"); break;
+                    case "clear": params = List.of("" + (random.nextInt(3) - 1), "" + (random.nextInt(3) - 1)); break;
+                    default: params = List.of(DIRECTIONS[random.nextInt(DIRECTIONS.length)]);
+                }
+                actions.put(agent, GameAction.of(new ActionMessage(action, step, new ArrayList<>(params))));
+            }
+            sim.step(step, actions);
+        }
+        sim.finish();
+        assert sim.getMismatches() == 0 : sim.getMismatches();
+    }
+}
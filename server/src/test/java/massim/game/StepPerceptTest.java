@@ -0,0 +1,108 @@
+package massim.game;
+
+import massim.config.TeamConfig;
+import massim.game.environment.Direction;
+import massim.game.environment.Rotation;
+import massim.protocol.data.Position;
+import massim.protocol.messages.RequestActionMessage;
+import massim.protocol.messages.scenario.StepPercept;
+import massim.util.IOUtil;
+import massim.util.RNG;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+public class StepPerceptTest {
+
+    private static final int STEPS = 60;
+
+    @Test
+    public void reusedPerceptsEqualFullPercepts() throws IOException {
+        var state = createState();
+        var random = new Random(3);
+        for (var step = 0; step < STEPS; step++) {
+            var percepts = state.prepareStep(step);
+            for (var agent : percepts.keySet()) {
+                assert describe(percepts.get(agent)).equals(describe(state.buildFullStepPercept(agent)))
+                        : "step " + step + ", " + agent;
+            }
+            act(state, percepts.keySet(), step, random);
+        }
+        state.close();
+    }
+
+    @Test
+    public void parallelPerceptsEqualSequentialPercepts() throws IOException {
+        var sequential = createState();
+        var parallel = createState();
+        parallel.setPerceptThreads(4);
+        var sequentialRandom = new Random(5);
+        var parallelRandom = new Random(5);
+        for (var step = 0; step < STEPS; step++) {
+            var expected = sequential.prepareStep(step);
+            var percepts = parallel.prepareStep(step);
+            assert percepts.keySet().equals(expected.keySet());
+            for (var agent : expected.keySet()) {
+                assert describe(percepts.get(agent)).equals(describe(expected.get(agent)))
+                        : "step " + step + ", " + agent;
+            }
+            act(sequential, expected.keySet(), step, sequentialRandom);
+            act(parallel, percepts.keySet(), step, parallelRandom);
+        }
+        sequential.close();
+        parallel.close();
+    }
+
+    private static GameState createState() throws IOException {
+        var config = IOUtil.readJSONObjectWithImport("conf/sim/sim1.json");
+        var teams = new LinkedHashSet<TeamConfig>();
+        for (var name : List.of("A", "B")) {
+            var team = new TeamConfig(name);
+            for (var i = 1; i <= 15; i++) team.addAgent("agent" + name + i, "1");
+            teams.add(team);
+        }
+        return new GameState(config, teams, new RNG(11));
+    }
+
+    /**
+     * Lets each agent (in a fixed order) move, rotate, attach, detach, request or clear at random.
+     * Some agents keep clearing the same cell, so that clear actions also complete.
+     */
+    private static void act(GameState state, Set<String> agents, int step, Random random) {
+        var directions = Direction.values();
+        for (var agent : new TreeSet<>(agents)) {
+            var entity = state.getEntityByName(agent);
+            var direction = directions[random.nextInt(directions.length)];
+            var action = random.nextInt(7);
+            if (agent.endsWith("1") && step % 10 != 0) action = 6;
+            switch (action) {
+                case 0: case 1: state.handleMoveAction(entity, direction); break;
+                case 2: state.handleRotateAction(entity, random.nextBoolean()? Rotation.CW : Rotation.CCW); break;
+                case 3: state.handleAttachAction(entity, direction); break;
+                case 4: state.handleDetachAction(entity, direction); break;
+                case 5: state.handleRequestAction(entity, direction); break;
+                default: state.handleClearAction(entity, Position.of(2, 0));
+            }
+        }
+    }
+
+    private static String describe(RequestActionMessage message) {
+        var percept = (StepPercept) message;
+        var things = new TreeSet<String>();
+        percept.things.forEach(t -> things.add(t.toString()));
+        var terrain = new TreeMap<String, Set<String>>();
+        percept.terrain.forEach((type, positions) -> {
+            var sorted = new TreeSet<String>();
+            positions.forEach(p -> sorted.add(p.toString()));
+            terrain.put(type, sorted);
+        });
+        var attached = new TreeSet<String>();
+        percept.attachedThings.forEach(p -> attached.add(p.toString()));
+        var tasks = new TreeSet<String>();
+        percept.taskInfo.forEach(t -> tasks.add(t.toJSON().toString()));
+        return percept.getStep() + " " + things + terrain + attached + tasks + percept.lastAction
+                + percept.lastActionParams + percept.lastActionResult + percept.score + percept.task
+                + percept.energy + percept.disabled;
+    }
+}
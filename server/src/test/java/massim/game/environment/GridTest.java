@@ -1,6 +1,7 @@
 package massim.game.environment;
 
 import massim.config.TeamConfig;
+import massim.game.Entity;
 import massim.game.environment.Block;
 import massim.game.environment.Terrain;
 import massim.protocol.data.Position;
@@ -21,8 +22,6 @@ public class GridTest {
 
     @org.junit.Before
     public void setUp() {
-        RNG.initialize(17);
-        
         this.gridjson = new JSONObject();
         this.gridjson.put("height", 70);
         this.gridjson.put("width", 70);
@@ -35,12 +34,11 @@ public class GridTest {
         this.gridjson.put("height", 5);
         this.gridjson.put("width", 5);
         System.out.println(this.gridjson.toString());
-        Grid grid = new Grid(this.gridjson, 10, 8);
+        Grid grid = new Grid(this.gridjson, 10, 8, new RNG(17));
 
         printGridTerrain(grid);
         
         System.out.println("Testing cluster size 1");
-        RNG.initialize(15);
         ArrayList<Position> cluster = grid.findRandomFreeClusterPosition(1);
         assertNotNull(cluster);
         assert(cluster.size()==1);
@@ -49,18 +47,156 @@ public class GridTest {
         assert(cluster.get(0).toString().equals("(2,2)"));
 
         System.out.println("Testing cluster size 3");
-        RNG.initialize(15);
         printGridTerrain(grid);
         ArrayList<Position> cluster3 = grid.findRandomFreeClusterPosition(3);
         assertNotNull(cluster3);
         assert(cluster3.size()==3);
 
         assert(grid.getTerrain(cluster3.get(0)) == Terrain.EMPTY);
-        assert(cluster3.get(0).toString().equals("(3,0)"));
+        assert(cluster3.get(0).toString().equals("(4,2)"));
         assert(grid.getTerrain(cluster3.get(1)) == Terrain.EMPTY);
-        assert(cluster3.get(1).toString().equals("(3,1)"));
+        assert(cluster3.get(1).toString().equals("(0,1)"));
         assert(grid.getTerrain(cluster3.get(2)) == Terrain.EMPTY);
-        assert(cluster3.get(2).toString().equals("(4,0)"));
+        assert(cluster3.get(2).toString().equals("(0,2)"));
+    }
+
+    @org.junit.Test
+    public void thingsFollowMovesAndRemoval() {
+        // no obstacles, so that the block can always move
+        this.gridjson.put("instructions", new JSONArray());
+        this.gridjson.put("goals", new JSONObject("{\"number\" : 0,\"size\" : [1,1]}"));
+        Grid grid = new Grid(this.gridjson, 10, 8, new RNG(17));
+        var start = Position.of(10, 10);
+        var block = grid.createBlock(start, "b0");
+        assertNotNull(block);
+
+        var view = grid.getThingsView(start);
+        assert(view.size() == 1 && view.contains(block));
+        assert(!grid.isUnblocked(start));
+        var targetView = grid.getThingsView(11, 10);
+        assert(targetView.isEmpty());
+
+        assert(grid.moveWithAttached(block, Direction.E, 1));
+        assert(block.getPosition().equals(Position.of(11, 10)));
+        assert(view.isEmpty());
+        assert(targetView.size() == 1 && targetView.contains(block));
+        assert(grid.isUnblocked(start));
+        assert(!grid.isUnblocked(block.getPosition()));
+        assert(grid.getThings(block.getPosition()).contains(block));
+
+        var target = block.getPosition();
+        grid.destroyThing(block);
+        assert(grid.getThingsView(target).isEmpty());
+        assert(grid.getThingsView(Position.of(target.x + grid.getDimX(), target.y)).isEmpty());
+    }
+
+    @org.junit.Test
+    public void connectedAttachablesAreTracked() {
+        var entity = new Entity(1, Position.of(0, 0), "agentA1", "A", 100);
+        var b1 = new Block(2, Position.of(1, 0), "b0");
+        var b2 = new Block(3, Position.of(2, 0), "b0");
+        var b3 = new Block(4, Position.of(3, 0), "b0");
+        b1.attach(entity);
+        b1.attach(b2);
+        b2.attach(b3);
+        b3.attach(b1); // a cycle
+        assert(entity.getConnectedCount() == 4 && b3.getConnected().contains(entity));
+        assert(b2.isAttachedToAnotherEntity() && !entity.isAttachedToAnotherEntity());
+
+        // still connected through b3
+        b1.detach(b2);
+        assert(b2.isConnected(entity) && b2.getConnectedCount() == 4);
+
+        b1.detach(b3);
+        assert(!b2.isConnected(entity) && b2.isConnected(b3));
+        assert(entity.getConnectedCount() == 2 && b3.getConnectedCount() == 2);
+        assert(!b2.isAttachedToAnotherEntity() && b1.isAttachedToAnotherEntity());
+        assert(b2.collectAllAttachments().equals(Set.of(b2, b3)));
+
+        entity.detachAll();
+        assert(entity.getConnected().equals(Set.of(entity)) && !b1.isConnected(entity));
+    }
+
+    @org.junit.Test
+    public void occupancyFollowsThingsAndTerrain() {
+        this.gridjson.put("instructions", new JSONArray());
+        this.gridjson.put("goals", new JSONObject("{\"number\" : 0,\"size\" : [1,1]}"));
+        Grid grid = new Grid(this.gridjson, 10, 8, new RNG(17));
+        var free = Position.of(42, 17);
+        for (var x = 0; x < grid.getDimX(); x++) { for (var y = 0; y < grid.getDimY(); y++) {
+            if (x != free.x || y != free.y) grid.setTerrain(Position.of(x, y), Terrain.OBSTACLE);
+        }}
+        assert(grid.findRandomFreePosition().equals(free));
+
+        grid.createMarker(free, Marker.Type.CLEAR);
+        assert(grid.isUnblocked(free));
+        var block = grid.createBlock(free, "b0");
+        assert(!grid.isUnblocked(free) && grid.findRandomFreePosition() == null);
+
+        grid.destroyThing(block);
+        assert(grid.isFree(free) && grid.findRandomFreePosition().equals(free));
+
+        grid.setTerrain(free, Terrain.GOAL);
+        assert(grid.isUnblocked(free) && !grid.isFree(free) && grid.findRandomFreePosition() == null);
+        grid.setTerrain(free, Terrain.OBSTACLE);
+        assert(!grid.isUnblocked(free));
+    }
+
+    @org.junit.Test
+    public void areaVisitorMatchesSpanArea() {
+        for (var size : new int[]{70, 5}) {
+            this.gridjson.put("height", size);
+            this.gridjson.put("width", size);
+            Grid grid = new Grid(this.gridjson, 10, 8, new RNG(17));
+            for (var center : List.of(Position.of(0, 0), Position.of(3, 4), Position.of(size - 1, 2))) {
+                for (var radius = 0; radius <= 6; radius++) {
+                    var expected = grid.getGeometry().spanArea(center, radius);
+                    var visited = new ArrayList<Position>();
+                    var area = grid.getAreaOffsets(radius);
+                    var offsetsAreRelative = 2 * radius < size;
+                    grid.forEachCellInArea(center, radius, (index, x, y, relative) -> {
+                        var pos = Position.of(x, y);
+                        assert(index == visited.size());
+                        visited.add(pos);
+                        assert(relative.equals(grid.getGeometry().relativeTo(pos, center)));
+                        if (offsetsAreRelative) assert(area.indexOf(relative.x, relative.y) == index);
+                    });
+                    assert(visited.equals(expected));
+                    assert(area.size() == expected.size());
+                    assert(area.indexOf(radius + 1, 0) == -1);
+                }
+            }
+        }
+    }
+
+    @org.junit.Test
+    public void changedCellsAreMarkedDirty() {
+        Grid grid = new Grid(this.gridjson, 10, 8, new RNG(17));
+        grid.clearDirtyCells();
+        assert(grid.getDirtyCellCount() == 0);
+
+        var start = grid.findRandomFreePosition();
+        var block = grid.createBlock(start, "b0");
+        assert(grid.isDirty(start.x, start.y));
+        assert(grid.getDirtyCellCount() == 1);
+        grid.clearDirtyCells();
+
+        grid.setTerrain(start, grid.getTerrain(start));
+        assert(grid.getDirtyCellCount() == 0);
+
+        for (var direction : Direction.values()) {
+            if (grid.moveWithAttached(block, direction, 1)) {
+                var target = block.getPosition();
+                assert(grid.isDirty(start.x, start.y) && grid.isDirty(target.x, target.y));
+                assert(grid.getDirtyCellCount() == 2);
+                break;
+            }
+        }
+        grid.clearDirtyCells();
+
+        grid.createMarker(start, Marker.Type.CLEAR);
+        grid.deleteMarkers();
+        assert(grid.isDirty(start.x, start.y) && grid.getDirtyCellCount() == 1);
     }
 
     private void printGridTerrain(Grid grid){
@@ -0,0 +1,102 @@
+package massim.monitor;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class CompactReplayTest {
+
+    private static final int STEPS = 47;
+
+    @Test
+    public void stepsCanBeReadInAnyOrder() throws IOException {
+        var snapshots = snapshots();
+        var file = write(snapshots);
+
+        try (var reader = new CompactReplay.Reader(file)) {
+            assert reader.readStatic().similar(staticData());
+            assert reader.getSteps().size() == snapshots.size();
+            for (var step : new int[]{30, 31, 32, 5, -1, 46, 0, 19, 20, 21, 20}) {
+                assert reader.readStep(step).similar(snapshots.get(step + 1)) : "step " + step;
+            }
+            assert reader.readStep(STEPS) == null;
+        }
+        file.delete();
+    }
+
+    @Test
+    public void filesWithoutIndexAreScanned() throws IOException {
+        var snapshots = snapshots();
+        var file = write(snapshots);
+        // cut off the index (static offset, size, entries, index offset and magic) and the end of the last record
+        var indexLength = 8 + 4 + 20 * snapshots.size() + 8 + 4;
+        try (var raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - indexLength - 5);
+        }
+
+        try (var reader = new CompactReplay.Reader(file)) {
+            assert reader.readStatic().similar(staticData());
+            var steps = reader.getSteps();
+            assert !steps.isEmpty() && steps.size() < snapshots.size();
+            for (var step : steps) assert reader.readStep(step).similar(snapshots.get(step + 1));
+        }
+        file.delete();
+    }
+
+    @Test
+    public void deltasRestoreSnapshots() {
+        var snapshots = snapshots();
+        for (var i = 1; i < snapshots.size(); i++) {
+            var delta = CompactReplay.delta(snapshots.get(i - 1), snapshots.get(i));
+            assert CompactReplay.applyDelta(snapshots.get(i - 1), delta).similar(snapshots.get(i));
+        }
+    }
+
+    private static File write(List<JSONObject> snapshots) throws IOException {
+        var file = File.createTempFile("massim", CompactReplay.FILE_EXTENSION);
+        try (var writer = new CompactReplay.Writer(file, 10)) {
+            writer.writeStatic(staticData());
+            for (var snapshot : snapshots) writer.writeStep(snapshot);
+        }
+        return file;
+    }
+
+    private static JSONObject staticData() {
+        return new JSONObject().put("sim", "test").put("steps", STEPS).put("grid", new JSONObject().put("width", 8));
+    }
+
+    /**
+     * @return snapshots of steps -1 to STEPS - 1 where a few things change each step
+     */
+    private static List<JSONObject> snapshots() {
+        var random = new Random(3);
+        var cells = new int[8][8];
+        var entities = new ArrayList<JSONObject>();
+        for (var i = 0; i < 4; i++) entities.add(new JSONObject().put("id", i).put("x", i).put("y", 0));
+        var result = new ArrayList<JSONObject>();
+        for (var step = -1; step < STEPS; step++) {
+            cells[random.nextInt(8)][random.nextInt(8)] = random.nextInt(3);
+            var moved = random.nextInt(entities.size());
+            entities.set(moved, new JSONObject().put("id", moved).put("x", random.nextInt(8)).put("y", step));
+            var blocks = new JSONArray();
+            for (var i = 0; i < random.nextInt(4); i++) blocks.put(new JSONObject().put("x", i).put("type", "b1"));
+
+            var snapshot = new JSONObject();
+            snapshot.put("step", step);
+            snapshot.put("cells", new JSONArray(cells));
+            snapshot.put("entities", new JSONArray(entities));
+            snapshot.put("blocks", blocks);
+            snapshot.put("scores", new JSONObject().put("A", step * 10));
+            if (step % 7 == 0) snapshot.put("clear", new JSONArray().put(new JSONObject().put("x", step)));
+            result.add(snapshot);
+        }
+        return result;
+    }
+}
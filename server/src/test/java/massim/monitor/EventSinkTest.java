@@ -0,0 +1,77 @@
+package massim.monitor;
+
+import org.webbitserver.WebSocketConnection;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class EventSinkTest {
+
+    @Test
+    public void slowClientsOnlyGetTheLatestState() {
+        var sink = new EventSink("test");
+        var fast = new FakeConnection();
+        var slow = new FakeConnection();
+        sink.onOpen(fast.connection);
+        sink.onOpen(slow.connection);
+
+        sink.broadcast("static", false);
+        for (var step = 0; step < 5; step++) {
+            var complete = "complete" + step;
+            sink.broadcastDelta("delta" + step, () -> complete);
+            fast.confirmAll(sink);
+        }
+        // the clients connected before there was a state, so they get the first one completely
+        assert fast.messages.equals(List.of("static", "complete0", "delta1", "delta2", "delta3", "delta4"))
+                : fast.messages;
+        // the slow client did not answer after the first two messages
+        assert slow.messages.equals(List.of("static", "complete0")) : slow.messages;
+
+        slow.confirmAll(sink);
+        // deltas 1 to 3 were dropped, so the client needs the complete state
+        assert slow.messages.equals(List.of("static", "complete0", "complete4")) : slow.messages;
+        assert sink.getDroppedMessages() == 3;
+
+        sink.broadcastDelta("delta5", () -> "complete5");
+        assert slow.messages.get(slow.messages.size() - 1).equals("delta5");
+    }
+
+    @Test
+    public void newClientsGetTheCompleteState() {
+        var sink = new EventSink("test");
+        sink.broadcast("static", false);
+        sink.broadcast("state0", true);
+        sink.broadcastDelta("delta1", () -> "complete1");
+
+        var client = new FakeConnection();
+        sink.onOpen(client.connection);
+        assert client.messages.equals(List.of("static", "complete1")) : client.messages;
+    }
+
+    /**
+     * Records the messages and pings sent to a client.
+     */
+    private static class FakeConnection {
+        private final List<String> messages = new ArrayList<>();
+        private final List<byte[]> pings = new ArrayList<>();
+        private final WebSocketConnection connection = (WebSocketConnection) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[]{WebSocketConnection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("send")) messages.add((String) args[0]);
+                    else if (method.getName().equals("ping")) pings.add((byte[]) args[0]);
+                    else if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                    else if (method.getName().equals("equals")) return proxy == args[0];
+                    return method.getReturnType().isInstance(proxy)? proxy : null;
+                });
+
+        private void confirmAll(EventSink sink) {
+            while (!pings.isEmpty()) {
+                var ping = pings.remove(0);
+                assert ByteBuffer.wrap(ping).getLong() > 0;
+                sink.onPong(connection, ping);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package massim.monitor;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class SnapshotDeltaTest {
+
+    @Test
+    public void deltaIsMergedById() {
+        var previous = new JSONObject()
+                .put("step", 3)
+                .put("cells", new JSONArray("[[0,0],[0,1]]"))
+                .put("entities", new JSONArray("[{\"id\":1,\"x\":0},{\"id\":2,\"x\":1}]"))
+                .put("blocks", new JSONArray("[{\"id\":5,\"x\":1},{\"id\":6,\"x\":0}]"))
+                .put("scores", new JSONObject().put("A", 10));
+        var delta = new JSONObject()
+                .put("delta", true)
+                .put("step", 4)
+                .put("cells", new JSONArray("[[1,0,2]]"))
+                .put("entities", new JSONArray("[{\"id\":2,\"x\":0}]"))
+                .put("blocks", new JSONArray("[{\"id\":7,\"x\":1}]"))
+                .put("removed", new JSONArray("[6]"))
+                .put("scores", new JSONObject().put("A", 20));
+
+        assert SnapshotDelta.isDelta(delta) && !SnapshotDelta.isDelta(previous);
+        var expected = new JSONObject()
+                .put("step", 4)
+                .put("cells", new JSONArray("[[0,2],[0,1]]"))
+                .put("entities", new JSONArray("[{\"id\":1,\"x\":0},{\"id\":2,\"x\":0}]"))
+                .put("blocks", new JSONArray("[{\"id\":5,\"x\":1},{\"id\":7,\"x\":1}]"))
+                .put("dispensers", new JSONArray())
+                .put("taskboards", new JSONArray())
+                .put("scores", new JSONObject().put("A", 20));
+        var snapshot = SnapshotDelta.apply(previous, delta);
+        assert snapshot.similar(expected) : snapshot;
+        assert SnapshotDelta.apply(snapshot, delta).similar(expected);
+        // the previous snapshot is unchanged
+        assert previous.getJSONArray("cells").getJSONArray(0).getInt(1) == 0;
+    }
+}
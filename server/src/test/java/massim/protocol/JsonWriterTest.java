@@ -0,0 +1,51 @@
+package massim.protocol;
+
+import massim.protocol.data.Position;
+import massim.protocol.data.TaskInfo;
+import massim.protocol.data.Thing;
+import massim.protocol.messages.AuthResponseMessage;
+import massim.protocol.messages.Message;
+import massim.protocol.messages.SimEndMessage;
+import massim.protocol.messages.scenario.StepPercept;
+import massim.protocol.messages.scenario.StepPerceptDelta;
+import org.json.JSONArray;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+
+public class JsonWriterTest {
+
+    @org.junit.Test
+    public void streamedMessagesMatchJsonObjects() throws IOException {
+        var requirement = Set.of(new Thing(0, 1, "b0", ""));
+        var tasks = Set.of(new TaskInfo("task0", 50, 40, requirement), new TaskInfo("</task1>", 60, 30, requirement));
+        var terrain = new HashMap<String, Set<Position>>();
+        for (var type : List.of("obstacle", "goal", "other", "\"quoted\"", "\u00fcnicode\n"))
+            terrain.put(type, Set.of(Position.of(type.length(), -1), Position.of(0, 2)));
+        var things = Set.of(new Thing(0, 0, Thing.TYPE_ENTITY, "A"), new Thing(2, -1, Thing.TYPE_BLOCK, null),
+                Thing.immutable(-3, 0, Thing.TYPE_DISPENSER, "b1").copy());
+
+        var percept = new StepPercept(12, 7, things, terrain, tasks, "move", List.of("n", "\\"), "success",
+                Set.of(Position.of(1, 0)), null);
+        percept.updateIdAndDeadline(3, 12345);
+        assertSameJson(percept);
+
+        var tasksJSON = new JSONArray();
+        tasks.forEach(t -> tasksJSON.put(t.toJSON()));
+        percept.setTasksJSON(tasksJSON);
+        assertSameJson(percept);
+
+        var next = new StepPercept(13, 7, Set.of(), Map.of(), Set.of(), null, List.of(), null, Set.of(), "task0");
+        assertSameJson(next);
+        assertSameJson(StepPerceptDelta.between(percept, next, Position.of(0, 1)));
+        assertSameJson(new SimEndMessage(100, 1));
+        assertSameJson(new AuthResponseMessage(1, AuthResponseMessage.OK));
+    }
+
+    private static void assertSameJson(Message message) throws IOException {
+        var out = new StringWriter();
+        message.writeJson(new JsonWriter(out));
+        assert out.toString().equals(message.toJson().toString());
+    }
+}
@@ -0,0 +1,63 @@
+package massim.protocol.data;
+
+import org.junit.Test;
+
+public class GridGeometryTest {
+
+    @Test
+    public void distance() {
+        var geometry = new GridGeometry(100, 100);
+
+        var p1 = Position.of(99,99);
+        var p2 = Position.of(0,99);
+        var p3 = Position.of(99,0);
+        var p4 = Position.of(0,0);
+        var p5 = Position.of(0,50);
+
+        assert geometry.distance(p1, p2) == 1;
+        assert geometry.distance(p1, p3) == 1;
+        assert geometry.distance(p1, p4) == 2;
+        assert geometry.distance(p2, p3) == 2;
+        assert geometry.distance(p2, p4) == 1;
+        assert geometry.distance(p3, p4) == 1;
+
+        assert geometry.distance(p1, p2) == geometry.distance(p2, p1);
+        assert geometry.distance(p1, p3) == geometry.distance(p3, p1);
+        assert geometry.distance(p1, p4) == geometry.distance(p4, p1);
+        assert geometry.distance(p2, p3) == geometry.distance(p3, p2);
+        assert geometry.distance(p2, p4) == geometry.distance(p4, p2);
+        assert geometry.distance(p3, p4) == geometry.distance(p4, p3);
+
+        assert geometry.distance(p4, p5) == 50;
+        assert geometry.distance(p5, p4) == 50;
+    }
+
+    @Test
+    public void cellsAndCaching() {
+        var geometry = new GridGeometry(40, 30);
+
+        assert geometry.of(3, 4) == geometry.of(3, 4);
+        assert geometry.of(39, 29) == geometry.wrapped(-1, -1);
+        assert geometry.of(-1, 5).equals(Position.of(-1, 5));
+
+        assert geometry.cell(-1, -1) == 29 * 40 + 39;
+        assert geometry.ofCell(geometry.cell(-1, -1)).equals(geometry.wrapped(-1, -1));
+        assert geometry.cellX(geometry.cell(Position.of(5, 7))) == 5;
+        assert geometry.cellY(geometry.cell(Position.of(5, 7))) == 7;
+
+        assert geometry.distance(0, 0, 39, 29) == geometry.distance(Position.of(0, 0), Position.of(39, 29));
+    }
+
+    @Test
+    public void independentGeometries() {
+        var small = new GridGeometry(10, 10);
+        var large = new GridGeometry(50, 50);
+
+        assert small.wrapped(12, 3).equals(Position.of(2, 3));
+        assert large.wrapped(12, 3).equals(Position.of(12, 3));
+        assert small.relativeTo(Position.of(9, 0), Position.of(0, 0)).equals(Position.of(-1, 0));
+        assert large.relativeTo(Position.of(9, 0), Position.of(0, 0)).equals(Position.of(9, 0));
+        assert small.translate(Position.of(0, 0), 0, -1).equals(Position.of(0, 9));
+        assert large.rotated90(Position.of(1, 0), Position.of(0, 0), true).equals(Position.of(0, 1));
+    }
+}
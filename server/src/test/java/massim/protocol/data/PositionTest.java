@@ -7,31 +7,11 @@ import static org.junit.Assert.*;
 public class PositionTest {
 
     @Test
-    public void distanceTo() {
-        int dim = 100;
-        Position.setGridDimensions(dim, dim);
-
-        var p1 = Position.of(99,99);
-        var p2 = Position.of(0,99);
-        var p3 = Position.of(99,0);
-        var p4 = Position.of(0,0);
-        var p5 = Position.of(0,50);
-
-        assert p1.distanceTo(p2) == 1;
-        assert p1.distanceTo(p3) == 1;
-        assert p1.distanceTo(p4) == 2;
-        assert p2.distanceTo(p3) == 2;
-        assert p2.distanceTo(p4) == 1;
-        assert p3.distanceTo(p4) == 1;
-
-        assert p1.distanceTo(p2) == p2.distanceTo(p1);
-        assert p1.distanceTo(p3) == p3.distanceTo(p1);
-        assert p1.distanceTo(p4) == p4.distanceTo(p1);
-        assert p2.distanceTo(p3) == p3.distanceTo(p2);
-        assert p2.distanceTo(p4) == p4.distanceTo(p2);
-        assert p3.distanceTo(p4) == p4.distanceTo(p3);
-
-        assert p4.distanceTo(p5) == 50;
-        assert p5.distanceTo(p4) == 50;
+    public void caching() {
+        assert Position.of(3, 4) == Position.of(3, 4);
+        assert Position.of(-2, 5) == Position.of(-2, 5);
+        assert Position.of(1000, 1000).equals(Position.of(1000, 1000));
+        assert Position.of(3, 4).hashCode() == java.util.Objects.hash(3, 4);
+        assert Position.of(-7, 12).hashCode() == java.util.Objects.hash(-7, 12);
     }
-}
\ No newline at end of file
+}
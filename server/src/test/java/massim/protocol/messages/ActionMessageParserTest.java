@@ -0,0 +1,52 @@
+package massim.protocol.messages;
+
+import org.json.JSONObject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class ActionMessageParserTest {
+
+    @org.junit.Test
+    public void plainActionsMatchJsonParsing() {
+        var messages = new String[] {
+                "{\"type\":\"action\",\"content\":{\"id\":17,\"type\":\"move\",\"p\":[\"n\"]}}",
+                " { \"content\" : { \"p\" : [ \"0\", \"-1\" ], \"type\" : \"submit\", \"id\" : -3 } , \"type\" : \"action\" } ",
+                "{\"type\":\"action\",\"content\":{\"type\":\"r\u00f6tate\",\"id\":2,\"p\":[]}}"
+        };
+        for (var message : messages) {
+            var action = ActionMessageParser.parse(frame(message));
+            var expected = (ActionMessage) Message.buildFromJson(new JSONObject(message));
+            assert action != null;
+            assert action.getId() == expected.getId();
+            assert action.getActionType().equals(expected.getActionType());
+            assert action.getParams().equals(expected.getParams());
+        }
+    }
+
+    @org.junit.Test
+    public void otherMessagesAreLeftToJsonParsing() {
+        var messages = new String[] {
+                "{\"type\":\"auth-request\",\"content\":{\"user\":\"a\",\"pw\":\"1\"}}",
+                "{\"type\":\"action\",\"content\":{\"id\":1,\"type\":\"mo\\u0076e\",\"p\":[]}}",
+                "{\"type\":\"action\",\"content\":{\"id\":1,\"id\":2,\"type\":\"move\",\"p\":[]}}",
+                "{\"type\":\"action\",\"content\":{\"id\":1.5,\"type\":\"move\",\"p\":[]}}",
+                "{\"type\":\"action\",\"content\":{\"id\":1,\"type\":\"move\",\"p\":[1]}}",
+                "{\"type\":\"action\",\"content\":{\"id\":1,\"type\":\"move\",\"p\":[]}}}",
+                "{\"type\":\"action\",\"content\":{\"id\":1,\"type\":\"move\",\"p\":[\"n",
+                "{\"content\":{\"id\":1,\"type\":\"move\",\"p\":[]}}"
+        };
+        for (var message : messages) assert ActionMessageParser.parse(frame(message)) == null : message;
+    }
+
+    /**
+     * @return the message in the middle of a larger buffer, like a frame read from a stream
+     */
+    private static ByteBuffer frame(String message) {
+        var bytes = message.getBytes(StandardCharsets.UTF_8);
+        var data = new byte[bytes.length + 8];
+        System.arraycopy(bytes, 0, data, 3, bytes.length);
+        data[bytes.length + 3] = '"';
+        return ByteBuffer.wrap(data, 3, bytes.length).slice();
+    }
+}
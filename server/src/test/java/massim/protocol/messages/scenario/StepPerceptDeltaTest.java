@@ -0,0 +1,65 @@
+package massim.protocol.messages.scenario;
+
+import massim.protocol.data.Position;
+import massim.protocol.data.TaskInfo;
+import massim.protocol.data.Thing;
+import massim.protocol.messages.Message;
+import org.json.JSONObject;
+
+import java.util.*;
+
+public class StepPerceptDeltaTest {
+
+    @org.junit.Test
+    public void deltaRestoresPercept() {
+        var requirement = Set.of(new Thing(0, 1, "b0", ""));
+        var previous = new StepPercept(4, 10,
+                Set.of(new Thing(0, 0, Thing.TYPE_ENTITY, "A"), new Thing(2, 1, Thing.TYPE_BLOCK, "b0"),
+                        new Thing(-3, 0, Thing.TYPE_MARKER, "clear"), new Thing(-3, 0, Thing.TYPE_MARKER, "clear")),
+                Map.of("obstacle", Set.of(Position.of(1, 1), Position.of(-2, 3), Position.of(0, -4))),
+                Set.of(new TaskInfo("task0", 50, 40, requirement), new TaskInfo("task1", 60, 30, requirement)),
+                "skip", List.of(), "success", Set.of(), "");
+
+        // the agent moved east, so everything else moved west by one
+        var current = new StepPercept(5, 10,
+                Set.of(new Thing(0, 0, Thing.TYPE_ENTITY, "A"), new Thing(1, 1, Thing.TYPE_BLOCK, "b0"),
+                        new Thing(-4, 0, Thing.TYPE_MARKER, "clear"), new Thing(5, 0, Thing.TYPE_DISPENSER, "b1")),
+                Map.of("obstacle", Set.of(Position.of(0, 1), Position.of(-3, 3), Position.of(2, 2)),
+                        "goal", Set.of(Position.of(0, 0))),
+                Set.of(new TaskInfo("task0", 50, 39, requirement), new TaskInfo("task2", 70, 20, requirement)),
+                "move", List.of("e"), "success", Set.of(Position.of(1, 1)), "task0");
+        current.updateIdAndDeadline(5, 1000);
+
+        var delta = StepPerceptDelta.between(previous, current, Position.of(1, 0));
+        assert delta.shift.equals(Position.of(1, 0));
+        // the agent's own entity, the new dispenser and one of the markers
+        assert delta.addedThings.size() == 2;
+        assert delta.removedThings.size() == 2;
+        assert delta.taskRewards.equals(Map.of("task0", 39));
+
+        var received = Message.buildFromJson(new JSONObject(delta.toJson().toString()));
+        assert received instanceof StepPerceptDelta;
+        var restored = ((StepPerceptDelta) received).applyTo(previous);
+        assert restored != null;
+        assert describe(restored).equals(describe(current));
+        assert restored.getId() == 5 && restored.getDeadline() == 1000;
+
+        assert ((StepPerceptDelta) received).applyTo(current) == null;
+    }
+
+    private static String describe(StepPercept percept) {
+        var things = new ArrayList<String>();
+        percept.things.forEach(t -> things.add(t.toString()));
+        Collections.sort(things);
+        var terrain = new TreeMap<String, Set<String>>();
+        percept.terrain.forEach((type, positions) -> {
+            var sorted = new TreeSet<String>();
+            positions.forEach(p -> sorted.add(p.toString()));
+            terrain.put(type, sorted);
+        });
+        var tasks = new TreeMap<String, String>();
+        percept.taskInfo.forEach(t -> tasks.put(t.name, t.toJSON().toString()));
+        return percept.getStep() + " " + things + terrain + tasks + percept.attachedThings + percept.lastAction
+                + percept.lastActionParams + percept.lastActionResult + percept.score + percept.task;
+    }
+}
@@ -0,0 +1,46 @@
+package massim.util;
+
+import org.junit.Test;
+
+public class RNGTest {
+
+    @Test
+    public void streamsAreReproducible() {
+        var a = new RNG(42).stream("map");
+        var b = new RNG(42).stream("map");
+        for (var i = 0; i < 100; i++) assert a.nextInt() == b.nextInt();
+    }
+
+    @Test
+    public void streamsAreIndependent() {
+        var root = new RNG(42);
+        var tasks = root.stream("tasks");
+        var expected = new int[20];
+        for (var i = 0; i < expected.length; i++) expected[i] = tasks.nextInt();
+
+        // drawing from the root and from other streams first must not change the stream
+        var other = new RNG(42);
+        for (var i = 0; i < 50; i++) other.nextInt();
+        var events = other.stream("events");
+        for (var i = 0; i < 50; i++) events.nextInt();
+        var tasksAgain = other.stream("tasks");
+        for (var value : expected) assert tasksAgain.nextInt() == value;
+    }
+
+    @Test
+    public void streamsDiffer() {
+        var root = new RNG(42);
+        var map = root.stream("map");
+        var tasks = root.stream("tasks");
+        var otherSeed = new RNG(43).stream("map");
+        var sameAsTasks = 0;
+        var sameAsOtherSeed = 0;
+        for (var i = 0; i < 20; i++) {
+            var value = map.nextInt();
+            if (value == tasks.nextInt()) sameAsTasks++;
+            if (value == otherSeed.nextInt()) sameAsOtherSeed++;
+        }
+        assert sameAsTasks < 20;
+        assert sameAsOtherSeed < 20;
+    }
+}